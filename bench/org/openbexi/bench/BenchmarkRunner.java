@@ -0,0 +1,23 @@
+package org.openbexi.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of target/benchmarks.jar: plain JMH command line, with the GC profiler always on so
+// every run reports allocation rate (gc.alloc.rate.norm = bytes allocated per operation).
+//   java -jar target/benchmarks.jar                          all benchmarks
+//   java -jar target/benchmarks.jar Earthquake -p size=10000 one class, one catalog size
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,177 @@
+package org.openbexi.bench;
+
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.earthquake.EarthquakeJsonConverter;
+import org.openbexi.volcano.VolcanoJsonConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+// End-to-end load and soak run of both converters against an in-process UsgsStub, without touching
+// the real USGS APIs. The converters run exactly as in production (same job entry points as the
+// IngestDaemon) on a scratch data root, which is cleared first:
+//   backfill  earthquake -all over the whole synthetic catalog (count-sized windows, retries)
+//   rounds    the stub revises events and issues notices, then earthquake -poll 0 and volcano -all
+// and every phase reports events/s, files and bytes written, retries and failures, the p50 / p99
+// of each stage (cumulative per namespace since the start of the run) and the peak heap (the stub
+// included, sampled every 10 ms).
+//   java -cp target/benchmarks.jar org.openbexi.bench.LoadHarness [-events 1000000] [-rounds 10] ...
+// Options (defaults in parentheses): -events (200000) -days (30) -swarms (5) -swarmFraction (0.3)
+// -volcanoes (160) -notices (20) -maxAllowed (20000) -latencyMillis (20) -errorRate (0.01)
+// -workers (4) -requestsPerSecond (50) -concurrency (8) -rounds (3) -revisions (500) -newNotices (10)
+// The converters size their queries for the real cap of 20000 events: a lower -maxAllowed, or more
+// than that many events in the poll's first look-back day, makes the stub answer 400 as USGS would.
+public class LoadHarness {
+
+    private static final String DATA_ROOT = SampleCatalogs.WORK_DIR + "load/";
+    private static final long HEAP_SAMPLE_MILLIS = 10;
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static volatile long peakHeapBytes;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        long events = Long.parseLong(options.getOrDefault("events", "200000"));
+        int days = Integer.parseInt(options.getOrDefault("days", "30"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "3"));
+        int revisions = Integer.parseInt(options.getOrDefault("revisions", "500"));
+        int newNotices = Integer.parseInt(options.getOrDefault("newNotices", "10"));
+
+        long stubStart = System.nanoTime();
+        UsgsStub stub = new UsgsStub(events, days,
+                Integer.parseInt(options.getOrDefault("swarms", "5")),
+                Double.parseDouble(options.getOrDefault("swarmFraction", "0.3")),
+                Integer.parseInt(options.getOrDefault("volcanoes", "160")),
+                Integer.parseInt(options.getOrDefault("notices", "20")),
+                Integer.parseInt(options.getOrDefault("maxAllowed", "20000")),
+                Long.parseLong(options.getOrDefault("latencyMillis", "20")),
+                Double.parseDouble(options.getOrDefault("errorRate", "0.01")), 42);
+        System.out.printf("Stub on %s: %d events over %d days, built in %.1f s.%n",
+                stub.getBaseUrl(), stub.getEventCount(), days, (System.nanoTime() - stubStart) / 1e9);
+
+        // Read by the converters when their classes are initialized, i.e. by the first job
+        deleteRecursively(new File(DATA_ROOT));
+        System.setProperty("openbexi.data.root", DATA_ROOT);
+        System.setProperty("openbexi.earthquake.url", stub.getBaseUrl() + "fdsnws/event/1/");
+        System.setProperty("openbexi.volcano.url", stub.getBaseUrl());
+        System.setProperty("openbexi.metrics.summarySeconds", "0");
+
+        Thread sampler = new Thread(() -> {
+            while (true) {
+                peakHeapBytes = Math.max(peakHeapBytes, MEMORY.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        try {
+            String oldestDay = LocalDate.now(ZoneOffset.UTC).minusDays(days).toString();
+            runPhase("backfill", "earthquake", () -> EarthquakeJsonConverter.runJob("-all", options.getOrDefault("workers", "4"),
+                    options.getOrDefault("requestsPerSecond", "50"), oldestDay));
+
+            String concurrency = options.getOrDefault("concurrency", "8");
+            for (int round = 1; round <= rounds; round++) {
+                stub.revise(revisions);
+                stub.issueNotices(newNotices);
+                runPhase("poll " + round, "earthquake", () -> EarthquakeJsonConverter.runJob("-poll", "0"));
+                runPhase("sweep " + round, "volcano", () -> VolcanoJsonConverter.runJob("-all", concurrency));
+            }
+        } finally {
+            EarthquakeJsonConverter.shutdown();
+            VolcanoJsonConverter.shutdown();
+            stub.stop();
+        }
+
+        long[] files = countFiles(new File(DATA_ROOT));
+        System.out.printf("%d requests served (%d failed on purpose), %d files (%.1f MB) under %s.%n",
+                stub.getRequests(), stub.getErrors(), files[0], files[1] / 1e6, DATA_ROOT);
+    }
+
+    private interface Phase {
+        void run() throws Exception;
+    }
+
+    private static void runPhase(String name, String namespace, Phase phase) throws Exception {
+        IngestMetrics metrics = IngestMetrics.forNamespace(namespace);
+        long eventsRead = metrics.getEventsRead();
+        long eventsWritten = metrics.getEventsWritten();
+        long filesWritten = metrics.getFilesWritten();
+        long bytesWritten = metrics.getBytesWritten();
+        long retries = metrics.getRetries();
+        long failures = metrics.getFailures();
+        peakHeapBytes = 0;
+        System.gc();
+
+        long start = System.nanoTime();
+        phase.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long read = metrics.getEventsRead() - eventsRead;
+        StringBuilder stages = new StringBuilder();
+        Map<String, Long> counts = metrics.getStageCounts();
+        Map<String, Double> p50 = metrics.getStageP50Millis();
+        Map<String, Double> p99 = metrics.getStageP99Millis();
+        for (Map.Entry<String, Long> stage : counts.entrySet()) {
+            if (stage.getValue() > 0) {
+                stages.append(String.format(" %s p50 %.1f p99 %.1f ms,", stage.getKey(), p50.get(stage.getKey()), p99.get(stage.getKey())));
+            }
+        }
+        System.out.printf("== %s: %d events read (%.0f/s), %d written, %d files (%.1f MB), %d retries, %d failures in %.1f s, peak heap %d MB |%s%n",
+                name, read, read / seconds, metrics.getEventsWritten() - eventsWritten, metrics.getFilesWritten() - filesWritten,
+                (metrics.getBytesWritten() - bytesWritten) / 1e6, metrics.getRetries() - retries, metrics.getFailures() - failures,
+                seconds, peakHeapBytes >> 20, stages.length() > 0 ? stages.substring(0, stages.length() - 1) : "");
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("-") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected -<option> <value> pairs, got: " + String.join(" ", args));
+            }
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        return options;
+    }
+
+    // Function to count the files under a directory and their total size
+    private static long[] countFiles(File dir) {
+        long[] total = {0, 0};
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    long[] sub = countFiles(child);
+                    total[0] += sub[0];
+                    total[1] += sub[1];
+                } else {
+                    total[0]++;
+                    total[1] += child.length();
+                }
+            }
+        }
+        return total;
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.openbexi.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Benchmark inputs built from the sample files in json/: the sample events are turned back into
+// USGS GeoJSON features / HANS notices, and scaled catalogs repeat them with unique ids and times
+// spread over one year. Scaled catalogs are written once under target/jmh-data/ and reused.
+public class SampleCatalogs {
+
+    public static final String SAMPLES_DIR = System.getProperty("openbexi.bench.samples", "json/");
+    public static final String WORK_DIR = System.getProperty("openbexi.bench.work", "target/jmh-data/");
+
+    private static final long CATALOG_START_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final long CATALOG_SPAN_MILLIS = 365L * 24 * 3600 * 1000;
+
+    private SampleCatalogs() {
+    }
+
+    // Function to get the "properties" of the sample earthquake features
+    public static List<JSONObject> earthquakeProperties() throws IOException {
+        List<JSONObject> properties = new ArrayList<>();
+        JSONArray events = readJson(SAMPLES_DIR + "earthquake_2024_08_23_19.json").getJSONArray("events");
+        for (int i = 0; i < events.length(); i++) {
+            properties.add(events.getJSONObject(i).getJSONObject("data"));
+        }
+        return properties;
+    }
+
+    // Function to get the sample volcano events as HANS notices
+    public static List<JSONObject> volcanoNotices() throws IOException {
+        List<JSONObject> notices = new ArrayList<>();
+        JSONArray events = readJson(SAMPLES_DIR + "volcano_2024_09_13_00.json").getJSONArray("events");
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject data = events.getJSONObject(i).getJSONObject("data");
+            JSONObject notice = new JSONObject();
+            notice.put("sent_unixtime", 1726243204L + i * 60L);
+            for (String key : new String[]{"notice_url", "noticeIdentifier", "noticeType", "noticeCategory", "obs", "obsFullname", "volcanoes", "notice_data"}) {
+                notice.put(key, data.opt(key));
+            }
+            JSONObject section = new JSONObject();
+            for (String key : new String[]{"synopsis", "colorCode", "alertLevel", "volcanoCd", "volcanoName", "vnum"}) {
+                section.put(key, data.opt(key));
+            }
+            notice.put("sections", new JSONArray().put(section));
+            notices.add(notice);
+        }
+        return notices;
+    }
+
+    // Function to get a GeoJSON FeatureCollection file holding size synthetic earthquakes
+    public static File earthquakeCatalog(int size) throws IOException {
+        File file = new File(WORK_DIR, "earthquake_catalog_" + size + ".geojson");
+        if (file.isFile()) {
+            return file;
+        }
+        List<JSONObject> samples = earthquakeProperties();
+        writeCatalog(file, "{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":" + size + "},\"features\":[", size, i -> {
+            JSONObject properties = new JSONObject(samples.get(i % samples.size()).toMap());
+            long time = CATALOG_START_MILLIS + i * (CATALOG_SPAN_MILLIS / size);
+            String code = "b" + i;
+            properties.put("time", time);
+            properties.put("updated", time + 60_000);
+            properties.put("code", code);
+            properties.put("ids", "," + properties.optString("net") + code + ",");
+
+            JSONObject feature = new JSONObject();
+            feature.put("type", "Feature");
+            feature.put("properties", properties);
+            feature.put("geometry", new JSONObject().put("type", "Point")
+                    .put("coordinates", new JSONArray().put(-180 + (i * 7.3) % 360).put(-90 + (i * 3.1) % 180).put((i % 700) / 1.0)));
+            feature.put("id", properties.optString("net") + code);
+            return feature;
+        }, "]}");
+        return file;
+    }
+
+    // Function to get a JSON array file holding size synthetic volcano notices
+    public static File volcanoCatalog(int size) throws IOException {
+        File file = new File(WORK_DIR, "volcano_catalog_" + size + ".json");
+        if (file.isFile()) {
+            return file;
+        }
+        List<JSONObject> samples = volcanoNotices();
+        writeCatalog(file, "[", size, i -> {
+            JSONObject notice = new JSONObject(samples.get(i % samples.size()).toMap());
+            notice.put("sent_unixtime", (CATALOG_START_MILLIS + i * (CATALOG_SPAN_MILLIS / size)) / 1000);
+            notice.put("noticeIdentifier", "DOI-USGS-BENCH-" + i);
+            return notice;
+        }, "]");
+        return file;
+    }
+
+    public static String readString(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    public static JSONObject readJson(String path) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+
+    private interface ElementFactory {
+        JSONObject create(int index);
+    }
+
+    private static void writeCatalog(File file, String header, int size, ElementFactory factory, String footer) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write(header);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                factory.create(i).write(writer);
+            }
+            writer.write(footer);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to create " + file);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.openbexi.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-process stand-in for the USGS APIs the converters call, serving a synthetic catalog on
+// http://127.0.0.1:<port>/:
+//   fdsnws/event/1/count, fdsnws/event/1/query   starttime / endtime / updatedafter, 400 past maxAllowed
+//   vsc/api/volcanoApi/volcanoesUS               the volcanoes
+//   hans-public/api/notice/getNewestOrRecent[/<vnum>]  with an ETag, 304 on If-None-Match
+// The earthquakes are spread over the given days up to now: a background rate plus swarms packing a
+// fraction of them into a few 6 hour bursts, magnitudes drawn from a Gutenberg-Richter law (b = 1).
+// Every feature is generated from its index when it is served, so a catalog of millions of events
+// costs two longs per event. Each request waits latencyMillis (+/- 50%) and fails with a 503 with
+// probability errorRate. revise() and issueNotices() make new versions for the polls and sweeps.
+public class UsgsStub {
+
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+    private static final long SWARM_MILLIS = 6 * MILLIS_PER_HOUR;
+    private static final String[] COLOR_CODES = {"GREEN", "YELLOW", "ORANGE", "RED"};
+    private static final String[] ALERT_LEVELS = {"NORMAL", "ADVISORY", "WATCH", "WARNING"};
+    // Swarm of an event in the low bits of its sort key, 0 for the background
+    private static final int SWARM_BITS = 6;
+
+    private final long seed;
+    private final int maxAllowed;
+    private final long latencyMillis;
+    private final double errorRate;
+
+    // Sorted by time: time << SWARM_BITS | swarm
+    private final long[] keys;
+    private final long[] updated;
+    private final double[][] swarmCenters;
+
+    private final List<String> vnums = new ArrayList<>();
+    private final Map<String, List<JSONObject>> noticesByVnum = new HashMap<>();
+    private final List<JSONObject> noticeTemplates;
+    private long noticeCount;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public UsgsStub(long events, int days, int swarms, double swarmFraction, int volcanoes, int noticesPerVolcano,
+                    int maxAllowed, long latencyMillis, double errorRate, long seed) throws IOException {
+        if (events > Integer.MAX_VALUE - 8 || swarms >= 1 << SWARM_BITS) {
+            throw new IllegalArgumentException("At most " + (Integer.MAX_VALUE - 8) + " events and " + ((1 << SWARM_BITS) - 1) + " swarms");
+        }
+        this.seed = seed;
+        this.maxAllowed = maxAllowed;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+
+        Random random = new Random(seed);
+        long end = System.currentTimeMillis();
+        long start = end - days * 24 * MILLIS_PER_HOUR;
+        long[] swarmStarts = new long[swarms];
+        swarmCenters = new double[swarms][];
+        for (int s = 0; s < swarms; s++) {
+            swarmStarts[s] = start + (long) (random.nextDouble() * (end - start - SWARM_MILLIS));
+            swarmCenters[s] = new double[]{-180 + random.nextDouble() * 360, -60 + random.nextDouble() * 120};
+        }
+
+        int size = (int) events;
+        keys = new long[size];
+        updated = new long[size];
+        long swarmEvents = swarms > 0 ? (long) (events * swarmFraction) : 0;
+        for (int i = 0; i < size; i++) {
+            long time;
+            int swarm = 0;
+            if (i < swarmEvents) {
+                swarm = 1 + i % swarms;
+                time = swarmStarts[swarm - 1] + (long) (random.nextDouble() * SWARM_MILLIS);
+            } else {
+                time = start + (long) (random.nextDouble() * (end - start));
+            }
+            keys[i] = time << SWARM_BITS | swarm;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < size; i++) {
+            // Reviewed a minute after the origin time
+            updated[i] = (keys[i] >>> SWARM_BITS) + 60_000;
+        }
+
+        noticeTemplates = SampleCatalogs.volcanoNotices();
+        for (int v = 0; v < volcanoes; v++) {
+            String vnum = String.valueOf(300000 + v);
+            vnums.add(vnum);
+            noticesByVnum.put(vnum, new ArrayList<>());
+            for (int n = 0; n < noticesPerVolcano; n++) {
+                addNotice(vnum, end - (long) (random.nextDouble() * days * 24 * MILLIS_PER_HOUR), random.nextInt(COLOR_CODES.length));
+            }
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        server.createContext("/", this::handle);
+        executor = Executors.newFixedThreadPool(16, runnable -> {
+            Thread thread = new Thread(runnable, "usgs-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public int getEventCount() {
+        return keys.length;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Function to publish a new version of count random events of the last day, returns their number
+    public synchronized int revise(int count) {
+        long now = System.currentTimeMillis();
+        int from = firstIndexAtOrAfter(now - 24 * MILLIS_PER_HOUR);
+        if (from >= keys.length) {
+            return 0;
+        }
+        Random random = new Random(seed + now);
+        for (int i = 0; i < count; i++) {
+            updated[from + random.nextInt(keys.length - from)] = now;
+        }
+        return count;
+    }
+
+    // Function to issue a new notice (the next color code) for count random volcanoes
+    public synchronized void issueNotices(int count) {
+        Random random = new Random(seed + noticeCount);
+        for (int i = 0; i < count && !vnums.isEmpty(); i++) {
+            String vnum = vnums.get(random.nextInt(vnums.size()));
+            List<JSONObject> notices = noticesByVnum.get(vnum);
+            int color = notices.isEmpty() ? 0 : (indexOfColor(notices.get(notices.size() - 1)) + 1) % COLOR_CODES.length;
+            addNotice(vnum, System.currentTimeMillis(), color);
+        }
+    }
+
+    private void addNotice(String vnum, long sentMillis, int color) {
+        JSONObject notice = new JSONObject(noticeTemplates.get((int) (noticeCount % noticeTemplates.size())).toMap());
+        notice.put("sent_unixtime", sentMillis / 1000);
+        notice.put("noticeIdentifier", "DOI-USGS-STUB-" + vnum + "-" + noticeCount++);
+        JSONObject section = notice.getJSONArray("sections").getJSONObject(0);
+        section.put("vnum", vnum);
+        section.put("volcanoName", "Stub Volcano " + vnum);
+        section.put("colorCode", COLOR_CODES[color]);
+        section.put("alertLevel", ALERT_LEVELS[color]);
+        noticesByVnum.get(vnum).add(notice);
+    }
+
+    private static int indexOfColor(JSONObject notice) {
+        return Arrays.asList(COLOR_CODES).indexOf(notice.getJSONArray("sections").getJSONObject(0).optString("colorCode"));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            long delay = latencyMillis > 0 ? latencyMillis / 2 + ThreadLocalRandom.current().nextLong(latencyMillis + 1) : 0;
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 503, "text/plain", "Service Unavailable");
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (path.endsWith("/fdsnws/event/1/count") || path.endsWith("/fdsnws/event/1/query")) {
+                serveEarthquakes(exchange, path.endsWith("/count"), query);
+            } else if (path.endsWith("/vsc/api/volcanoApi/volcanoesUS")) {
+                JSONArray volcanoes = new JSONArray();
+                for (String vnum : vnums) {
+                    volcanoes.put(new JSONObject().put("vnum", vnum).put("volcano_name", "Stub Volcano " + vnum));
+                }
+                respond(exchange, 200, "application/json", volcanoes.toString());
+            } else if (path.contains("/hans-public/api/notice/getNewestOrRecent")) {
+                String notices = notices(path.substring(path.indexOf("getNewestOrRecent") + "getNewestOrRecent".length()));
+                String etag = "\"" + Integer.toHexString(notices.hashCode()) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    // The JDK server drops the connection after a 304, say so or the client would reuse it
+                    exchange.getResponseHeaders().set("Connection", "close");
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    respond(exchange, 200, "application/json", notices);
+                }
+            } else {
+                respond(exchange, 404, "text/plain", "Not Found");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            respond(exchange, 400, "text/plain", "Error 400: Bad Request\n\n" + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized String notices(String vnumPath) {
+        JSONArray notices = new JSONArray();
+        if (vnumPath.startsWith("/")) {
+            List<JSONObject> ofVolcano = noticesByVnum.get(vnumPath.substring(1));
+            if (ofVolcano != null) {
+                ofVolcano.forEach(notices::put);
+            }
+        } else {
+            // The newest notice of every volcano
+            for (String vnum : vnums) {
+                List<JSONObject> ofVolcano = noticesByVnum.get(vnum);
+                if (!ofVolcano.isEmpty()) {
+                    notices.put(ofVolcano.get(ofVolcano.size() - 1));
+                }
+            }
+        }
+        return notices.toString();
+    }
+
+    private void serveEarthquakes(HttpExchange exchange, boolean count, Map<String, String> query) throws IOException {
+        int from = query.containsKey("starttime") ? firstIndexAtOrAfter(parseTime(query.get("starttime"))) : 0;
+        int to = query.containsKey("endtime") ? firstIndexAtOrAfter(parseTime(query.get("endtime"))) : keys.length;
+        long updatedAfter = query.containsKey("updatedafter") ? parseTime(query.get("updatedafter")) : Long.MIN_VALUE;
+
+        long matching = 0;
+        for (int i = from; i < to; i++) {
+            if (updated[i] > updatedAfter) {
+                matching++;
+            }
+        }
+        if (count) {
+            respond(exchange, 200, "application/json", new JSONObject().put("count", matching).put("maxAllowed", maxAllowed).toString());
+            return;
+        }
+        if (matching > maxAllowed) {
+            throw new IllegalArgumentException(matching + " matching events exceeds search limit of " + maxAllowed + ". Modify the search to match fewer events.");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write("{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":" + matching + "},\"features\":[");
+            StringBuilder feature = new StringBuilder(1024);
+            boolean first = true;
+            for (int i = from; i < to; i++) {
+                if (updated[i] > updatedAfter) {
+                    if (!first) {
+                        writer.write(',');
+                    }
+                    first = false;
+                    feature.setLength(0);
+                    writer.append(appendFeature(feature, i));
+                }
+            }
+            writer.write("]}");
+        }
+    }
+
+    private StringBuilder appendFeature(StringBuilder sb, int i) {
+        long time = keys[i] >>> SWARM_BITS;
+        int swarm = (int) (keys[i] & ((1 << SWARM_BITS) - 1));
+        long hash = mix(seed ^ time ^ i);
+        double u = ((hash >>> 11) + 1) * 0x1.0p-53;
+        double mag = Math.min(9.5, Math.round((0.5 - Math.log10(u)) * 100) / 100.0);
+        int sig = (int) Math.round(mag * mag * 100 / 6.5);
+        double longitude, latitude;
+        if (swarm > 0) {
+            longitude = swarmCenters[swarm - 1][0] + ((hash & 0xffff) / 65536.0 - 0.5) * 0.2;
+            latitude = swarmCenters[swarm - 1][1] + (((hash >>> 16) & 0xffff) / 65536.0 - 0.5) * 0.2;
+        } else {
+            longitude = -180 + ((hash & 0xffff) / 65536.0) * 360;
+            latitude = -70 + (((hash >>> 16) & 0xffff) / 65536.0) * 140;
+        }
+        double depth = Math.round(-Math.log(((hash >>> 32) & 0xffff) / 65536.0 + 1e-6) * 2000) / 100.0;
+        String code = "s" + i;
+        String place = (hash >>> 48) % 100 + " km N of Stub Town " + (swarm > 0 ? "S" + swarm : String.valueOf(i % 500));
+
+        sb.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(mag)
+                .append(",\"place\":\"").append(place).append("\",\"time\":").append(time)
+                .append(",\"updated\":").append(updated[i])
+                .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/sb").append(code)
+                .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=sb").append(code)
+                .append("&format=geojson\",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"")
+                .append(updated[i] > time + 60_000 ? "reviewed" : "automatic")
+                .append("\",\"tsunami\":0,\"sig\":").append(sig)
+                .append(",\"net\":\"sb\",\"code\":\"").append(code).append("\",\"ids\":\",sb").append(code)
+                .append(",\",\"sources\":\",sb,\",\"types\":\",origin,phase-data,\",\"nst\":12,\"dmin\":0.05,\"rms\":0.21,\"gap\":88")
+                .append(",\"magType\":\"").append(mag < 4 ? "ml" : "mb").append("\",\"type\":\"earthquake\",\"title\":\"M ").append(mag)
+                .append(" - ").append(place).append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(Math.round(longitude * 1e4) / 1e4).append(',').append(Math.round(latitude * 1e4) / 1e4).append(',').append(depth)
+                .append("]},\"id\":\"sb").append(code).append("\"}");
+        return sb;
+    }
+
+    // Function to find the first event at or after a time (several events may share a millisecond)
+    private int firstIndexAtOrAfter(long time) {
+        long key = time << SWARM_BITS;
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // FDSN times: yyyy-MM-dd, yyyy-MM-ddTHH:mm:ss[.SSS], UTC
+    private static long parseTime(String value) {
+        String time = value.endsWith("Z") ? value.substring(0, value.length() - 1) : value;
+        if (!time.contains("T")) {
+            time += "T00:00:00";
+        }
+        return LocalDateTime.parse(time).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    query.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,144 @@
+package org.openbexi.earthquake;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openbexi.bench.SampleCatalogs;
+import org.openbexi.common.EventFileMerger;
+import org.openbexi.common.EventJsonWriter;
+import org.openbexi.common.PartitionedSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Hot paths of EarthquakeJsonConverter. The per-event benchmarks cycle through the sample features
+// of json/earthquake_2024_08_23_19.json; processJsonCatalog streams a synthetic catalog of
+// 10k / 100k / 1M features from disk, as the converter does with a USGS response.
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Dopenbexi.data.root=target/jmh-data/"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EarthquakeConverterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        @Param({"10000", "100000", "1000000"})
+        public int size;
+
+        public File catalog;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            catalog = SampleCatalogs.earthquakeCatalog(size);
+        }
+    }
+
+    private List<JSONObject> properties;
+    private JSONObject geometry;
+    private JSONObject sampleFile;
+    private File sampleFileCopy;
+    private File outputFile;
+    private List<EarthquakeEvent> sampleEvents;
+    private final EventJsonWriter writer = new EventJsonWriter();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        properties = SampleCatalogs.earthquakeProperties();
+        geometry = new JSONObject().put("type", "Point").put("coordinates", new JSONArray().put(158.6).put(52.4).put(35.0));
+        sampleFile = SampleCatalogs.readJson(SampleCatalogs.SAMPLES_DIR + "earthquake_2024_08_23_19.json");
+
+        JSONArray features = new JSONArray();
+        for (JSONObject property : properties) {
+            features.put(new JSONObject().put("type", "Feature").put("properties", property).put("geometry", geometry));
+        }
+        sampleFileCopy = new File(SampleCatalogs.WORK_DIR, "earthquake_sample.geojson");
+        sampleFileCopy.getParentFile().mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(sampleFileCopy), StandardCharsets.UTF_8)) {
+            new JSONObject().put("type", "FeatureCollection").put("features", features).write(writer);
+        }
+        outputFile = new File(SampleCatalogs.WORK_DIR, "earthquake_save_benchmark.json");
+
+        sampleEvents = new ArrayList<>();
+        for (JSONObject property : properties) {
+            long time = property.getLong("time");
+            sampleEvents.add(EarthquakeJsonConverter.createEvent(property, geometry, time, EarthquakeJsonConverter.convertEpochToDate(time)));
+        }
+    }
+
+    private JSONObject nextProperties() {
+        JSONObject property = properties.get(next);
+        next = (next + 1) % properties.size();
+        return property;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public EarthquakeEvent createEvent() {
+        JSONObject property = nextProperties();
+        long time = property.getLong("time");
+        return EarthquakeJsonConverter.createEvent(property, geometry, time, EarthquakeJsonConverter.convertEpochToDate(time));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String determineIconPath() {
+        return EarthquakeJsonConverter.determineIconPath(nextProperties().optDouble("mag"));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String convertEpochToDate() {
+        return EarthquakeJsonConverter.convertEpochToDate(nextProperties().getLong("time") + next);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void saveJsonToFile() throws IOException {
+        EventFileMerger.saveJsonToFile(outputFile.getPath(), sampleFile);
+    }
+
+    // Serialization of the typed events of the sample hour, without the disk (run with -prof gc for the allocation rate)
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long writeEvents() throws IOException {
+        writer.reset(OutputStream.nullOutputStream());
+        writer.beginArray(sampleEvents.size());
+        for (EarthquakeEvent event : sampleEvents) {
+            event.writeJson(writer);
+        }
+        writer.endArray();
+        writer.flush();
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long processJsonSample() throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sampleFileCopy), StandardCharsets.UTF_8));
+             PartitionedSink<EarthquakeEvent> events = EarthquakeJsonConverter.processJson(reader)) {
+            return events.getEventCount();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1, time = 1)
+    @Measurement(iterations = 3, time = 1)
+    public long processJsonCatalog(CatalogState state) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(state.catalog), StandardCharsets.UTF_8), 1 << 16);
+             PartitionedSink<EarthquakeEvent> events = EarthquakeJsonConverter.processJson(reader)) {
+            return events.getEventCount();
+        }
+    }
+}
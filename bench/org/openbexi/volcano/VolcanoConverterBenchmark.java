@@ -0,0 +1,105 @@
+package org.openbexi.volcano;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openbexi.bench.SampleCatalogs;
+import org.openbexi.common.EventFileMerger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Hot paths of VolcanoJsonConverter. The per-notice benchmarks cycle through the notices rebuilt
+// from json/volcano_2024_09_13_00.json; processJsonCatalog converts a synthetic array of
+// 10k / 100k / 1M notices, loaded as a String as the converter receives it.
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Dopenbexi.data.root=target/jmh-data/"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VolcanoConverterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CatalogState {
+        @Param({"10000", "100000", "1000000"})
+        public int size;
+
+        public String catalog;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            catalog = SampleCatalogs.readString(SampleCatalogs.volcanoCatalog(size));
+        }
+    }
+
+    private static final String[] COLOR_CODES = {"RED", "ORANGE", "YELLOW", "GREEN", "UNASSIGNED"};
+
+    private List<JSONObject> notices;
+    private String sampleNotices;
+    private JSONObject sampleFile;
+    private File outputFile;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        notices = SampleCatalogs.volcanoNotices();
+        sampleNotices = new JSONArray(notices).toString();
+        sampleFile = SampleCatalogs.readJson(SampleCatalogs.SAMPLES_DIR + "volcano_2024_09_13_00.json");
+        outputFile = new File(SampleCatalogs.WORK_DIR, "volcano_save_benchmark.json");
+        outputFile.getParentFile().mkdirs();
+    }
+
+    private JSONObject nextNotice() {
+        JSONObject notice = notices.get(next);
+        next = (next + 1) % notices.size();
+        return notice;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public VolcanoNotice createEvent() {
+        JSONObject notice = nextNotice();
+        return VolcanoJsonConverter.createEvent(notice, VolcanoJsonConverter.convertEpochToDate(notice.getLong("sent_unixtime")));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String determineIconPath() {
+        next = (next + 1) % COLOR_CODES.length;
+        return VolcanoJsonConverter.determineIconPath(COLOR_CODES[next]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String convertEpochToDate() {
+        return VolcanoJsonConverter.convertEpochToDate(nextNotice().getLong("sent_unixtime") + next);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void saveJsonToFile() throws IOException {
+        EventFileMerger.saveJsonToFile(outputFile.getPath(), sampleFile);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Map<String, List<VolcanoNotice>> processJsonSample() {
+        return VolcanoJsonConverter.processJson(sampleNotices);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1, time = 1)
+    @Measurement(iterations = 3, time = 1)
+    public Map<String, List<VolcanoNotice>> processJsonCatalog(CatalogState state) {
+        return VolcanoJsonConverter.processJson(state.catalog);
+    }
+}
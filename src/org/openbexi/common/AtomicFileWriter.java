@@ -0,0 +1,214 @@
+package org.openbexi.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Output layer of the partition files. Each file is written to a temporary file next to it, whose
+// data is forced to disk, and renamed over the target, so a reader, a run killed mid-write or a power
+// loss only ever sees the previous or the new content, never a truncated or empty file. Durability of
+// the renames is batched: the renamed files are remembered and a group commit forces their
+// directories to disk every -Dopenbexi.commit.intervalMillis (default 2000), once maxPending files
+// are waiting, and on close(). A directory holding many rewritten files is forced once. A power loss
+// can lose the renames since the last commit, the files then keeping their previous content. A
+// commit that fails keeps its files for the next one, so state derived from them (e.g.
+// SeenEventIndex) is only made durable once a commit returned.
+public class AtomicFileWriter {
+
+    private static final long COMMIT_INTERVAL_MILLIS = Long.getLong("openbexi.commit.intervalMillis", 2000);
+    private static final int MAX_PENDING = 4096;
+
+    private static AtomicFileWriter shared;
+
+    // Writes the content of a file, e.g. a serializer streaming straight into it
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final Object pendingLock = new Object();
+    private Set<File> pendingFiles = new LinkedHashSet<>();
+    // Serializes the group commits
+    private final Object commitLock = new Object();
+    private Thread committer;
+
+    private AtomicFileWriter() {
+    }
+
+    // Function to get the writer shared by the converters, its committer starts on first use
+    public static synchronized AtomicFileWriter shared() {
+        if (shared == null) {
+            shared = new AtomicFileWriter();
+        }
+        return shared;
+    }
+
+    // Function to replace the content of a file, creating its directory if needed
+    public void write(File target, byte[] content) throws IOException {
+        write(target, out -> out.write(content));
+    }
+
+    // Same, the content being written to the temporary file by content
+    public void write(File target, ContentWriter content) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        // Unique per thread: two writers of the same file (e.g. a poller and a backfill) never share a temporary file
+        File tmp = new File(dir, "." + target.getName() + "." + ProcessHandle.current().pid() + "-" + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream out;
+        try {
+            out = new FileOutputStream(tmp);
+        } catch (IOException e) {
+            // The directory may have been packed away by EventArchive since it was first created
+            dir.mkdirs();
+            out = new FileOutputStream(tmp);
+        }
+        try {
+            try (FileOutputStream stream = out) {
+                content.writeTo(stream);
+                // Before the rename: a rename made durable ahead of the data would leave an empty file
+                stream.getChannel().force(false);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // A serializer failing on an event must not leave its temporary file behind either
+            try {
+                Files.deleteIfExists(tmp.toPath());
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        boolean commitNow;
+        synchronized (pendingLock) {
+            pendingFiles.add(target.getAbsoluteFile());
+            commitNow = pendingFiles.size() >= MAX_PENDING;
+            startCommitter();
+        }
+        if (commitNow) {
+            commit();
+        }
+    }
+
+    // Function to force a file and its directories to disk now, e.g. before deleting what it replaces
+    public void sync(File file) throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        files.add(file.getAbsoluteFile());
+        force(files);
+    }
+
+    // Function to force the directories of every file renamed since the last commit to disk
+    public void commit() throws IOException {
+        synchronized (commitLock) {
+            Set<File> files;
+            synchronized (pendingLock) {
+                if (pendingFiles.isEmpty()) {
+                    return;
+                }
+                files = pendingFiles;
+                pendingFiles = new LinkedHashSet<>();
+            }
+            try {
+                forceDirectories(files);
+            } catch (IOException | RuntimeException e) {
+                // Forced again by the next commit: a commit returning means every file renamed before it is durable
+                synchronized (pendingLock) {
+                    files.addAll(pendingFiles);
+                    pendingFiles = files;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Function to run a last commit and stop the periodic ones
+    public void close() throws IOException {
+        Thread stopped;
+        synchronized (pendingLock) {
+            stopped = committer;
+            committer = null;
+            pendingLock.notifyAll();
+        }
+        // Not interrupted: an interrupt would close the channel being forced and lose that batch
+        if (stopped != null) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        commit();
+    }
+
+    private void startCommitter() {
+        if (committer != null || COMMIT_INTERVAL_MILLIS <= 0) {
+            return;
+        }
+        committer = new Thread(() -> {
+            while (true) {
+                synchronized (pendingLock) {
+                    try {
+                        pendingLock.wait(COMMIT_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (committer != Thread.currentThread()) {
+                        return;  // Closed, close() runs the last commit
+                    }
+                }
+                try {
+                    commit();
+                } catch (IOException e) {
+                    System.out.println("Group commit failed: " + e);
+                }
+            }
+        }, "group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    private static void force(Set<File> files) throws IOException {
+        Set<File> forced = new LinkedHashSet<>();
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+                forced.add(file);
+            } catch (NoSuchFileException e) {
+                // Packed away or replaced since, nothing left to force
+            }
+        }
+        forceDirectories(forced);
+    }
+
+    private static void forceDirectories(Set<File> files) throws IOException {
+        // The directories holding new entries, up to the root: a new day directory is itself an entry of its month
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            for (File dir = file.getParentFile(); dir != null; dir = dir.getParentFile()) {
+                if (!dirs.add(dir)) {
+                    break;
+                }
+            }
+        }
+        for (File dir : dirs) {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                // Some platforms (Windows) cannot open a directory, renames are durable there once the file is.
+                // Or packed away since, nothing left to force either
+                continue;
+            }
+            // A directory failing to sync fails the commit, its renames may not be durable
+            try (FileChannel opened = channel) {
+                opened.force(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.openbexi.common;
+
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.apache.commons.compress.archivers.sevenz.SevenZMethod;
+import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+// Historical tier of a namespace: closed days are packed into LZMA2 (XZ) compressed 7z bundles
+//   <root>/yyyy/MM/<namespace>_yyyy_MM_dd.7z   one entry per partition file
+//   <root>/yyyy/<namespace>_yyyy_MM.7z         one entry per partition file, named dd/<file>
+// and the loose files and directories are removed. If late events were written after a period was
+// packed, packing it again folds the old bundle back in through the EventFileMerger first, so no
+// event is lost. A loose file is only removed, under the merger's lock, if it was not rewritten
+// since it was packed. A late event for a packed partition is merged by EventFileMerger with the
+// archived events of the partition (readArchived), so its loose file holds the whole partition.
+public class EventArchive {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File root;
+    private final String namespace;
+    private final EventFileMerger merger;
+
+    public EventArchive(String rootPath, String namespace, EventFileMerger merger) {
+        this.root = new File(rootPath);
+        this.namespace = namespace;
+        this.merger = merger;
+    }
+
+    // Function to pack every day (or every whole month) ending before cutoff, returns the bundles written
+    public int archiveBefore(LocalDate cutoff, boolean monthly) throws IOException {
+        int bundles = 0;
+        for (File yearDir : sortedDirectories(root)) {
+            for (File monthDir : sortedDirectories(yearDir)) {
+                YearMonth month;
+                try {
+                    month = YearMonth.of(Integer.parseInt(yearDir.getName()), Integer.parseInt(monthDir.getName()));
+                } catch (RuntimeException e) {
+                    continue;  // Not a yyyy/MM directory
+                }
+
+                if (monthly) {
+                    if (month.atEndOfMonth().isBefore(cutoff) && archiveMonth(month) != null) {
+                        bundles++;
+                    }
+                    continue;
+                }
+                for (File dayDir : sortedDirectories(monthDir)) {
+                    LocalDate day;
+                    try {
+                        day = month.atDay(Integer.parseInt(dayDir.getName()));
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    if (day.isBefore(cutoff) && archiveDay(day) != null) {
+                        bundles++;
+                    }
+                }
+            }
+        }
+        return bundles;
+    }
+
+    // Function to pack one day, returns the bundle or null if there was nothing to pack
+    public File archiveDay(LocalDate day) throws IOException {
+        File monthDir = new File(root, String.format("%04d/%02d", day.getYear(), day.getMonthValue()));
+        File dayDir = new File(monthDir, String.format("%02d", day.getDayOfMonth()));
+        File bundle = new File(monthDir, String.format("%s_%04d_%02d_%02d.7z", namespace, day.getYear(), day.getMonthValue(), day.getDayOfMonth()));
+
+        List<File> absorbed = new ArrayList<>();
+        if (bundle.isFile()) {
+            absorbed.add(bundle);
+        }
+        return pack(bundle, dayDir, absorbed, "");
+    }
+
+    // Function to pack one month, day bundles of that month are folded into it
+    public File archiveMonth(YearMonth month) throws IOException {
+        File yearDir = new File(root, String.format("%04d", month.getYear()));
+        File monthDir = new File(yearDir, String.format("%02d", month.getMonthValue()));
+        File bundle = new File(yearDir, String.format("%s_%04d_%02d.7z", namespace, month.getYear(), month.getMonthValue()));
+
+        List<File> absorbed = new ArrayList<>();
+        if (bundle.isFile()) {
+            absorbed.add(bundle);
+        }
+        File[] dayBundles = monthDir.listFiles((dir, name) -> name.startsWith(namespace + "_") && name.endsWith(".7z"));
+        if (dayBundles != null) {
+            for (File dayBundle : dayBundles) {
+                absorbed.add(dayBundle);
+            }
+        }
+        return pack(bundle, monthDir, absorbed, null);
+    }
+
+    // prefix: entry name prefix of absorbed bundles, null to derive it from the bundle name (dd/)
+    private File pack(File bundle, File looseDir, List<File> absorbed, String prefix) throws IOException {
+        // Fold bundles written earlier back into the loose files, merging with any late event
+        for (File old : absorbed) {
+            String entryPrefix = prefix != null || old.equals(bundle) ? "" : dayOfBundle(old) + "/";
+            restore(old, looseDir, entryPrefix);
+        }
+
+        TreeMap<String, File> files = new TreeMap<>();
+        collectFiles(looseDir, "", files);
+        if (files.isEmpty()) {
+            return null;
+        }
+
+        // What each file was when it was packed: a file rewritten since (by a poll or a backfill
+        // running alongside) is a new file, kept loose and folded in by the next pack
+        Map<File, BasicFileAttributes> packed = new HashMap<>();
+        File tmp = new File(bundle.getPath() + ".tmp");
+        try (SevenZOutputFile out = new SevenZOutputFile(tmp)) {
+            out.setContentCompression(SevenZMethod.LZMA2);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                out.putArchiveEntry(out.createArchiveEntry(entry.getValue(), entry.getKey()));
+                packed.put(entry.getValue(), Files.readAttributes(entry.getValue().toPath(), BasicFileAttributes.class));
+                try (InputStream in = new FileInputStream(entry.getValue())) {
+                    int len;
+                    while ((len = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, len);
+                    }
+                }
+                out.closeArchiveEntry();
+            }
+        }
+        Files.move(tmp.toPath(), bundle.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        AtomicFileWriter.shared().sync(bundle);
+
+        // Only once the bundle is in place (and on disk) are the sources dropped
+        for (File old : absorbed) {
+            if (!old.equals(bundle)) {
+                Files.deleteIfExists(old.toPath());
+            }
+        }
+        int kept = 0;
+        for (File file : files.values()) {
+            boolean deleted = merger.withFileLock(file.getPath(), () -> {
+                if (!isUnchanged(file, packed.get(file))) {
+                    return false;
+                }
+                Files.deleteIfExists(file.toPath());
+                return true;
+            });
+            if (!deleted) {
+                kept++;
+            }
+        }
+        deleteEmptyDirectories(looseDir);
+
+        System.out.println("Archived " + files.size() + " files to: " + bundle
+                + (kept > 0 ? ", " + kept + " rewritten meanwhile kept loose" : ""));
+        return bundle;
+    }
+
+    // Function to tell whether a file is still the one whose attributes were read: an atomic rewrite
+    // replaces the file (another file key) and usually changes its time or size
+    private static boolean isUnchanged(File file, BasicFileAttributes seen) throws IOException {
+        BasicFileAttributes current;
+        try {
+            current = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return Objects.equals(current.fileKey(), seen.fileKey()) && current.size() == seen.size()
+                && current.lastModifiedTime().equals(seen.lastModifiedTime());
+    }
+
+    private void restore(File bundle, File looseDir, String entryPrefix) throws IOException {
+        try (SevenZFile sevenZFile = new SevenZFile(bundle)) {
+            SevenZArchiveEntry entry;
+            while ((entry = sevenZFile.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                File target = new File(looseDir, entryPrefix + entry.getName());
+                byte[] content = entryStream(sevenZFile).readAllBytes();
+                // A late event may be merged into the loose file meanwhile, restore under its lock
+                merger.withFileLock(target.getPath(), () -> {
+                    if (target.isFile()) {
+                        JSONObject archived = new JSONObject(new JSONTokener(
+                                new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)));
+                        JSONArray events = archived.optJSONArray("events");
+                        if (events != null) {
+                            merger.mergeJson(target.getPath(), events);
+                        }
+                    } else {
+                        AtomicFileWriter.shared().write(target, content);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    // Function to read the archived content of a partition file <root>/yyyy/MM/dd/<namespace>_yyyy_MM_dd_HH.json
+    // packed away, from its day bundle or else its month bundle; null if neither holds it
+    public static byte[] readArchived(File partitionFile) throws IOException {
+        String name = partitionFile.getName();
+        int partitionLength = "_yyyy_MM_dd_HH.json".length();
+        File dayDir = partitionFile.getAbsoluteFile().getParentFile();
+        File monthDir = dayDir != null ? dayDir.getParentFile() : null;
+        File yearDir = monthDir != null ? monthDir.getParentFile() : null;
+        if (name.length() <= partitionLength || !name.endsWith(".json") || yearDir == null) {
+            return null;
+        }
+        String dayName = name.substring(0, name.length() - "_HH.json".length());
+        String monthName = name.substring(0, name.length() - "_dd_HH.json".length());
+
+        byte[] content = readEntry(new File(monthDir, dayName + ".7z"), name);
+        return content != null ? content : readEntry(new File(yearDir, monthName + ".7z"), dayDir.getName() + "/" + name);
+    }
+
+    // Function to read one entry of a bundle, null if there is no such bundle or entry
+    private static byte[] readEntry(File bundle, String entryName) throws IOException {
+        if (!bundle.isFile()) {
+            return null;
+        }
+        try (SevenZFile sevenZFile = new SevenZFile(bundle)) {
+            SevenZArchiveEntry entry;
+            while ((entry = sevenZFile.getNextEntry()) != null) {
+                if (!entry.isDirectory() && entry.getName().equals(entryName)) {
+                    return entryStream(sevenZFile).readAllBytes();
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Folded into a month bundle meanwhile
+        }
+        return null;
+    }
+
+    // Function to view the current entry of a SevenZFile as an InputStream, decoded as it is read
+    public static InputStream entryStream(SevenZFile sevenZFile) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return sevenZFile.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return sevenZFile.read(b, off, len);
+            }
+        };
+    }
+
+    // Function to get dd from <namespace>_yyyy_MM_dd.7z
+    private String dayOfBundle(File dayBundle) {
+        String name = dayBundle.getName();
+        return name.substring(name.length() - ".7z".length() - 2, name.length() - ".7z".length());
+    }
+
+    private static void collectFiles(File dir, String prefix, TreeMap<String, File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, prefix + child.getName() + "/", files);
+            } else if (child.getName().endsWith(".json")) {
+                files.put(prefix + child.getName(), child);
+            }
+        }
+    }
+
+    private static void deleteEmptyDirectories(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                deleteEmptyDirectories(child);
+            }
+        }
+        String[] remaining = dir.list();
+        if (remaining != null && remaining.length == 0) {
+            dir.delete();
+        }
+    }
+
+    private static List<File> sortedDirectories(File dir) {
+        File[] children = dir.listFiles(File::isDirectory);
+        List<File> directories = new ArrayList<>();
+        if (children != null) {
+            directories.addAll(List.of(children));
+            directories.sort(null);
+        }
+        return directories;
+    }
+}
@@ -0,0 +1,15 @@
+package org.openbexi.common;
+
+import java.util.List;
+
+// Converted events bound for one partition file, the unit handed to the write stage of a pipeline
+public final class EventBatch<E extends EventRecord> {
+
+    public final String filePath;
+    public final List<E> events;
+
+    public EventBatch(String filePath, List<E> events) {
+        this.filePath = filePath;
+        this.events = events;
+    }
+}
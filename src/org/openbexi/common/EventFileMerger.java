@@ -0,0 +1,291 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+// Merges freshly converted events into an existing {"dateTimeFormat", "events"} file instead of
+// overwriting it. Events are matched through any of their keys (the ones returned by keyExtractor for
+// the events read back from the file); when an event is already on disk the one with the higher
+// version wins, and the id already written is kept so that downstream consumers see a stable event.
+// A file is only rewritten when its content changes, and is then streamed to disk by an
+// EventJsonWriter byte for byte as JSONObject.toString(4) would have written it.
+public class EventFileMerger {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final JsonKeyOrder FILE_KEYS = new JsonKeyOrder("dateTimeFormat", "events");
+    // One serializer (and its buffer) per writing thread
+    private static final ThreadLocal<EventJsonWriter> WRITERS = ThreadLocal.withInitial(EventJsonWriter::new);
+
+    private final Function<JSONObject, Collection<String>> keyExtractor;
+    private final ToLongFunction<JSONObject> versionExtractor;
+    private final IngestMetrics metrics;
+    private final PartitionRollups rollups;
+    // Two writers touching the same partition must not interleave their read-merge-write
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public EventFileMerger(Function<JSONObject, Collection<String>> keyExtractor, ToLongFunction<JSONObject> versionExtractor) {
+        this(keyExtractor, versionExtractor, null);
+    }
+
+    // metrics (may be null) receives the serialize / write times and the file, event and byte counts
+    public EventFileMerger(Function<JSONObject, Collection<String>> keyExtractor, ToLongFunction<JSONObject> versionExtractor,
+                           IngestMetrics metrics) {
+        this(keyExtractor, versionExtractor, metrics, null);
+    }
+
+    // rollups (may be null) is handed the full content of every file written, to summarize it
+    public EventFileMerger(Function<JSONObject, Collection<String>> keyExtractor, ToLongFunction<JSONObject> versionExtractor,
+                           IngestMetrics metrics, PartitionRollups rollups) {
+        this.keyExtractor = keyExtractor;
+        this.versionExtractor = versionExtractor;
+        this.metrics = metrics;
+        this.rollups = rollups;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // Function to merge events into filePath, returns true if the file was (re)written
+    public <E extends EventRecord> boolean merge(String filePath, List<E> newEvents) throws IOException {
+        return merge(filePath, newEvents, null);
+    }
+
+    // Same, for events read back as JSON (e.g. from an archive bundle)
+    public boolean mergeJson(String filePath, JSONArray newEvents) throws IOException {
+        List<EventRecord> events = new ArrayList<>(newEvents.length());
+        for (int i = 0; i < newEvents.length(); i++) {
+            events.add(new JsonEvent(newEvents.getJSONObject(i)));
+        }
+        return merge(filePath, events, null);
+    }
+
+    // Same as merge, onChange (if not null) receives every event that was added or replaced once the file is written
+    public <E extends EventRecord> boolean merge(String filePath, List<E> newEvents, Consumer<? super E> onChange) throws IOException {
+        synchronized (lockOf(filePath)) {
+            List<EventRecord> events = readEvents(filePath);
+            boolean changed = events == null;
+            if (events == null) {
+                events = new ArrayList<>();
+            }
+
+            List<E> changedEvents = new ArrayList<>();
+            Map<String, Integer> positionByKey = new HashMap<>();
+            for (int i = 0; i < events.size(); i++) {
+                for (String key : events.get(i).keys()) {
+                    positionByKey.put(key, i);
+                }
+            }
+
+            for (E event : newEvents) {
+                Collection<String> keys = event.keys();
+
+                Integer position = null;
+                for (String key : keys) {
+                    position = positionByKey.get(key);
+                    if (position != null) {
+                        break;
+                    }
+                }
+
+                if (position == null) {
+                    position = events.size();
+                    events.add(event);
+                    changedEvents.add(event);
+                    changed = true;
+                } else {
+                    EventRecord existing = events.get(position);
+                    if (event.version() <= existing.version()) {
+                        continue;
+                    }
+                    if (existing.id() != null) {
+                        event.setId(existing.id());
+                    }
+                    events.set(position, event);
+                    changedEvents.add(event);
+                    changed = true;
+                }
+                for (String key : keys) {
+                    positionByKey.put(key, position);
+                }
+            }
+
+            if (!changed || events.isEmpty()) {
+                if (metrics != null) {
+                    metrics.fileUnchanged();
+                }
+                return false;
+            }
+
+            List<EventRecord> output = events;
+            long writeStart = System.nanoTime();
+            long[] serializeNanos = {0};
+            long[] bytesWritten = {0};
+            writeFile(filePath, writer -> {
+                long serializeStart = System.nanoTime();
+                writeDocument(writer, output);
+                writer.flush();
+                serializeNanos[0] = System.nanoTime() - serializeStart - writer.getFlushNanos();
+                bytesWritten[0] = writer.getBytesWritten();
+            });
+            if (metrics != null) {
+                // The serializer streams to the file, the time spent in the output stream counts as write time
+                metrics.record(IngestMetrics.Stage.SERIALIZE, serializeNanos[0]);
+                metrics.record(IngestMetrics.Stage.WRITE, System.nanoTime() - writeStart - serializeNanos[0]);
+                metrics.addBytesWritten(bytesWritten[0]);
+                metrics.addEventsWritten(changedEvents.size());
+                metrics.fileWritten();
+            }
+            if (rollups != null) {
+                rollups.partitionWritten(filePath, output);
+            }
+
+            if (onChange != null) {
+                changedEvents.forEach(onChange);
+            }
+            return true;
+        }
+    }
+
+    // Work done on a partition file while no merge can rewrite it
+    public interface FileAction<T> {
+        T run() throws IOException;
+    }
+
+    // Function to run an action on a partition file (e.g. archive and delete it) holding the lock
+    // merges of that file take
+    public <T> T withFileLock(String filePath, FileAction<T> action) throws IOException {
+        synchronized (lockOf(filePath)) {
+            return action.run();
+        }
+    }
+
+    // The same file may be reached through different spellings of its path (relative, ./, //)
+    private Object lockOf(String filePath) {
+        String path = new File(filePath).getAbsoluteFile().toPath().normalize().toString();
+        return locks[Math.floorMod(path.hashCode(), LOCK_STRIPES)];
+    }
+
+    // Function to save JSON content to a file
+    public static void saveJsonToFile(String filePath, JSONObject jsonObject) throws IOException {
+        writeFile(filePath, writer -> {
+            writer.value(jsonObject);
+            writer.flush();
+        });
+    }
+
+    private interface DocumentWriter {
+        void write(EventJsonWriter writer) throws IOException;
+    }
+
+    // Every partition file goes through the atomic, group-committed output layer, the serializer
+    // of the thread streaming straight into it
+    private static void writeFile(String filePath, DocumentWriter document) throws IOException {
+        EventJsonWriter writer = WRITERS.get();
+        try {
+            AtomicFileWriter.shared().write(new File(filePath), out -> document.write(writer.reset(out)));
+        } finally {
+            writer.reset(null);
+        }
+    }
+
+    // Function to write {"dateTimeFormat": "iso8601", "events": [...]}
+    private static void writeDocument(EventJsonWriter writer, List<EventRecord> events) throws IOException {
+        writer.beginObject(2);
+        for (int key : FILE_KEYS.order(2)) {
+            writer.name(FILE_KEYS.key(key));
+            if (key == 0) {
+                writer.value("iso8601");
+            } else {
+                writer.beginArray(events.size());
+                for (EventRecord event : events) {
+                    event.writeJson(writer);
+                }
+                writer.endArray();
+            }
+        }
+        writer.endObject();
+    }
+
+    // Function to read the events already stored in a file, or in the archive bundle it was packed
+    // into: a late event for an archived partition is merged with the archived events, so the loose
+    // file (and its rollup) holds the whole partition and not only that event. Null if there is no
+    // usable file.
+    private List<EventRecord> readEvents(String filePath) throws IOException {
+        File file = new File(filePath);
+        InputStream in;
+        if (file.isFile()) {
+            in = new FileInputStream(file);
+        } else {
+            byte[] archived = EventArchive.readArchived(file);
+            if (archived == null) {
+                return null;
+            }
+            in = new ByteArrayInputStream(archived);
+        }
+        try (Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            JSONArray array = new JSONObject(new JSONTokener(reader)).optJSONArray("events");
+            List<EventRecord> events = new ArrayList<>();
+            for (int i = 0; array != null && i < array.length(); i++) {
+                events.add(new JsonEvent(array.getJSONObject(i)));
+            }
+            return events;
+        } catch (JSONException e) {
+            // A truncated file left by a run before the atomic writes is replaced by the merged content
+            System.out.println("Ignoring unreadable file " + filePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // An event read back from a file, matched through the extractors and written back as it was read
+    private final class JsonEvent implements EventRecord {
+        private final JSONObject event;
+
+        JsonEvent(JSONObject event) {
+            this.event = event;
+        }
+
+        @Override
+        public Collection<String> keys() {
+            return keyExtractor.apply(event);
+        }
+
+        @Override
+        public long version() {
+            return versionExtractor.applyAsLong(event);
+        }
+
+        @Override
+        public Object id() {
+            return event.opt("id");
+        }
+
+        @Override
+        public void setId(Object id) {
+            event.put("id", id);
+        }
+
+        @Override
+        public Object dataValue(String key) {
+            JSONObject data = event.optJSONObject("data");
+            return data != null ? data.opt(key) : null;
+        }
+
+        @Override
+        public void writeJson(EventJsonWriter writer) throws IOException {
+            writer.value(event);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+// Streaming JSON writer producing the bytes of JSONObject.toString(4).getBytes(UTF_8) without the
+// JSONObject, the String or the byte array: keys, strings and numbers are encoded straight into a
+// reused buffer that is flushed to the output stream when full. Containers are opened with their
+// number of entries because org.json writes an object or an array of one entry on a single line.
+// With -Dopenbexi.output.compact=true the files are written without indentation (toString()).
+// Not thread safe, a writer is reset onto each file it writes.
+public final class EventJsonWriter {
+
+    private static final boolean COMPACT = Boolean.getBoolean("openbexi.output.compact");
+    private static final int INDENT_FACTOR = COMPACT ? 0 : 4;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // JSONObject.NUMBER_PATTERN, a Number of another class that does not match it is quoted
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?(?:0|[1-9]\\d*)(?:\\.\\d+)?(?:[eE][+-]?\\d+)?");
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private OutputStream out;
+    private long bytesFlushed;
+    private long flushNanos;
+
+    // One entry per open object or array: its number of entries, its indentation, the entries written so far
+    private int[] sizes = new int[16];
+    private int[] indents = new int[16];
+    private int[] counts = new int[16];
+    private boolean[] arrays = new boolean[16];
+    private int depth;
+
+    // Previous character of the string being written, a '/' after a '<' is escaped
+    private char previousChar;
+    // Digits of the doubles, StringBuilder.append(double) does not create a String
+    private final StringBuilder digits = new StringBuilder(32);
+
+    // Function to start a new document on out, the previous one must have been flushed
+    public EventJsonWriter reset(OutputStream out) {
+        this.out = out;
+        position = 0;
+        bytesFlushed = 0;
+        flushNanos = 0;
+        depth = 0;
+        return this;
+    }
+
+    public long getBytesWritten() {
+        return bytesFlushed + position;
+    }
+
+    // Time spent in the output stream since the last reset
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    public void beginObject(int size) throws IOException {
+        begin('{', size, false);
+    }
+
+    public void endObject() throws IOException {
+        end('}');
+    }
+
+    public void beginArray(int size) throws IOException {
+        begin('[', size, true);
+    }
+
+    public void endArray() throws IOException {
+        end(']');
+    }
+
+    // Function to write the key of the next entry of the current object
+    public void name(String key) throws IOException {
+        separate();
+        quote(key);
+        put(':');
+        if (INDENT_FACTOR > 0) {
+            put(' ');
+        }
+    }
+
+    public void value(String value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+        beforeValue();
+        quote(value);
+    }
+
+    public void value(long value) throws IOException {
+        beforeValue();
+        putLong(value);
+    }
+
+    // Written as JSONObject.numberToString(Double) would, e.g. 10.0 as 10
+    public void value(double value) throws IOException {
+        beforeValue();
+        putDouble(value);
+    }
+
+    public void value(UUID value) throws IOException {
+        beforeValue();
+        put('"');
+        putHex(value.getMostSignificantBits() >>> 32, 8);
+        put('-');
+        putHex(value.getMostSignificantBits() >>> 16, 4);
+        put('-');
+        putHex(value.getMostSignificantBits(), 4);
+        put('-');
+        putHex(value.getLeastSignificantBits() >>> 48, 4);
+        put('-');
+        putHex(value.getLeastSignificantBits(), 12);
+        put('"');
+    }
+
+    public void nullValue() throws IOException {
+        beforeValue();
+        putAscii("null");
+    }
+
+    // Function to write any value a JSONObject can hold, as JSONObject.writeValue does
+    public void value(Object value) throws IOException {
+        if (value == null || value.equals(null)) {
+            nullValue();
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof JSONString) {
+            String json = ((JSONString) value).toJSONString();
+            if (json == null) {
+                value(value.toString());
+            } else {
+                beforeValue();
+                putChars(json);
+            }
+        } else if (value instanceof Number) {
+            beforeValue();
+            putNumber((Number) value);
+        } else if (value instanceof Boolean) {
+            beforeValue();
+            putAscii(value.toString());
+        } else if (value instanceof Enum<?>) {
+            value(((Enum<?>) value).name());
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            beginObject(object.length());
+            for (String key : object.keySet()) {
+                name(key);
+                value(object.opt(key));
+            }
+            endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            endArray();
+        } else if (value instanceof Map) {
+            value(new JSONObject((Map<?, ?>) value));
+        } else if (value instanceof Collection) {
+            value(new JSONArray((Collection<?>) value));
+        } else if (value.getClass().isArray()) {
+            value(new JSONArray(value));
+        } else {
+            value(value.toString());
+        }
+    }
+
+    // A string value written in parts, e.g. "description_" + time, without concatenating them first
+    public void beginString() throws IOException {
+        beforeValue();
+        put('"');
+        previousChar = 0;
+    }
+
+    public void stringPart(String part) throws IOException {
+        escape(part);
+    }
+
+    public void stringPart(long part) throws IOException {
+        putLong(part);
+        previousChar = '0';
+    }
+
+    public void endString() throws IOException {
+        put('"');
+    }
+
+    // Function to hand the buffered bytes to the output stream
+    public void flush() throws IOException {
+        if (position > 0) {
+            long start = System.nanoTime();
+            out.write(buffer, 0, position);
+            flushNanos += System.nanoTime() - start;
+            bytesFlushed += position;
+            position = 0;
+        }
+    }
+
+    private void begin(char bracket, int size, boolean array) throws IOException {
+        beforeValue();
+        int indent = valueIndent();
+        put(bracket);
+        if (depth == sizes.length) {
+            sizes = Arrays.copyOf(sizes, depth * 2);
+            indents = Arrays.copyOf(indents, depth * 2);
+            counts = Arrays.copyOf(counts, depth * 2);
+            arrays = Arrays.copyOf(arrays, depth * 2);
+        }
+        sizes[depth] = size;
+        indents[depth] = indent;
+        counts[depth] = 0;
+        arrays[depth] = array;
+        depth++;
+    }
+
+    private void end(char bracket) throws IOException {
+        depth--;
+        if (counts[depth] != sizes[depth]) {
+            throw new IllegalStateException(counts[depth] + " entries written, " + sizes[depth] + " announced");
+        }
+        if (sizes[depth] > 1) {
+            if (INDENT_FACTOR > 0) {
+                put('\n');
+            }
+            indent(indents[depth]);
+        }
+        put(bracket);
+    }
+
+    // Function to write what precedes an entry: nothing for the single entry of a container, otherwise
+    // a comma after the first one and a new line at the container's indentation plus one level
+    private void separate() throws IOException {
+        int frame = depth - 1;
+        if (sizes[frame] != 1) {
+            if (counts[frame] > 0) {
+                put(',');
+            }
+            if (INDENT_FACTOR > 0) {
+                put('\n');
+            }
+            indent(indents[frame] + INDENT_FACTOR);
+        }
+        counts[frame]++;
+    }
+
+    // The elements of an array are separated like the entries of an object, a value in an object follows its name
+    private void beforeValue() throws IOException {
+        if (depth > 0 && arrays[depth - 1]) {
+            separate();
+        }
+    }
+
+    // Function to get the indentation a value is written at, which its closing bracket is aligned on
+    private int valueIndent() {
+        if (depth == 0) {
+            return 0;
+        }
+        int frame = depth - 1;
+        return sizes[frame] == 1 ? indents[frame] : indents[frame] + INDENT_FACTOR;
+    }
+
+    private void indent(int indent) throws IOException {
+        for (int i = 0; i < indent; i++) {
+            put(' ');
+        }
+    }
+
+    private void putNumber(Number value) throws IOException {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            putLong(value.longValue());
+        } else if (value instanceof Double) {
+            putDouble(value.doubleValue());
+        } else if (value instanceof Float) {
+            float f = value.floatValue();
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                throw new JSONException("JSON does not allow non-finite numbers.");
+            }
+            digits.setLength(0);
+            digits.append(f);
+            putShaved(digits);
+        } else {
+            // BigDecimal (what org.json parses decimals into) keeps its text, BigInteger and others are rare
+            String text = JSONObject.numberToString(value);
+            if (NUMBER_PATTERN.matcher(text).matches()) {
+                putAscii(text);
+            } else {
+                quote(text);
+            }
+        }
+    }
+
+    private void putDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        // Integral values below 10^7 are printed as "n.0" by Double.toString, i.e. "n" once shaved
+        if (value == (long) value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0)) {
+            putLong((long) value);
+            return;
+        }
+        digits.setLength(0);
+        digits.append(value);
+        putShaved(digits);
+    }
+
+    // Function to write a number without its trailing zeros and decimal point, as numberToString does
+    private void putShaved(StringBuilder number) throws IOException {
+        int length = number.length();
+        if (number.indexOf(".") > 0 && number.indexOf("e") < 0 && number.indexOf("E") < 0) {
+            while (number.charAt(length - 1) == '0') {
+                length--;
+            }
+            if (number.charAt(length - 1) == '.') {
+                length--;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            put(number.charAt(i));
+        }
+    }
+
+    private void putLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            for (byte b : MIN_LONG) {
+                putByte(b);
+            }
+            return;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            putByte((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private void putHex(long value, int digitCount) throws IOException {
+        for (int shift = (digitCount - 1) * 4; shift >= 0; shift -= 4) {
+            putByte(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+    }
+
+    // Function to write a quoted string, escaped as JSONObject.quote does
+    private void quote(String string) throws IOException {
+        put('"');
+        previousChar = 0;
+        escape(string);
+        put('"');
+    }
+
+    private void escape(String string) throws IOException {
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    put('\\');
+                    put(c);
+                    break;
+                case '/':
+                    if (previousChar == '<') {
+                        put('\\');
+                    }
+                    put(c);
+                    break;
+                case '\b':
+                    putAscii("\\b");
+                    break;
+                case '\t':
+                    putAscii("\\t");
+                    break;
+                case '\n':
+                    putAscii("\\n");
+                    break;
+                case '\f':
+                    putAscii("\\f");
+                    break;
+                case '\r':
+                    putAscii("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+                        putAscii("\\u");
+                        putHex(c, 4);
+                    } else if (c < 0x80) {
+                        put(c);
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                        putCodePoint(Character.toCodePoint(c, string.charAt(++i)));
+                        c = string.charAt(i);
+                    } else {
+                        putCodePoint(c);
+                    }
+            }
+            previousChar = c;
+        }
+    }
+
+    // Function to write characters as they are, UTF-8 encoded
+    private void putChars(String chars) throws IOException {
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                put(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                putCodePoint(Character.toCodePoint(c, chars.charAt(++i)));
+            } else {
+                putCodePoint(c);
+            }
+        }
+    }
+
+    // UTF-8 encoding, an unpaired surrogate becomes '?' as in String.getBytes
+    private void putCodePoint(int codePoint) throws IOException {
+        if (codePoint < 0x80) {
+            putByte((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            putByte((byte) (0xc0 | (codePoint >> 6)));
+            putByte((byte) (0x80 | (codePoint & 0x3f)));
+        } else if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            putByte((byte) '?');
+        } else if (codePoint < 0x10000) {
+            putByte((byte) (0xe0 | (codePoint >> 12)));
+            putByte((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            putByte((byte) (0x80 | (codePoint & 0x3f)));
+        } else {
+            putByte((byte) (0xf0 | (codePoint >> 18)));
+            putByte((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+            putByte((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            putByte((byte) (0x80 | (codePoint & 0x3f)));
+        }
+    }
+
+    private void putAscii(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) {
+            putByte((byte) ascii.charAt(i));
+        }
+    }
+
+    private void put(char c) throws IOException {
+        putByte((byte) c);
+    }
+
+    private void putByte(byte b) throws IOException {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = b;
+    }
+}
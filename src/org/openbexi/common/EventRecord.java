@@ -0,0 +1,27 @@
+package org.openbexi.common;
+
+import java.io.IOException;
+import java.util.Collection;
+
+// An event of a partition file, as merged by EventFileMerger: the converters hand it typed events
+// written straight to the file, the events already on disk are read back as JSON
+public interface EventRecord {
+
+    // Keys identifying the event, two events sharing one of them are the same event
+    Collection<String> keys();
+
+    // Version of the event, the copy with the higher one is kept
+    long version();
+
+    // Value of "id", null if the event has none
+    Object id();
+
+    // Function to keep the id already written for the event this one replaces
+    void setId(Object id);
+
+    // Value of data.<key> as written to the file (String, Number, JSONObject.NULL...), null when absent
+    Object dataValue(String key);
+
+    // Function to write the event as one element of the "events" array
+    void writeJson(EventJsonWriter writer) throws IOException;
+}
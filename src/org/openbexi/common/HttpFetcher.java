@@ -0,0 +1,337 @@
+package org.openbexi.common;
+
+import org.json.JSONException;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Fetch layer shared by the converters: a single java.net.http.HttpClient keeps its connections
+// alive between requests (HTTP/2 multiplexing when the server offers it, pooled HTTP/1.1
+// otherwise), asks for gzip/deflate and hands the body over as a decoded character stream, so a
+// response is never held as a String. The charset comes from Content-Type, UTF-8 when absent. The
+// request timeout bounds the wait for the headers and, as a read deadline, every wait for body data.
+public class HttpFetcher {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Process-wide instance, HttpClient is thread-safe and meant to be reused
+    private static final HttpFetcher SHARED = new HttpFetcher(Duration.ofSeconds(30), Duration.ofSeconds(120));
+
+    // Enforces the read deadline of the response bodies being read, one check task per open body
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "http-read-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    public HttpFetcher(Duration connectTimeout, Duration requestTimeout) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.requestTimeout = requestTimeout;
+    }
+
+    public static HttpFetcher shared() {
+        return SHARED;
+    }
+
+    // Response whose body is streamed, it must be closed to give the connection back
+    public static final class Response implements Closeable {
+        private final int statusCode;
+        private final HttpHeaders headers;
+        private final Reader body;
+
+        Response(int statusCode, HttpHeaders headers, Reader body) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        // Function to get the first value of a response header, or null
+        public String getHeader(String name) {
+            return headers.firstValue(name).orElse(null);
+        }
+
+        public Reader getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    // Function to open the JSON content of a URL, any status but 200 raises an HttpStatusException
+    public Reader openJson(String url) throws IOException {
+        return openJson(url, requestTimeout, null);
+    }
+
+    // Same, reporting the fetch to metrics (may be null)
+    public Reader openJson(String url, IngestMetrics metrics) throws IOException {
+        return openJson(url, requestTimeout, metrics);
+    }
+
+    // Same, with a request timeout of its own and the metrics (may be null) to report the fetch to
+    public Reader openJson(String url, Duration timeout, IngestMetrics metrics) throws IOException {
+        Response response = get(url, Map.of(), timeout, metrics);
+        if (response.getStatusCode() != 200) {
+            response.close();
+            throw new HttpStatusException(response.getStatusCode(),
+                    "Failed to fetch data from " + url + ". Response code: " + response.getStatusCode());
+        }
+        return response.getBody();
+    }
+
+    // Function to send a GET with extra request headers (e.g. If-None-Match) and return the response
+    // whatever its status
+    public Response get(String url, Map<String, String> requestHeaders, IngestMetrics metrics) throws IOException {
+        return get(url, requestHeaders, requestTimeout, metrics);
+    }
+
+    // Same, with a request timeout of its own. The fetch latency is measured up to the response
+    // headers, the bytes as they come off the wire
+    public Response get(String url, Map<String, String> requestHeaders, Duration timeout, IngestMetrics metrics) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .GET()
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip, deflate");
+        requestHeaders.forEach(request::header);
+
+        long fetchStart = System.nanoTime();
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + url);
+        }
+
+        // The request timeout only covers the wait for the headers, the body gets it as a read deadline
+        InputStream wire = new ReadDeadlineInputStream(response.body(), timeout);
+        if (metrics != null) {
+            metrics.record(IngestMetrics.Stage.FETCH, System.nanoTime() - fetchStart);
+            wire = new CountingInputStream(wire, metrics);
+        }
+        HttpHeaders headers = response.headers();
+        InputStream body;
+        try {
+            body = decode(wire, headers.firstValue("Content-Encoding").orElse(""));
+        } catch (IOException | RuntimeException e) {
+            // A corrupt gzip header, give the connection back before failing
+            wire.close();
+            throw e;
+        }
+        return new Response(response.statusCode(), headers,
+                new BufferedReader(new InputStreamReader(body, charsetOf(headers)), BUFFER_SIZE));
+    }
+
+    // Function to get the IOException behind a failure raised while a response body is parsed: the
+    // JSON parser reports the I/O errors of its reader (connection reset, read timeout) as a
+    // JSONException caused by them, and a body cut short as a syntax error. Null for any other
+    // RuntimeException, which is not a fetch failure.
+    public static IOException bodyReadFailure(RuntimeException e) {
+        if (e instanceof UncheckedIOException) {
+            return ((UncheckedIOException) e).getCause();
+        }
+        if (e instanceof JSONException) {
+            if (e.getCause() instanceof IOException) {
+                return (IOException) e.getCause();
+            }
+            return new IOException("Truncated or malformed response body: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if (!encoding.equals("gzip") && !encoding.equals("x-gzip") && !encoding.equals("deflate")) {
+            return body;
+        }
+
+        // Peek at the first bytes: a 304 or an error may announce an encoding with an empty body
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        byte[] header = new byte[2];
+        int read = in.readNBytes(header, 0, 2);
+        if (read == 0) {
+            return in;
+        }
+        in.unread(header, 0, read);
+
+        if (!encoding.equals("deflate")) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        // "deflate" is meant to be zlib wrapped, some servers send raw deflate data instead
+        boolean zlib = read == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    // Closes a response body whose read() waited longer than the deadline for data, a server stalling
+    // in the middle of a body would otherwise block its reader forever. Only the time spent inside
+    // read() counts, a consumer holding the stream between reads is never cut off. The read blocked
+    // at the deadline fails with a SocketTimeoutException.
+    private static final class ReadDeadlineInputStream extends FilterInputStream {
+        private final long deadlineNanos;
+        private final ScheduledFuture<?> watchdog;
+        private volatile boolean reading;
+        private volatile long readStart;
+        private volatile boolean timedOut;
+
+        ReadDeadlineInputStream(InputStream in, Duration deadline) {
+            super(in);
+            this.deadlineNanos = deadline.toNanos();
+            long checkMillis = Math.max(10, deadline.toMillis() / 4);
+            this.watchdog = WATCHDOG.scheduleWithFixedDelay(this::check, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int read() throws IOException {
+            beginRead();
+            try {
+                return endRead(in.read());
+            } catch (IOException e) {
+                throw failure(e);
+            } finally {
+                reading = false;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            beginRead();
+            try {
+                return endRead(in.read(b, off, len));
+            } catch (IOException e) {
+                throw failure(e);
+            } finally {
+                reading = false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            watchdog.cancel(false);
+            super.close();
+        }
+
+        private void beginRead() {
+            readStart = System.nanoTime();
+            reading = true;
+        }
+
+        // Function to fail a read that returned (end of stream) because the watchdog closed the body
+        private int endRead(int read) throws IOException {
+            if (timedOut) {
+                throw timeout(null);
+            }
+            return read;
+        }
+
+        private IOException failure(IOException e) {
+            return timedOut && !(e instanceof SocketTimeoutException) ? timeout(e) : e;
+        }
+
+        private SocketTimeoutException timeout(IOException cause) {
+            SocketTimeoutException e = new SocketTimeoutException("No response data for "
+                    + TimeUnit.NANOSECONDS.toMillis(deadlineNanos) + " ms");
+            if (cause != null) {
+                e.initCause(cause);
+            }
+            return e;
+        }
+
+        private void check() {
+            if (!reading || timedOut || System.nanoTime() - readStart < deadlineNanos) {
+                return;
+            }
+            timedOut = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // The blocked read fails either way
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final IngestMetrics metrics;
+
+        CountingInputStream(InputStream in, IngestMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                metrics.addBytesFetched(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                metrics.addBytesFetched(read);
+            }
+            return read;
+        }
+    }
+
+    private static Charset charsetOf(HttpHeaders headers) {
+        String contentType = headers.firstValue("Content-Type").orElse("");
+        for (String parameter : contentType.split(";")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && "charset".equalsIgnoreCase(pair[0].trim())) {
+                try {
+                    return Charset.forName(pair[1].trim().replace("\"", ""));
+                } catch (RuntimeException e) {
+                    break;  // Unknown charset, fall back to UTF-8
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
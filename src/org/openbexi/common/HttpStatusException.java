@@ -0,0 +1,26 @@
+package org.openbexi.common;
+
+import java.io.IOException;
+
+// IOException raised when a server answers with a non-200 status, keeping the code so callers
+// can tell transient failures (429, 5xx) from permanent ones (400, 404...).
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // Function to tell whether the request is worth retrying later
+    public boolean isTransient() {
+        return statusCode == 429 || statusCode == 408 || statusCode >= 500;
+    }
+}
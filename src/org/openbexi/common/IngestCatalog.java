@@ -0,0 +1,133 @@
+package org.openbexi.common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only log of the time windows that were fetched, one line per window:
+//   <start yyyy-mm-dd> <end yyyy-mm-dd> <fetchedAt ISO-8601> <eventCount>
+// The log is replayed into a map once at startup (the last line for a window wins), after which
+// checking or recording a window is O(1) per day and never touches the data tree. A window may span
+// several days, each of them is then covered by its entry. A torn last line left by a crash is
+// ignored on replay. A window is only recorded once the files written for it are committed by
+// their AtomicFileWriter, and the line is forced to disk before record() returns: after a power
+// loss the catalog never claims a window whose files were lost, which would be skipped forever.
+public class IngestCatalog {
+
+    public static final class Entry {
+        public final LocalDate start;
+        public final LocalDate end;
+        public final Instant fetchedAt;
+        public final long eventCount;
+
+        Entry(LocalDate start, LocalDate end, Instant fetchedAt, long eventCount) {
+            this.start = start;
+            this.end = end;
+            this.fetchedAt = fetchedAt;
+            this.eventCount = eventCount;
+        }
+    }
+
+    private final File logFile;
+    // A window fetched less than this after its end may still receive late or revised events
+    private final Duration settleTime;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Latest entry covering each day
+    private final Map<LocalDate, Entry> entriesByDay = new ConcurrentHashMap<>();
+    // Writer of the files fetched for the windows (may be null)
+    private final AtomicFileWriter fileWriter;
+    private FileOutputStream out;
+    private Writer writer;
+
+    public IngestCatalog(File logFile, Duration settleTime, AtomicFileWriter fileWriter) throws IOException {
+        this.logFile = logFile;
+        this.settleTime = settleTime;
+        this.fileWriter = fileWriter;
+        load();
+    }
+
+    // Function to tell whether every day of a window was fetched after it had settled and can be skipped
+    public boolean isComplete(LocalDate start, LocalDate end) {
+        for (LocalDate day = start; day.isBefore(end); day = day.plusDays(1)) {
+            Entry entry = entriesByDay.get(day);
+            if (entry == null || entry.fetchedAt.isBefore(entry.end.atStartOfDay().toInstant(ZoneOffset.UTC).plus(settleTime))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Entry get(LocalDate start, LocalDate end) {
+        return entries.get(key(start, end));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Function to checkpoint a fetched window once its files are committed, the line is on disk before returning
+    public synchronized void record(LocalDate start, LocalDate end, long eventCount) throws IOException {
+        if (fileWriter != null) {
+            fileWriter.commit();
+        }
+        Entry entry = new Entry(start, end, Instant.now(), eventCount);
+        if (writer == null) {
+            File parent = logFile.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            out = new FileOutputStream(logFile, true);
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+        writer.write(start + " " + end + " " + entry.fetchedAt + " " + eventCount + "\n");
+        writer.flush();
+        out.getChannel().force(false);
+        put(entry);
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            out = null;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!logFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length != 4) {
+                    continue;
+                }
+                try {
+                    LocalDate start = LocalDate.parse(parts[0]);
+                    LocalDate end = LocalDate.parse(parts[1]);
+                    put(new Entry(start, end, Instant.parse(parts[2]), Long.parseLong(parts[3])));
+                } catch (RuntimeException e) {
+                    // Torn or hand-edited line, skip it
+                }
+            }
+        }
+    }
+
+    private void put(Entry entry) {
+        entries.put(key(entry.start, entry.end), entry);
+        for (LocalDate day = entry.start; day.isBefore(entry.end); day = day.plusDays(1)) {
+            entriesByDay.merge(day, entry, (previous, latest) -> latest.fetchedAt.isBefore(previous.fetchedAt) ? previous : latest);
+        }
+    }
+
+    private static String key(LocalDate start, LocalDate end) {
+        return start + "/" + end;
+    }
+}
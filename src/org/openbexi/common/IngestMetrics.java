@@ -0,0 +1,400 @@
+package org.openbexi.common;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+// Counters, per-stage latency histograms and queue depths of the ingest of one namespace. Recording
+// is lock-free (LongAdder / atomic bucket counts) so it can sit on the hot paths. Every namespace
+// is visible over JMX, as Prometheus text (PrometheusEndpoint) and as a one-line summary printed
+// periodically by the reporter, which replaces the former per-file console output.
+public class IngestMetrics implements IngestMetricsMXBean {
+
+    public enum Stage {
+        FETCH, PARSE, TRANSFORM, SERIALIZE, WRITE;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Summary period of the reporter, -Dopenbexi.metrics.summarySeconds=0 turns the periodic lines off
+    private static final long SUMMARY_SECONDS = Long.getLong("openbexi.metrics.summarySeconds", 10);
+    // Prometheus endpoint on 127.0.0.1, off unless -Dopenbexi.metrics.port is set
+    private static final int METRICS_PORT = Integer.getInteger("openbexi.metrics.port", 0);
+
+    private static final Map<String, IngestMetrics> REGISTRY = new ConcurrentHashMap<>();
+    private static Thread reporter;
+    private static PrometheusEndpoint endpoint;
+
+    private final String namespace;
+    private final LongAdder eventsRead = new LongAdder();
+    private final LongAdder eventsWritten = new LongAdder();
+    private final LongAdder eventsSkipped = new LongAdder();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder filesWritten = new LongAdder();
+    private final LongAdder filesUnchanged = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final Map<String, Set<Collection<?>>> queues = new ConcurrentHashMap<>();
+    // Activity seen by the previous summary, an idle namespace prints nothing
+    private volatile long lastSummaryActivity;
+
+    private IngestMetrics(String namespace) {
+        this.namespace = namespace;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // Function to get (and register on first use) the metrics of a namespace
+    public static IngestMetrics forNamespace(String namespace) {
+        return REGISTRY.computeIfAbsent(namespace, ns -> {
+            IngestMetrics metrics = new IngestMetrics(ns);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                        new ObjectName("org.openbexi:type=IngestMetrics,namespace=" + ns));
+            } catch (JMException e) {
+                System.out.println("Unable to register the JMX metrics of " + ns + ": " + e.getMessage());
+            }
+            return metrics;
+        });
+    }
+
+    public static Collection<IngestMetrics> all() {
+        List<IngestMetrics> all = new ArrayList<>(REGISTRY.values());
+        all.sort(Comparator.comparing(metrics -> metrics.namespace));
+        return all;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public void record(Stage stage, long elapsedNanos) {
+        histograms[stage.ordinal()].record(elapsedNanos);
+    }
+
+    public void addEventsRead(long count) {
+        eventsRead.add(count);
+    }
+
+    public void addEventsWritten(long count) {
+        eventsWritten.add(count);
+    }
+
+    public void eventSkipped() {
+        eventsSkipped.increment();
+    }
+
+    public void addBytesFetched(long count) {
+        bytesFetched.add(count);
+    }
+
+    public void addBytesWritten(long count) {
+        bytesWritten.add(count);
+    }
+
+    public void fileWritten() {
+        filesWritten.increment();
+    }
+
+    public void fileUnchanged() {
+        filesUnchanged.increment();
+    }
+
+    public void retry() {
+        retries.increment();
+    }
+
+    public void failure() {
+        failures.increment();
+    }
+
+    // Function to report the depth of a queue under a stage name until it is removed
+    public void addQueue(String stage, Collection<?> queue) {
+        queues.computeIfAbsent(stage, k -> ConcurrentHashMap.newKeySet()).add(queue);
+    }
+
+    public void removeQueue(String stage, Collection<?> queue) {
+        Set<Collection<?>> stageQueues = queues.get(stage);
+        if (stageQueues != null) {
+            stageQueues.remove(queue);
+        }
+    }
+
+    @Override
+    public long getEventsRead() {
+        return eventsRead.sum();
+    }
+
+    @Override
+    public long getEventsWritten() {
+        return eventsWritten.sum();
+    }
+
+    @Override
+    public long getEventsSkipped() {
+        return eventsSkipped.sum();
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getFilesWritten() {
+        return filesWritten.sum();
+    }
+
+    @Override
+    public long getFilesUnchanged() {
+        return filesUnchanged.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            counts.put(stage.label(), histograms[stage.ordinal()].count());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageP50Millis() {
+        return quantiles(0.5);
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Millis() {
+        return quantiles(0.99);
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        queues.forEach((stage, stageQueues) -> {
+            int depth = 0;
+            for (Collection<?> queue : stageQueues) {
+                depth += queue.size();
+            }
+            depths.put(stage, depth);
+        });
+        return depths;
+    }
+
+    private Map<String, Double> quantiles(double quantile) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            values.put(stage.label(), histograms[stage.ordinal()].quantileMillis(quantile));
+        }
+        return values;
+    }
+
+    // Function to build the one-line summary of the namespace
+    public String summary() {
+        StringBuilder sb = new StringBuilder(namespace).append(": ")
+                .append(getEventsRead()).append(" events read, ")
+                .append(getEventsWritten()).append(" written, ")
+                .append(getEventsSkipped()).append(" already seen, ")
+                .append(getFilesWritten()).append(" files written (").append(getFilesUnchanged()).append(" unchanged), ")
+                .append(String.format(Locale.ROOT, "%.1f MB fetched, %.1f MB written, ", getBytesFetched() / 1e6, getBytesWritten() / 1e6))
+                .append(getRetries()).append(" retries, ")
+                .append(getFailures()).append(" failures");
+        String separator = " | ";
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            if (histogram.count() > 0) {
+                sb.append(separator).append(stage.label())
+                        .append(String.format(Locale.ROOT, " p50 %.1f ms p99 %.1f ms", histogram.quantileMillis(0.5), histogram.quantileMillis(0.99)));
+                separator = ", ";
+            }
+        }
+        Map<String, Integer> depths = getQueueDepths();
+        if (!depths.isEmpty()) {
+            sb.append(" | queues");
+            depths.forEach((stage, depth) -> sb.append(' ').append(stage).append('=').append(depth));
+        }
+        return sb.toString();
+    }
+
+    private long activity() {
+        return getEventsRead() + getEventsWritten() + getEventsSkipped() + getFilesWritten() + getFilesUnchanged() + getRetries() + getFailures();
+    }
+
+    // Function to append every registered namespace in the Prometheus text exposition format
+    public static void writePrometheus(StringBuilder sb) {
+        Collection<IngestMetrics> all = all();
+        counterFamily(sb, all, "openbexi_events_read_total", "Events parsed from the sources", IngestMetrics::getEventsRead);
+        counterFamily(sb, all, "openbexi_events_written_total", "Events added to or revised in the partition files", IngestMetrics::getEventsWritten);
+        counterFamily(sb, all, "openbexi_events_skipped_total", "Events dropped as already merged at their version", IngestMetrics::getEventsSkipped);
+        counterFamily(sb, all, "openbexi_bytes_fetched_total", "Response bytes received, as sent on the wire", IngestMetrics::getBytesFetched);
+        counterFamily(sb, all, "openbexi_bytes_written_total", "Bytes written to the partition files", IngestMetrics::getBytesWritten);
+        counterFamily(sb, all, "openbexi_files_written_total", "Partition files rewritten", IngestMetrics::getFilesWritten);
+        counterFamily(sb, all, "openbexi_files_unchanged_total", "Partition files left untouched by a merge", IngestMetrics::getFilesUnchanged);
+        counterFamily(sb, all, "openbexi_retries_total", "Requests retried after a transient failure", IngestMetrics::getRetries);
+        counterFamily(sb, all, "openbexi_failures_total", "Requests given up on", IngestMetrics::getFailures);
+
+        sb.append("# HELP openbexi_queue_depth Items waiting in front of a pipeline stage\n");
+        sb.append("# TYPE openbexi_queue_depth gauge\n");
+        for (IngestMetrics metrics : all) {
+            metrics.getQueueDepths().forEach((stage, depth) -> sb.append("openbexi_queue_depth{namespace=\"").append(metrics.namespace)
+                    .append("\",stage=\"").append(stage).append("\"} ").append(depth).append('\n'));
+        }
+
+        sb.append("# HELP openbexi_stage_latency_seconds Time spent per item in an ingest stage\n");
+        sb.append("# TYPE openbexi_stage_latency_seconds histogram\n");
+        for (IngestMetrics metrics : all) {
+            for (Stage stage : Stage.values()) {
+                metrics.histograms[stage.ordinal()].writePrometheus(sb, "openbexi_stage_latency_seconds",
+                        "namespace=\"" + metrics.namespace + "\",stage=\"" + stage.label() + "\"");
+            }
+        }
+    }
+
+    private static void counterFamily(StringBuilder sb, Collection<IngestMetrics> all, String name, String help,
+                                      ToLongFunction<IngestMetrics> value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (IngestMetrics metrics : all) {
+            sb.append(name).append("{namespace=\"").append(metrics.namespace).append("\"} ").append(value.applyAsLong(metrics)).append('\n');
+        }
+    }
+
+    // Function to start the periodic summaries and, if a port is configured, the Prometheus endpoint
+    public static synchronized void startReporting() {
+        if (METRICS_PORT > 0 && endpoint == null) {
+            try {
+                endpoint = PrometheusEndpoint.start(METRICS_PORT);
+                System.out.println("Metrics available on http://127.0.0.1:" + METRICS_PORT + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Unable to start the metrics endpoint on port " + METRICS_PORT + ": " + e.getMessage());
+            }
+        }
+        if (SUMMARY_SECONDS > 0 && reporter == null) {
+            reporter = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(SUMMARY_SECONDS * 1000);
+                        printSummaries(false);
+                    }
+                } catch (InterruptedException e) {
+                    // Stopped
+                }
+            }, "metrics-reporter");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+    }
+
+    // Function to stop the reporting and print a last summary of every namespace
+    public static synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.interrupt();
+            reporter = null;
+        }
+        if (endpoint != null) {
+            endpoint.stop();
+            endpoint = null;
+        }
+        printSummaries(true);
+    }
+
+    // always prints the namespaces that saw any activity, even when nothing changed since the last summary
+    private static void printSummaries(boolean always) {
+        for (IngestMetrics metrics : all()) {
+            long activity = metrics.activity();
+            if (activity > 0 && (always || activity != metrics.lastSummaryActivity)) {
+                metrics.lastSummaryActivity = activity;
+                System.out.println(metrics.summary());
+            }
+        }
+    }
+
+    // Cumulative latency histogram over fixed, roughly logarithmic buckets from 50 us to 60 s
+    static final class LatencyHistogram {
+        private static final double[] BOUNDS_SECONDS = {
+                0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+                0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * 1e9);
+            }
+        }
+
+        // One slot per bound plus the +Inf overflow
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+        private final LongAdder sumNanos = new LongAdder();
+        private final LongAdder count = new LongAdder();
+
+        void record(long elapsedNanos) {
+            int index = Arrays.binarySearch(BOUNDS_NANOS, elapsedNanos);
+            buckets.incrementAndGet(index >= 0 ? index : -index - 1);
+            sumNanos.add(elapsedNanos);
+            count.increment();
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        // Function to estimate a quantile as the upper bound of the bucket reaching it
+        double quantileMillis(double quantile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+                cumulative += buckets.get(i);
+                if (cumulative >= rank) {
+                    return BOUNDS_SECONDS[i] * 1000;
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        void writePrometheus(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+                cumulative += buckets.get(i);
+                sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(BOUNDS_SECONDS[i]).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets.get(BOUNDS_SECONDS.length);
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+            sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+}
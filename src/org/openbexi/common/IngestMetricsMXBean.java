@@ -0,0 +1,35 @@
+package org.openbexi.common;
+
+import java.util.Map;
+
+// JMX view of the IngestMetrics of one namespace, registered as org.openbexi:type=IngestMetrics,namespace=<ns>
+public interface IngestMetricsMXBean {
+
+    long getEventsRead();
+
+    long getEventsWritten();
+
+    long getEventsSkipped();
+
+    long getBytesFetched();
+
+    long getBytesWritten();
+
+    long getFilesWritten();
+
+    long getFilesUnchanged();
+
+    long getRetries();
+
+    long getFailures();
+
+    // Items measured, median and 99th percentile per stage (fetch, parse, transform, serialize, write)
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageP50Millis();
+
+    Map<String, Double> getStageP99Millis();
+
+    // Items waiting in front of each pipeline stage, summed over the running pipelines
+    Map<String, Integer> getQueueDepths();
+}
@@ -0,0 +1,156 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs named jobs at a fixed rate inside a resident JVM. Every run gets a thread of its own, so a
+// slow job never delays another one, and a job never overlaps itself: a tick arriving while the
+// previous run is still going is skipped, a triggered run is refused. shutdown() stops the ticks
+// and waits (for a grace period) for the running jobs to finish. Thread-safe.
+public class JobScheduler {
+
+    public interface Job {
+        void run() throws Exception;
+    }
+
+    private final Map<String, ScheduledJob> jobs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentLinkedQueue<Thread> runs = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopping;
+
+    // Function to schedule a job every interval, starting now (a zero interval only runs it when triggered)
+    public synchronized void schedule(String name, Duration interval, Job job) {
+        if (jobs.containsKey(name)) {
+            throw new IllegalArgumentException("A job named " + name + " is already scheduled");
+        }
+        ScheduledJob scheduled = new ScheduledJob(name, interval, job);
+        jobs.put(name, scheduled);
+        if (!interval.isZero()) {
+            ticker.scheduleAtFixedRate(() -> start(scheduled, false), 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Function to run a job now, returns false if it is already running (or the scheduler is stopping)
+    public boolean trigger(String name) {
+        ScheduledJob scheduled = jobs.get(name);
+        if (scheduled == null) {
+            throw new IllegalArgumentException("No job named " + name);
+        }
+        return start(scheduled, true);
+    }
+
+    private boolean start(ScheduledJob scheduled, boolean triggered) {
+        if (stopping || !scheduled.running.compareAndSet(false, true)) {
+            if (!triggered) {
+                scheduled.skipped.incrementAndGet();
+            }
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                scheduled.run(triggered);
+            } finally {
+                scheduled.running.set(false);
+                runs.remove(Thread.currentThread());
+            }
+        }, "job-" + scheduled.name);
+        runs.add(thread);
+        thread.start();
+        return true;
+    }
+
+    // Function to stop scheduling and wait for the running jobs, returns false if some were still
+    // running after the grace period (they are then interrupted)
+    public boolean shutdown(Duration grace) throws InterruptedException {
+        stopping = true;
+        ticker.shutdownNow();
+
+        long deadline = System.nanoTime() + grace.toNanos();
+        for (Thread thread : new ArrayList<>(runs)) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        List<Thread> late = new ArrayList<>(runs);
+        for (Thread thread : late) {
+            System.out.println("Interrupting " + thread.getName() + ", still running after " + grace.toSeconds() + " s");
+            thread.interrupt();
+        }
+        return late.isEmpty();
+    }
+
+    // Function to describe every job: interval, runs, failures, skipped ticks, whether it is running
+    // and how its last run went
+    public JSONArray status() {
+        JSONArray status = new JSONArray();
+        jobs.values().stream().sorted((a, b) -> a.name.compareTo(b.name)).forEach(scheduled -> status.put(scheduled.status()));
+        return status;
+    }
+
+    private static final class ScheduledJob {
+        final String name;
+        final Duration interval;
+        final Job job;
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicLong runs = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        volatile Instant lastStart;
+        volatile long lastDurationMillis;
+        volatile String lastError;
+
+        ScheduledJob(String name, Duration interval, Job job) {
+            this.name = name;
+            this.interval = interval;
+            this.job = job;
+        }
+
+        void run(boolean triggered) {
+            lastStart = Instant.now();
+            long start = System.nanoTime();
+            String error = null;
+            try {
+                job.run();
+            } catch (Exception e) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+                failures.incrementAndGet();
+            }
+            runs.incrementAndGet();
+            lastDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            lastError = error;
+            System.out.printf("Job %s%s %s in %.1f s%s%n", name, triggered ? " (triggered)" : "",
+                    error == null ? "done" : "failed", lastDurationMillis / 1000.0, error == null ? "." : ": " + error);
+        }
+
+        JSONObject status() {
+            JSONObject status = new JSONObject();
+            status.put("name", name);
+            status.put("intervalSeconds", interval.toSeconds());
+            status.put("running", running.get());
+            status.put("runs", runs.get());
+            status.put("failures", failures.get());
+            status.put("skipped", skipped.get());
+            if (lastStart != null) {
+                status.put("lastStart", lastStart.toString());
+                status.put("lastDurationMillis", lastDurationMillis);
+                status.put("lastError", lastError != null ? lastError : JSONObject.NULL);
+            }
+            return status;
+        }
+    }
+}
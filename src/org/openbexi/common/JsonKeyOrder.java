@@ -0,0 +1,80 @@
+package org.openbexi.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Order in which a JSONObject lists its keys. org.json keeps the keys in a HashMap, so the files
+// written by toString(4) list them by hash bucket (and by insertion order within a bucket), which
+// depends on the keys present and on the table size, i.e. on their number. Given the keys in the
+// order they were put, the order of every possible subset is precomputed here so that a typed event
+// can be written exactly as the JSONObject it replaces would have been.
+public final class JsonKeyOrder {
+
+    // HashMap defaults: 16 buckets, doubled whenever the map is more than 3/4 full
+    private static final int INITIAL_TABLE_SIZE = 16;
+    // A bucket of 8 keys is treeified (or makes the table grow early), which this model does not follow
+    private static final int MAX_BUCKET_SIZE = 7;
+
+    private final String[] keys;
+    // Indexes into keys in iteration order, for the tables of 16, 32, 64... buckets
+    private final List<int[]> orderByTable = new ArrayList<>();
+
+    // keys in the order they are put into the object
+    public JsonKeyOrder(String... keys) {
+        this.keys = keys.clone();
+        for (int tableSize = INITIAL_TABLE_SIZE; ; tableSize *= 2) {
+            orderByTable.add(iterationOrder(tableSize));
+            if (keys.length <= tableSize * 3 / 4) {
+                break;
+            }
+        }
+    }
+
+    public String key(int index) {
+        return keys[index];
+    }
+
+    // Function to find the index of a key, -1 if it is not one of the keys
+    public int indexOf(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Function to get the indexes of the keys in the order an object holding size of them lists them,
+    // the keys absent from the object are to be skipped by the caller
+    public int[] order(int size) {
+        int table = 0;
+        for (int tableSize = INITIAL_TABLE_SIZE; size > tableSize * 3 / 4; tableSize *= 2) {
+            table++;
+        }
+        return orderByTable.get(table);
+    }
+
+    private int[] iterationOrder(int tableSize) {
+        int[] order = new int[keys.length];
+        int position = 0;
+        for (int bucket = 0; bucket < tableSize; bucket++) {
+            int bucketSize = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (bucket(keys[i], tableSize) == bucket) {
+                    order[position++] = i;
+                    bucketSize++;
+                }
+            }
+            if (bucketSize > MAX_BUCKET_SIZE) {
+                throw new IllegalStateException(bucketSize + " keys share a bucket of a table of " + tableSize);
+            }
+        }
+        return order;
+    }
+
+    // Same spreading as java.util.HashMap.hash
+    private static int bucket(String key, int tableSize) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (tableSize - 1);
+    }
+}
@@ -0,0 +1,94 @@
+package org.openbexi.common;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+import java.util.function.Consumer;
+
+// Token-level reader that walks a JSON document and hands the objects of one array to a consumer
+// one at a time, so only a single element is ever materialized as a JSONObject.
+public class JsonStreamReader {
+
+    private JsonStreamReader() {
+    }
+
+    // Function to stream the objects of the array stored under arrayKey in the top-level object,
+    // or of the top-level array itself when arrayKey is null. Returns the number of objects read.
+    public static long forEachObject(Reader reader, String arrayKey, Consumer<JSONObject> consumer) {
+        JSONTokener tokener = new JSONTokener(reader);
+        char c = tokener.nextClean();
+
+        if (arrayKey == null) {
+            if (c != '[') {
+                throw tokener.syntaxError("A JSON array text must start with '['");
+            }
+            return readArray(tokener, consumer);
+        }
+
+        if (c != '{') {
+            throw tokener.syntaxError("A JSONObject text must begin with '{'");
+        }
+
+        long count = 0;
+        while (true) {
+            c = tokener.nextClean();
+            if (c == '}') {
+                return count;
+            }
+            if (c == 0) {
+                throw tokener.syntaxError("A JSONObject text must end with '}'");
+            }
+            tokener.back();
+            String key = tokener.nextValue().toString();
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+
+            if (arrayKey.equals(key)) {
+                if (tokener.nextClean() != '[') {
+                    throw tokener.syntaxError("Expected '" + arrayKey + "' to be a JSON array");
+                }
+                count += readArray(tokener, consumer);
+            } else {
+                // Other members (type, metadata, bbox...) are small, parse and drop them
+                tokener.nextValue();
+            }
+
+            c = tokener.nextClean();
+            if (c == '}') {
+                return count;
+            }
+            if (c != ',') {
+                throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    // Function to read the elements of an array whose opening '[' has already been consumed
+    private static long readArray(JSONTokener tokener, Consumer<JSONObject> consumer) {
+        long count = 0;
+        if (tokener.nextClean() == ']') {
+            return count;
+        }
+        tokener.back();
+
+        while (true) {
+            Object value = tokener.nextValue();
+            if (!(value instanceof JSONObject)) {
+                throw new JSONException("Expected a JSON object in array but found: " + value);
+            }
+            consumer.accept((JSONObject) value);
+            count++;
+
+            char c = tokener.nextClean();
+            if (c == ']') {
+                return count;
+            }
+            if (c != ',') {
+                throw tokener.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Summaries of the partition files for the zoomed-out timeline, kept next to them under
+// <namespace root>/rollup/: hour/yyyy/MM/dd/<namespace>_yyyy_MM_dd_HH.json for every partition file,
+// day/yyyy/MM/<namespace>_yyyy_MM_dd.json and month/yyyy/<namespace>_yyyy_MM.json. A summary holds
+// the event count, the magnitude count / max / sum / mean and histogram, the top events by "sig"
+// and the volcano color code counts (each part only when the events have such values).
+// The hour summary is recomputed from the merged content every time EventFileMerger rewrites a
+// partition, so a revised event is never counted twice; its day is then marked dirty, and flush()
+// rebuilds the dirty days from their hour summaries and their months from the day summaries. Only
+// the summaries are read, never the events. The dirty days are also appended to a small log, a run
+// killed before its flush gets them rebuilt by the next one. Thread-safe.
+public class PartitionRollups {
+
+    private static final int TOP_EVENTS = 10;
+    // Magnitude bins [0, 1), [1, 2) ... [9, +inf), a negative magnitude is counted in the first one
+    private static final int HISTOGRAM_BINS = 10;
+    // Partition files are named <namespace>_yyyy_MM_dd_HH.json
+    private static final int PARTITION_LENGTH = "yyyy_MM_dd_HH".length();
+    private static final int DAY_LENGTH = "yyyy_MM_dd".length();
+    private static final int MONTH_LENGTH = "yyyy_MM".length();
+
+    private final String namespace;
+    private final String rollupPath;
+    private final File dirtyLog;
+    private final Set<String> dirtyDays = ConcurrentHashMap.newKeySet();
+
+    // namespaceRoot: the directory of the partition files, e.g. TimePartitioner.getRootPath()
+    public PartitionRollups(String namespaceRoot, String namespace) {
+        this.namespace = namespace;
+        this.rollupPath = namespaceRoot + "rollup/";
+        this.dirtyLog = new File(rollupPath + "dirty_days.log");
+    }
+
+    // Function to summarize a partition file that was just written with the given events
+    public void partitionWritten(String filePath, List<? extends EventRecord> events) throws IOException {
+        String partition = partitionOf(filePath);
+        if (partition == null) {
+            return;
+        }
+        Summary summary = new Summary();
+        for (EventRecord event : events) {
+            summary.add(event);
+        }
+        EventFileMerger.saveJsonToFile(hourPath(partition), summary.toJson(namespace, "hour", partition));
+
+        String day = partition.substring(0, DAY_LENGTH);
+        if (dirtyDays.add(day)) {
+            logDirtyDay(day);
+        }
+    }
+
+    // Function to rebuild the day and month summaries of the partitions written since the last flush,
+    // returns the number of days rebuilt
+    public synchronized int flush() throws IOException {
+        Set<String> days = new TreeSet<>(readDirtyLog());
+        days.addAll(dirtyDays);
+        if (days.isEmpty()) {
+            return 0;
+        }
+        dirtyDays.removeAll(days);
+
+        try {
+            Set<String> months = new TreeSet<>();
+            for (String day : days) {
+                Summary summary = new Summary();
+                for (File hour : listSummaries(new File(hourPath(day + "_00")).getParentFile(), day)) {
+                    summary.merge(readSummary(hour));
+                }
+                EventFileMerger.saveJsonToFile(dayPath(day), summary.toJson(namespace, "day", day));
+                months.add(day.substring(0, MONTH_LENGTH));
+            }
+            for (String month : months) {
+                Summary summary = new Summary();
+                for (File day : listSummaries(new File(dayPath(month + "_01")).getParentFile(), month)) {
+                    summary.merge(readSummary(day));
+                }
+                EventFileMerger.saveJsonToFile(monthPath(month), summary.toJson(namespace, "month", month));
+            }
+        } catch (IOException | JSONException e) {
+            // Rebuilt again by the next flush
+            dirtyDays.addAll(days);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+
+        // Days marked while flushing stay in the log
+        synchronized (dirtyLog) {
+            dirtyLog.delete();
+            for (String day : dirtyDays) {
+                logDirtyDay(day);
+            }
+        }
+        return days.size();
+    }
+
+    // Function to get yyyy_MM_dd_HH from .../<namespace>_yyyy_MM_dd_HH.json, null for another file
+    private String partitionOf(String filePath) {
+        String name = new File(filePath).getName();
+        int length = namespace.length() + 1 + PARTITION_LENGTH + ".json".length();
+        if (name.length() != length || !name.startsWith(namespace + "_") || !name.endsWith(".json")) {
+            return null;
+        }
+        return name.substring(namespace.length() + 1, namespace.length() + 1 + PARTITION_LENGTH);
+    }
+
+    private String hourPath(String partition) {
+        return rollupPath + "hour/" + partition.substring(0, 4) + "/" + partition.substring(5, 7) + "/"
+                + partition.substring(8, 10) + "/" + namespace + "_" + partition + ".json";
+    }
+
+    private String dayPath(String day) {
+        return rollupPath + "day/" + day.substring(0, 4) + "/" + day.substring(5, 7) + "/" + namespace + "_" + day + ".json";
+    }
+
+    private String monthPath(String month) {
+        return rollupPath + "month/" + month.substring(0, 4) + "/" + namespace + "_" + month + ".json";
+    }
+
+    // Function to list the summaries <namespace>_<period>_*.json of a directory, in time order
+    private List<File> listSummaries(File dir, String period) {
+        String prefix = namespace + "_" + period + "_";
+        File[] files = dir.listFiles((parent, name) -> name.startsWith(prefix) && name.endsWith(".json"));
+        if (files == null) {
+            return List.of();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static JSONObject readSummary(File file) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+
+    private void logDirtyDay(String day) throws IOException {
+        synchronized (dirtyLog) {
+            dirtyLog.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(dirtyLog, true), StandardCharsets.UTF_8)) {
+                writer.write(day + "\n");
+            }
+        }
+    }
+
+    private Set<String> readDirtyLog() throws IOException {
+        Set<String> days = new TreeSet<>();
+        synchronized (dirtyLog) {
+            if (!dirtyLog.isFile()) {
+                return days;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(dirtyLog), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // A line cut by a crash is ignored
+                    if (line.length() == DAY_LENGTH) {
+                        days.add(line);
+                    }
+                }
+            }
+        }
+        return days;
+    }
+
+    // Aggregates of a set of events, built from the events of a partition or merged from other summaries
+    private static final class Summary {
+        private long count;
+        private long magnitudeCount;
+        private double magnitudeMax = Double.NEGATIVE_INFINITY;
+        private double magnitudeSum;
+        private final long[] histogram = new long[HISTOGRAM_BINS];
+        // The TOP_EVENTS highest sig seen so far, highest first: events of a partition or entries of a summary
+        private final List<Object> top = new ArrayList<>(TOP_EVENTS + 1);
+        private final List<Double> topSig = new ArrayList<>(TOP_EVENTS + 1);
+        private final Map<String, Long> colorCodes = new TreeMap<>();
+
+        void add(EventRecord event) {
+            count++;
+            double mag = number(event.dataValue("mag"));
+            if (!Double.isNaN(mag)) {
+                addMagnitude(mag);
+                histogram[Math.max(0, Math.min(HISTOGRAM_BINS - 1, (int) Math.floor(mag)))]++;
+            }
+            double sig = number(event.dataValue("sig"));
+            if (!Double.isNaN(sig)) {
+                offerTop(event, sig);
+            }
+            Object colorCode = event.dataValue("colorCode");
+            if (colorCode instanceof String) {
+                colorCodes.merge((String) colorCode, 1L, Long::sum);
+            }
+        }
+
+        void merge(JSONObject summary) {
+            count += summary.optLong("count");
+            JSONObject magnitude = summary.optJSONObject("magnitude");
+            if (magnitude != null) {
+                magnitudeCount += magnitude.optLong("count");
+                magnitudeMax = Math.max(magnitudeMax, magnitude.optDouble("max"));
+                magnitudeSum += magnitude.optDouble("sum");
+                JSONArray bins = magnitude.optJSONArray("histogram");
+                for (int i = 0; bins != null && i < Math.min(bins.length(), HISTOGRAM_BINS); i++) {
+                    histogram[i] += bins.optLong(i);
+                }
+            }
+            JSONArray events = summary.optJSONArray("top");
+            for (int i = 0; events != null && i < events.length(); i++) {
+                JSONObject entry = events.getJSONObject(i);
+                offerTop(entry, number(entry.opt("sig")));
+            }
+            JSONObject codes = summary.optJSONObject("colorCodes");
+            if (codes != null) {
+                for (String code : codes.keySet()) {
+                    colorCodes.merge(code, codes.optLong(code), Long::sum);
+                }
+            }
+        }
+
+        // Function to keep an event among the top ones, after those of equal sig already kept
+        private void offerTop(Object event, double sig) {
+            int position = topSig.size();
+            while (position > 0 && topSig.get(position - 1) < sig) {
+                position--;
+            }
+            if (position < TOP_EVENTS) {
+                top.add(position, event);
+                topSig.add(position, sig);
+                if (top.size() > TOP_EVENTS) {
+                    top.remove(TOP_EVENTS);
+                    topSig.remove(TOP_EVENTS);
+                }
+            }
+        }
+
+        private static JSONObject topEntry(Object event) {
+            if (event instanceof JSONObject) {
+                return (JSONObject) event;
+            }
+            EventRecord record = (EventRecord) event;
+            JSONObject entry = new JSONObject();
+            entry.put("id", String.valueOf(record.id()));
+            entry.put("sig", record.dataValue("sig"));
+            entry.put("mag", record.dataValue("mag"));
+            entry.put("time", record.dataValue("time"));
+            entry.put("title", record.dataValue("title"));
+            return entry;
+        }
+
+        private void addMagnitude(double mag) {
+            magnitudeCount++;
+            magnitudeMax = Math.max(magnitudeMax, mag);
+            magnitudeSum += mag;
+        }
+
+        JSONObject toJson(String namespace, String period, String start) {
+            JSONObject json = new JSONObject();
+            json.put("namespace", namespace);
+            json.put("period", period);
+            json.put("start", start);
+            json.put("count", count);
+            if (magnitudeCount > 0) {
+                JSONObject magnitude = new JSONObject();
+                magnitude.put("count", magnitudeCount);
+                magnitude.put("max", magnitudeMax);
+                magnitude.put("sum", magnitudeSum);
+                magnitude.put("mean", magnitudeSum / magnitudeCount);
+                magnitude.put("histogram", new JSONArray(histogram));
+                json.put("magnitude", magnitude);
+            }
+            if (!top.isEmpty()) {
+                JSONArray entries = new JSONArray();
+                for (Object event : top) {
+                    entries.put(topEntry(event));
+                }
+                json.put("top", entries);
+            }
+            if (!colorCodes.isEmpty()) {
+                json.put("colorCodes", colorCodes);
+            }
+            return json;
+        }
+    }
+
+    // Same leniency as JSONObject.optDouble: a number or a numeric string, NaN otherwise
+    private static double number(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,262 @@
+package org.openbexi.common;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Groups events by partition file under a memory budget, instead of holding every event of a
+// response (or of a sweep) in heap until the last one is read. Events are buffered per partition
+// and counted at eventBytes each; past the budget the largest buffers are spilled, the oldest first
+// among equals, until the buffered events are back under half the budget. A spilled partition is
+// appended to a temporary segment file of its own (the events as they would be written, read back
+// through decoder), at most maxOpenSegments of them being open at once, the least recently used one
+// being closed first. finish() then hands every partition to the writer once, its spilled events
+// followed by the buffered ones in the order they were added, a single partition being in heap at
+// a time. Configured with system properties:
+//   openbexi.sink.memoryBudgetMB     events buffered before spilling (default 64)
+//   openbexi.sink.maxOpenSegments    segment files open at once (default 32)
+// Thread-safe, the segments live in a temporary directory removed by finish() or close().
+public class PartitionedSink<E extends EventRecord> implements Closeable {
+
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = Long.getLong("openbexi.sink.memoryBudgetMB", 64) << 20;
+    public static final int DEFAULT_MAX_OPEN_SEGMENTS = Integer.getInteger("openbexi.sink.maxOpenSegments", 32);
+
+    // Writes the events of one partition, i.e. merges them into its file
+    public interface PartitionWriter<E> {
+        void write(String partition, List<E> events) throws IOException;
+    }
+
+    private static final class Partition<E> {
+        final long order;
+        List<E> buffered = new ArrayList<>();
+        File segment;
+        long spilled;
+
+        Partition(long order) {
+            this.order = order;
+        }
+    }
+
+    private final String name;
+    private final long memoryBudgetBytes;
+    private final long eventBytes;
+    private final int maxOpenSegments;
+    private final Function<JSONObject, E> decoder;
+    private final Map<String, Partition<E>> partitions = new LinkedHashMap<>();
+    // Open segment streams, in access order: the eldest is closed when one more is needed
+    private final LinkedHashMap<String, OutputStream> openSegments = new LinkedHashMap<>(16, 0.75f, true);
+    private final EventJsonWriter segmentWriter = new EventJsonWriter();
+    private File spillDir;
+
+    private long bufferedEvents;
+    private long peakBufferedEvents;
+    private long eventCount;
+    private long spilledEvents;
+    private int spills;
+    private long maxVersion = Long.MIN_VALUE;
+
+    // name prefixes the temporary directory, eventBytes is the heap taken by an event once buffered
+    public PartitionedSink(String name, long eventBytes, Function<JSONObject, E> decoder) {
+        this(name, DEFAULT_MEMORY_BUDGET_BYTES, eventBytes, DEFAULT_MAX_OPEN_SEGMENTS, decoder);
+    }
+
+    public PartitionedSink(String name, long memoryBudgetBytes, long eventBytes, int maxOpenSegments, Function<JSONObject, E> decoder) {
+        if (memoryBudgetBytes < eventBytes || eventBytes < 1 || maxOpenSegments < 1) {
+            throw new IllegalArgumentException("Invalid sink sizes: budget " + memoryBudgetBytes + ", event " + eventBytes
+                    + ", open segments " + maxOpenSegments);
+        }
+        this.name = name;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.eventBytes = eventBytes;
+        this.maxOpenSegments = maxOpenSegments;
+        this.decoder = decoder;
+    }
+
+    // Function to add an event to its partition, spilling the largest partitions if over budget
+    public synchronized void add(String partition, E event) throws IOException {
+        partitions.computeIfAbsent(partition, k -> new Partition<>(partitions.size())).buffered.add(event);
+        eventCount++;
+        maxVersion = Math.max(maxVersion, event.version());
+        bufferedEvents++;
+        peakBufferedEvents = Math.max(peakBufferedEvents, bufferedEvents);
+        if (bufferedEvents * eventBytes > memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    // Same, for the events of a partition at once
+    public synchronized void addAll(String partition, List<E> events) throws IOException {
+        for (E event : events) {
+            add(partition, event);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return eventCount == 0;
+    }
+
+    // Events added, spilled ones included
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+
+    // Highest version of the events added, Long.MIN_VALUE if there is none
+    public synchronized long getMaxVersion() {
+        return maxVersion;
+    }
+
+    public synchronized long getSpilledEvents() {
+        return spilledEvents;
+    }
+
+    // Function to write every partition once, in the order they were first added to, and remove the
+    // segments; returns the number of partitions written
+    public synchronized int finish(PartitionWriter<E> writer) throws IOException {
+        try {
+            closeSegments();
+            int written = 0;
+            for (Iterator<Map.Entry<String, Partition<E>>> it = partitions.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Partition<E>> entry = it.next();
+                Partition<E> partition = entry.getValue();
+                List<E> events = partition.segment != null ? readSegment(partition.segment) : new ArrayList<>();
+                events.addAll(partition.buffered);
+                it.remove();
+                bufferedEvents -= partition.buffered.size();
+                writer.write(entry.getKey(), events);
+                written++;
+            }
+            if (spilledEvents > 0) {
+                System.out.printf("%s: %d of %d events spilled in %d rounds, at most %d buffered (%.1f MB estimated).%n",
+                        name, spilledEvents, eventCount, spills, peakBufferedEvents, peakBufferedEvents * eventBytes / 1e6);
+            }
+            return written;
+        } finally {
+            close();
+        }
+    }
+
+    // Function to drop what was not written and remove the segments
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            closeSegments();
+        } finally {
+            partitions.clear();
+            bufferedEvents = 0;
+            deleteSpillDir();
+        }
+    }
+
+    // Function to spill the largest partitions until the buffered events are back under half the budget
+    private void spill() throws IOException {
+        spills++;
+        List<Map.Entry<String, Partition<E>>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Partition<E>> entry : partitions.entrySet()) {
+            if (!entry.getValue().buffered.isEmpty()) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort((a, b) -> {
+            int bySize = Integer.compare(b.getValue().buffered.size(), a.getValue().buffered.size());
+            return bySize != 0 ? bySize : Long.compare(a.getValue().order, b.getValue().order);
+        });
+        long target = memoryBudgetBytes / 2 / eventBytes;
+        for (Map.Entry<String, Partition<E>> entry : candidates) {
+            if (bufferedEvents <= target) {
+                break;
+            }
+            spillPartition(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void spillPartition(String partitionName, Partition<E> partition) throws IOException {
+        OutputStream out = openSegment(partitionName, partition);
+        for (E event : partition.buffered) {
+            event.writeJson(segmentWriter.reset(out));
+            segmentWriter.flush();
+            out.write('\n');
+        }
+        segmentWriter.reset(null);
+        int count = partition.buffered.size();
+        partition.spilled += count;
+        spilledEvents += count;
+        bufferedEvents -= count;
+        partition.buffered = new ArrayList<>();
+    }
+
+    private OutputStream openSegment(String partitionName, Partition<E> partition) throws IOException {
+        OutputStream out = openSegments.get(partitionName);
+        if (out != null) {
+            return out;
+        }
+        if (openSegments.size() >= maxOpenSegments) {
+            Iterator<OutputStream> eldest = openSegments.values().iterator();
+            OutputStream closing = eldest.next();
+            eldest.remove();
+            closing.close();
+        }
+        if (partition.segment == null) {
+            if (spillDir == null) {
+                spillDir = Files.createTempDirectory("openbexi-" + name + "-spill").toFile();
+            }
+            partition.segment = new File(spillDir, "segment_" + partition.order + ".json");
+        }
+        out = new BufferedOutputStream(new FileOutputStream(partition.segment, true), 1 << 16);
+        openSegments.put(partitionName, out);
+        return out;
+    }
+
+    private List<E> readSegment(File segment) throws IOException {
+        List<E> events = new ArrayList<>();
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment), StandardCharsets.UTF_8), 1 << 16)) {
+            JSONTokener tokener = new JSONTokener(reader);
+            while (tokener.nextClean() == '{') {
+                tokener.back();
+                events.add(decoder.apply(new JSONObject(tokener)));
+            }
+        }
+        return events;
+    }
+
+    private void closeSegments() throws IOException {
+        IOException failure = null;
+        for (OutputStream out : openSegments.values()) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        openSegments.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void deleteSpillDir() {
+        if (spillDir == null) {
+            return;
+        }
+        File[] segments = spillDir.listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                segment.delete();
+            }
+        }
+        spillDir.delete();
+        spillDir = null;
+    }
+}
@@ -0,0 +1,52 @@
+package org.openbexi.common;
+
+import java.util.concurrent.TimeUnit;
+
+// Token bucket shared by all workers talking to the same host. Tokens are refilled continuously at
+// permitsPerSecond up to burst; a caller that finds the bucket empty reserves the next token and
+// sleeps outside the lock, so waiting threads are served in reservation order.
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1: " + burst);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    // Function to block until a permit is available
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    // Function to take one token, possibly going into debt, and return how long the caller must wait
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / 1_000_000_000d);
+        lastRefillNanos = now;
+
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / permitsPerSecond * 1_000_000_000d);
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+}
@@ -0,0 +1,81 @@
+package org.openbexi.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Local control of a JobScheduler on http://127.0.0.1:<port>, on a single daemon thread of the
+// JDK's built-in HTTP server:
+//   GET  /jobs             status of every job as JSON
+//   POST /jobs/<name>/run  run a job now: 202, or 409 if it is already running, 404 if unknown
+public class SchedulerEndpoint {
+
+    private final HttpServer server;
+
+    private SchedulerEndpoint(HttpServer server) {
+        this.server = server;
+    }
+
+    public static SchedulerEndpoint start(int port, JobScheduler scheduler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", exchange -> handle(exchange, scheduler));
+        server.setExecutor(null);
+        server.start();
+        return new SchedulerEndpoint(server);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void handle(HttpExchange exchange, JobScheduler scheduler) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/jobs") || path.equals("/jobs/")) {
+                if (!"GET".equals(method)) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                respond(exchange, 200, scheduler.status().toString(4));
+                return;
+            }
+
+            // /jobs/<name>/run
+            String[] parts = path.split("/");
+            if (parts.length != 4 || !"run".equals(parts[3])) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"POST".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            boolean started;
+            try {
+                started = scheduler.trigger(parts[2]);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 404, new JSONObject().put("error", e.getMessage()).toString());
+                return;
+            }
+            respond(exchange, started ? 202 : 409, new JSONObject().put("started", started).toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
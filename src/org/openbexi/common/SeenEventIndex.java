@@ -0,0 +1,231 @@
+package org.openbexi.common;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.UUID;
+
+// Persistent index of the events already merged into the partition files, with the version each one
+// was merged at. An event is held as a 64-bit fingerprint of its stable id and a long version in two
+// primitive arrays (open addressing, no boxing, at most 32 bytes per event), and every change is
+// appended as a 16-byte record to a log kept next to the data and replayed on open. Events whose
+// version is not newer than the recorded one are dropped before they are converted and serialized
+// again. Two ids sharing a fingerprint are possible but negligible (about 2^-64 per pair).
+// A record is known in memory at once but only reaches the log after the files holding its event
+// were committed by the AtomicFileWriter they were written through: flush() takes the records made
+// so far, commits the files renamed before them, then logs them. After a power loss the log never
+// holds an event whose file was lost, which would have been skipped forever.
+public class SeenEventIndex implements Closeable {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int RECORD_SIZE = 16;
+    // Past this many records waiting for a commit, the one recording them flushes
+    private static final int MAX_PENDING_RECORDS = 65536;
+
+    private final File file;
+    private final AtomicFileWriter fileWriter;
+    private DataOutputStream log;  // Opened on the first flushed record, a read-only user never creates the file
+    private long logRecords;
+    // Fingerprint and version pairs recorded since the last flush, not logged before their files are durable
+    private long[] pending = new long[2 * 1024];
+    private int pendingRecords;
+    // Serializes the flushes, so records reach the log in the order they were taken
+    private final Object flushLock = new Object();
+
+    private long[] keys;
+    private long[] versions;
+    private int size;
+    private int mask;
+
+    // fileWriter: the writer of the files whose events are recorded
+    public SeenEventIndex(File file, AtomicFileWriter fileWriter) throws IOException {
+        this.file = file;
+        this.fileWriter = fileWriter;
+        allocate(1024);
+        if (file.isFile()) {
+            replay();
+        }
+    }
+
+    // Function to derive the fingerprint of a stable event id
+    public static long fingerprint(UUID id) {
+        long fingerprint = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+        return fingerprint == EMPTY ? 0 : fingerprint;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Function to check whether an event was already merged at version or a newer one
+    public synchronized boolean isSeen(long fingerprint, long version) {
+        int slot = find(fingerprint);
+        return slot >= 0 && versions[slot] >= version;
+    }
+
+    // Function to record that an event was merged at version, returns false if it already was (or at a newer one).
+    // The file the event was merged into must have been written before.
+    public boolean record(long fingerprint, long version) throws IOException {
+        boolean flushNow;
+        synchronized (this) {
+            int slot = find(fingerprint);
+            if (slot >= 0) {
+                if (versions[slot] >= version) {
+                    return false;
+                }
+                versions[slot] = version;
+            } else {
+                insert(fingerprint, version);
+            }
+            if (pendingRecords * 2 == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[pendingRecords * 2] = fingerprint;
+            pending[pendingRecords * 2 + 1] = version;
+            flushNow = ++pendingRecords >= MAX_PENDING_RECORDS;
+        }
+        if (flushNow) {
+            flush();
+        }
+        return true;
+    }
+
+    // Function to log the records made so far, once the files holding their events are committed
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            long[] records;
+            int count;
+            synchronized (this) {
+                if (pendingRecords == 0) {
+                    return;
+                }
+                records = pending;
+                count = pendingRecords;
+                pending = new long[2 * 1024];
+                pendingRecords = 0;
+            }
+            try {
+                // Every file written before these records were taken is durable once it returns
+                fileWriter.commit();
+                synchronized (this) {
+                    if (log == null) {
+                        file.getParentFile().mkdirs();
+                        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                    }
+                    for (int i = 0; i < count; i++) {
+                        log.writeLong(records[i * 2]);
+                        log.writeLong(records[i * 2 + 1]);
+                    }
+                    log.flush();
+                    logRecords += count;
+                }
+            } catch (IOException e) {
+                // Kept for the next flush, ahead of the records made since
+                synchronized (this) {
+                    long[] merged = Arrays.copyOf(records, Math.max(records.length, (count + pendingRecords) * 2));
+                    System.arraycopy(pending, 0, merged, count * 2, pendingRecords * 2);
+                    pending = merged;
+                    pendingRecords += count;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Function to flush the records, then close the log
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                if (log != null) {
+                    log.close();
+                    log = null;
+                }
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        long length = file.length();
+        long records = length / RECORD_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            for (long i = 0; i < records; i++) {
+                long fingerprint = in.readLong();
+                long version = in.readLong();
+                int slot = find(fingerprint);
+                if (slot < 0) {
+                    insert(fingerprint, version);
+                } else if (version > versions[slot]) {
+                    versions[slot] = version;
+                }
+            }
+        }
+        logRecords = records;
+
+        if (length % RECORD_SIZE != 0 || logRecords > 2L * size + 1024) {
+            // A record cut by an interrupted run, or a log mostly made of superseded versions: rewrite it
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    out.writeLong(keys[i]);
+                    out.writeLong(versions[i]);
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logRecords = size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        versions = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    // Function to find the slot of a fingerprint, -1 if it is absent
+    private int find(long fingerprint) {
+        int slot = slot(fingerprint);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == fingerprint) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long fingerprint, long version) {
+        int slot = slot(fingerprint);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = fingerprint;
+        versions[slot] = version;
+        if (++size * 2 > keys.length) {
+            long[] oldKeys = keys;
+            long[] oldVersions = versions;
+            allocate(oldKeys.length * 2);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    insert(oldKeys[i], oldVersions[i]);
+                }
+            }
+        }
+    }
+
+    private int slot(long fingerprint) {
+        // Fingerprints are already hashes, fold the high bits in for small tables
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+}
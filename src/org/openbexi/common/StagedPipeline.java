@@ -0,0 +1,240 @@
+package org.openbexi.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Source -> transform... -> sink pipeline. Every stage runs on its own worker threads and hands its
+// output to the next one through a bounded queue; a worker blocks while the queue in front of the
+// next stage is full, so a slow sink (the disk) throttles the stages upstream of it, down to the
+// source (the network), instead of letting items pile up on the heap. The first failure of any
+// stage stops every worker and is rethrown by into(). Workers see it between two items and while
+// waiting on a queue, they are never interrupted: an interrupt would close the file channels a sink
+// is writing with (ClosedByInterruptException) and break the writers it keeps open. Built as
+//   StagedPipeline.source("fetch", source).then("convert", 4, 8, transform).into("write", 2, 8, sink);
+// With metrics(), the depth of the queue in front of each stage is reported while the pipeline runs.
+public final class StagedPipeline<T> {
+
+    // Hands an item to the next stage, blocking while its queue is full. Throws CancellationException
+    // once the pipeline is stopping, so it can be called from lambdas that cannot throw checked exceptions.
+    public interface Emitter<T> {
+        void emit(T item);
+    }
+
+    public interface Source<T> {
+        void produce(Emitter<T> out) throws Exception;
+    }
+
+    public interface Transform<I, O> {
+        void process(I item, Emitter<O> out) throws Exception;
+    }
+
+    public interface Sink<T> {
+        void accept(T item) throws Exception;
+
+        // Called once, after the last item was accepted and only if no stage failed
+        default void finish() throws Exception {
+        }
+    }
+
+    private interface Body {
+        void process(Object item, Emitter<Object> out) throws Exception;
+    }
+
+    private static final class Stage {
+        final String name;
+        final int workers;
+        final BlockingQueue<Object> input;  // null for the source
+        final Body body;
+        BlockingQueue<Object> output;       // null for the sink
+
+        Stage(String name, int workers, BlockingQueue<Object> input, Body body) {
+            this.name = name;
+            this.workers = workers;
+            this.input = input;
+            this.body = body;
+        }
+    }
+
+    // Marks the end of the stream in a queue, every worker of the next stage puts it back for its siblings
+    private static final Object END = new Object();
+
+    // How often a worker waiting on a queue checks whether the pipeline is stopping
+    private static final long CANCEL_CHECK_MILLIS = 50;
+
+    // Shared by the StagedPipeline instances returned while the pipeline is built
+    private static final class Plan {
+        final List<Stage> stages = new ArrayList<>();
+        IngestMetrics metrics;
+    }
+
+    private final Plan plan;
+
+    private StagedPipeline(Plan plan) {
+        this.plan = plan;
+    }
+
+    public static <T> StagedPipeline<T> source(String name, Source<T> source) {
+        Plan plan = new Plan();
+        plan.stages.add(new Stage(name, 1, null, (item, out) -> source.produce(cast(out))));
+        return new StagedPipeline<>(plan);
+    }
+
+    // Function to report the queue depths of the pipeline to metrics while it runs
+    public StagedPipeline<T> metrics(IngestMetrics metrics) {
+        plan.metrics = metrics;
+        return this;
+    }
+
+    // Function to add a transform run by workers threads, fed through a queue of capacity items
+    public <O> StagedPipeline<O> then(String name, int workers, int capacity, Transform<? super T, ? extends O> transform) {
+        plan.stages.add(new Stage(name, workers, new ArrayBlockingQueue<>(capacity), (item, out) -> transform.process(cast(item), cast(out))));
+        return new StagedPipeline<>(plan);
+    }
+
+    // Function to add the sink and run the pipeline until the source is exhausted and every item is sunk
+    public void into(String name, int workers, int capacity, Sink<? super T> sink) throws IOException, InterruptedException {
+        List<Stage> stages = plan.stages;
+        stages.add(new Stage(name, workers, new ArrayBlockingQueue<>(capacity), (item, out) -> sink.accept(cast(item))));
+        for (int i = 0; i < stages.size() - 1; i++) {
+            stages.get(i).output = stages.get(i + 1).input;
+        }
+        if (plan.metrics != null) {
+            for (Stage stage : stages) {
+                if (stage.input != null) {
+                    plan.metrics.addQueue(stage.name, stage.input);
+                }
+            }
+        }
+        try {
+            run(stages, sink);
+        } finally {
+            if (plan.metrics != null) {
+                for (Stage stage : stages) {
+                    if (stage.input != null) {
+                        plan.metrics.removeQueue(stage.name, stage.input);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(List<Stage> stages, Sink<?> sink) throws IOException, InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (Stage stage : stages) {
+            AtomicInteger running = new AtomicInteger(stage.workers);
+            for (int i = 0; i < stage.workers; i++) {
+                Thread thread = new Thread(() -> runWorker(stage, running, failure), "pipeline-" + stage.name + "-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+        }
+        threads.forEach(Thread::start);
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            // The caller is being stopped: stop the workers and wait for them before giving up
+            failure.compareAndSet(null, e);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            throw e;
+        }
+
+        if (failure.get() == null) {
+            try {
+                sink.finish();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        }
+        rethrow(failure.get());
+    }
+
+    private static void runWorker(Stage stage, AtomicInteger running, AtomicReference<Throwable> failure) {
+        Emitter<Object> out = item -> {
+            try {
+                put(stage.output, item, failure);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Pipeline stopped");
+            }
+        };
+
+        try {
+            if (stage.input == null) {
+                stage.body.process(null, out);
+            } else {
+                while (failure.get() == null) {
+                    Object item = stage.input.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    if (item == END) {
+                        put(stage.input, END, failure);
+                        break;
+                    }
+                    if (item != null) {
+                        stage.body.process(item, out);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            // A worker cancelled because another one failed is not the cause
+            failure.compareAndSet(null, e);
+        } finally {
+            if (running.decrementAndGet() == 0 && stage.output != null && failure.get() == null) {
+                try {
+                    put(stage.output, END, failure);
+                } catch (CancellationException | InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+
+    // Function to put an item in a queue, waiting while it is full unless the pipeline is stopping
+    private static void put(BlockingQueue<Object> queue, Object item, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        do {
+            if (failure.get() != null) {
+                throw new CancellationException("Pipeline stopped");
+            }
+        } while (!queue.offer(item, CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static void rethrow(Throwable failure) throws IOException, InterruptedException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failure).getCause();
+        }
+        if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IOException(failure.getMessage(), failure);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+}
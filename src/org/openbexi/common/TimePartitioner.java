@@ -0,0 +1,122 @@
+package org.openbexi.common;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maps an epoch time to its output partition <root>/<namespace>/yyyy/MM/dd/<namespace>_yyyy_MM_dd_HH.json
+// with plain java.time arithmetic (no SimpleDateFormat, no string splitting). Paths are cached per
+// partition and each directory is created at most once, so the filesystem is only hit the first
+// time a partition is seen. Like the converters always did, partitions and "start" values follow the
+// JVM default time zone (run with -Duser.timezone=UTC to get real UTC). Thread-safe.
+public class TimePartitioner {
+
+    // Root of the data tree, can be moved with -Dopenbexi.data.root=/some/dir/
+    public static final String DATA_ROOT = System.getProperty("openbexi.data.root", "/data/");
+
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+    // Past this many cached partitions the cache is dropped rather than grown forever
+    private static final int MAX_CACHED_PATHS = 100_000;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final ZoneRules ZONE_RULES = ZONE.getRules();
+    // Fixed-offset zones (UTC servers) skip the per-event offset lookup
+    private static final long FIXED_OFFSET_MILLIS = ZONE_RULES.isFixedOffset()
+            ? ZONE_RULES.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L : Long.MIN_VALUE;
+    private static final DateTimeFormatter START_FORMATTER =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss 'UTC' yyyy", Locale.US).withZone(ZONE);
+
+    private final String namespace;
+    private final String rootPath;
+    private final boolean hourly;
+    private final Map<Long, String> pathByPartition = new ConcurrentHashMap<>();
+    private final Map<Long, Boolean> createdDays = new ConcurrentHashMap<>();
+
+    // hourly = false puts a whole day in its _00 partition (volcano notices)
+    public TimePartitioner(String namespace, boolean hourly) {
+        this.namespace = namespace;
+        this.rootPath = DATA_ROOT + namespace + "/";
+        this.hourly = hourly;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    // Function to get the partition key of an epoch time: local hours since the epoch (days for daily partitions)
+    public long partitionKey(long epochMillis) {
+        long localMillis = toLocalMillis(epochMillis);
+        return hourly ? Math.floorDiv(localMillis, MILLIS_PER_HOUR) : Math.floorDiv(localMillis, MILLIS_PER_DAY);
+    }
+
+    private static long toLocalMillis(long epochMillis) {
+        if (FIXED_OFFSET_MILLIS != Long.MIN_VALUE) {
+            return epochMillis + FIXED_OFFSET_MILLIS;
+        }
+        return epochMillis + ZONE_RULES.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+    }
+
+    // Function to resolve the output file of an epoch time, creating its directory the first time
+    public String resolvePath(long epochMillis) {
+        long key = partitionKey(epochMillis);
+        String path = pathByPartition.get(key);
+        if (path == null) {
+            if (pathByPartition.size() >= MAX_CACHED_PATHS) {
+                pathByPartition.clear();
+            }
+            path = buildPath(key);
+            pathByPartition.put(key, path);
+        }
+        return path;
+    }
+
+    private String buildPath(long key) {
+        long epochDay = hourly ? Math.floorDiv(key, 24) : key;
+        int hour = hourly ? Math.floorMod(key, 24) : 0;
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+
+        StringBuilder path = new StringBuilder(rootPath.length() + namespace.length() + 32).append(rootPath);
+        appendDate(path, date, '/');
+        path.append('/');
+        ensureDirectory(epochDay, path);
+
+        path.append(namespace).append('_');
+        appendDate(path, date, '_');
+        path.append('_');
+        appendTwoDigits(path, hour);
+        return path.append(".json").toString();
+    }
+
+    private void ensureDirectory(long epochDay, CharSequence dirPath) {
+        if (!createdDays.containsKey(epochDay)) {
+            File dir = new File(dirPath.toString());
+            if (!dir.isDirectory()) {
+                dir.mkdirs();  // Create directories if they do not exist
+            }
+            createdDays.put(epochDay, Boolean.TRUE);
+        }
+    }
+
+    private static void appendDate(StringBuilder sb, LocalDate date, char separator) {
+        sb.append(date.getYear()).append(separator);
+        appendTwoDigits(sb, date.getMonthValue());
+        sb.append(separator);
+        appendTwoDigits(sb, date.getDayOfMonth());
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    // Function to format an epoch time as the "start" value of an event, e.g. "Fri Aug 23 19:57:54 UTC 2024"
+    public static String formatStart(long epochMillis) {
+        return START_FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+}
@@ -0,0 +1,99 @@
+package org.openbexi.daemon;
+
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.JobScheduler;
+import org.openbexi.common.SchedulerEndpoint;
+import org.openbexi.earthquake.EarthquakeJsonConverter;
+import org.openbexi.volcano.VolcanoJsonConverter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+// Resident mode hosting both converters in one JVM instead of one JVM per cron run: the earthquake
+// and volcano jobs are run by a JobScheduler with the arguments of their command line, and the HTTP
+// client, the seen indexes, the column store and the partition caches stay loaded (and warm)
+// between runs. Configured with system properties:
+//   openbexi.daemon.<earthquake|volcano>.intervalSeconds  run interval, 0 to only run on demand
+//   openbexi.daemon.<earthquake|volcano>.args             job arguments (default -poll 0 / -NewestOrRecent)
+//   openbexi.daemon.port                                  control endpoint, 0 to disable
+//   openbexi.daemon.shutdownSeconds                       grace period of the running jobs on shutdown
+// The control endpoint lists the jobs and runs one on demand:
+//   curl http://127.0.0.1:8089/jobs
+//   curl -X POST http://127.0.0.1:8089/jobs/earthquake/run
+// SIGTERM (or Ctrl-C) stops the schedule, lets the running jobs finish and closes the stores.
+public class IngestDaemon {
+
+    private static final int PORT = Integer.getInteger("openbexi.daemon.port", 8089);
+    private static final Duration SHUTDOWN_GRACE = Duration.ofSeconds(Long.getLong("openbexi.daemon.shutdownSeconds", 60));
+
+    private static final long DEFAULT_EARTHQUAKE_INTERVAL_SECONDS = 60;
+    private static final String DEFAULT_EARTHQUAKE_ARGS = "-poll 0";
+    private static final long DEFAULT_VOLCANO_INTERVAL_SECONDS = 300;
+    private static final String DEFAULT_VOLCANO_ARGS = "-NewestOrRecent";
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 0) {
+            printUsageAndExit();
+        }
+
+        IngestMetrics.startReporting();
+        JobScheduler scheduler = new JobScheduler();
+        String[] earthquakeArgs = jobArgs("earthquake", DEFAULT_EARTHQUAKE_ARGS);
+        String[] volcanoArgs = jobArgs("volcano", DEFAULT_VOLCANO_ARGS);
+        scheduler.schedule("earthquake", jobInterval("earthquake", DEFAULT_EARTHQUAKE_INTERVAL_SECONDS),
+                () -> EarthquakeJsonConverter.runJob(earthquakeArgs));
+        scheduler.schedule("volcano", jobInterval("volcano", DEFAULT_VOLCANO_INTERVAL_SECONDS),
+                () -> VolcanoJsonConverter.runJob(volcanoArgs));
+
+        SchedulerEndpoint endpoint = null;
+        if (PORT > 0) {
+            try {
+                endpoint = SchedulerEndpoint.start(PORT, scheduler);
+                System.out.println("Jobs controlled on http://127.0.0.1:" + PORT + "/jobs");
+            } catch (IOException e) {
+                System.out.println("Unable to start the control endpoint on port " + PORT + ": " + e.getMessage());
+            }
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        SchedulerEndpoint controlEndpoint = endpoint;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Stopping, waiting up to " + SHUTDOWN_GRACE.toSeconds() + " s for the running jobs...");
+            if (controlEndpoint != null) {
+                controlEndpoint.stop();
+            }
+            try {
+                scheduler.shutdown(SHUTDOWN_GRACE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            EarthquakeJsonConverter.shutdown();
+            VolcanoJsonConverter.shutdown();
+            IngestMetrics.stopReporting();
+            stopped.countDown();
+        }, "daemon-shutdown"));
+
+        stopped.await();
+    }
+
+    private static Duration jobInterval(String job, long defaultSeconds) {
+        return Duration.ofSeconds(Long.getLong("openbexi.daemon." + job + ".intervalSeconds", defaultSeconds));
+    }
+
+    private static String[] jobArgs(String job, String defaultArgs) {
+        return System.getProperty("openbexi.daemon." + job + ".args", defaultArgs).trim().split("\\s+");
+    }
+
+    // Function to print usage instructions and exit
+    private static void printUsageAndExit() {
+        System.out.println("Usage: IngestDaemon (no arguments)");
+        System.out.println("  Runs the earthquake job every " + DEFAULT_EARTHQUAKE_INTERVAL_SECONDS + " s (" + DEFAULT_EARTHQUAKE_ARGS
+                + ") and the volcano job every " + DEFAULT_VOLCANO_INTERVAL_SECONDS + " s (" + DEFAULT_VOLCANO_ARGS + ") until stopped.");
+        System.out.println("  -Dopenbexi.daemon.<earthquake|volcano>.intervalSeconds=<seconds> (0 to only run on demand)");
+        System.out.println("  -Dopenbexi.daemon.<earthquake|volcano>.args=\"<converter arguments>\"");
+        System.out.println("  -Dopenbexi.daemon.port=<port> (default 8089, 0 to disable): GET /jobs, POST /jobs/<name>/run");
+        System.out.println("  -Dopenbexi.daemon.shutdownSeconds=<seconds> (default 60)");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,313 @@
+package org.openbexi.earthquake;
+
+import org.openbexi.common.HttpFetcher;
+import org.openbexi.common.HttpStatusException;
+import org.openbexi.common.IngestCatalog;
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.RateLimiter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Walks windows backward from a starting day with a pool of fetch workers. The windows are sized by
+// a WindowPlanner (several quiet days, one day or slices of a busy day) or are single days without
+// one, planned by a thread of their own a few windows ahead of the workers. Every request goes
+// through a shared RateLimiter, transient failures are retried with exponential backoff and the
+// first permanent failure stops the walk: no window older than the failing day is handed out, while
+// the windows already in flight are allowed to finish. Days checkpointed as complete in the
+// IngestCatalog are skipped without a request, so an interrupted backfill resumes where it was.
+class BackfillEngine {
+
+    // Work done for one [start, end) slice, returns the number of events processed
+    interface WindowTask {
+        int process(Instant start, Instant end) throws IOException;
+    }
+
+    private interface Attempt<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    private final int workers;
+    private final RateLimiter rateLimiter;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final IngestCatalog catalog;
+    private final IngestMetrics metrics;
+    private final WindowPlanner planner;
+
+    // How often a worker waiting for a window checks whether the planning is over
+    private static final long PLANNED_CHECK_MILLIS = 100;
+
+    // Windows planned ahead of the workers, planned set once no more will come
+    private final BlockingQueue<WindowPlanner.Window> windows;
+    private volatile boolean planned;
+
+    private final Object windowLock = new Object();
+    private LocalDate nextDay;
+    private LocalDate oldestDay;
+    private LocalDate stoppedAt;
+
+    private final AtomicInteger windowsProcessed = new AtomicInteger();
+    private final AtomicInteger windowsSkipped = new AtomicInteger();
+    private final AtomicLong eventsProcessed = new AtomicLong();
+    private final AtomicInteger retries = new AtomicInteger();
+
+    // catalog, metrics and planner may be null
+    BackfillEngine(int workers, RateLimiter rateLimiter, int maxRetries, long initialBackoffMillis, IngestCatalog catalog,
+                   IngestMetrics metrics, WindowPlanner planner) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1: " + workers);
+        }
+        this.workers = workers;
+        this.rateLimiter = rateLimiter;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.catalog = catalog;
+        this.metrics = metrics;
+        this.planner = planner;
+        this.windows = new ArrayBlockingQueue<>(workers);
+    }
+
+    // Function to run the backfill from newestDay back to oldestDay (inclusive, null for no limit)
+    void run(LocalDate newestDay, LocalDate oldestDay, WindowTask task) throws InterruptedException {
+        synchronized (windowLock) {
+            this.nextDay = newestDay;
+            this.oldestDay = oldestDay;
+            this.stoppedAt = null;
+        }
+
+        windows.clear();
+        planned = false;
+        ExecutorService executor = Executors.newFixedThreadPool(workers + 1, runnable -> {
+            Thread thread = new Thread(runnable, "backfill-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                planLoop();
+                return null;
+            }));
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    workerLoop(task);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.out.println("Backfill worker failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println("Backfill finished: " + windowsProcessed.get() + " windows, "
+                + windowsSkipped.get() + " already complete, "
+                + eventsProcessed.get() + " events, " + retries.get() + " retries"
+                + (planner != null ? ", " + planner.getCountRequests() + " count requests" : "")
+                + (stoppedAt != null ? ", stopped at " + stoppedAt : "") + ".");
+    }
+
+    private void workerLoop(WindowTask task) throws InterruptedException {
+        WindowPlanner.Window window;
+        while ((window = takeNextWindow()) != null) {
+            processWindow(task, window);
+        }
+    }
+
+    // Function to plan the windows one after the other, each starting where the previous one ended,
+    // and queue them for the workers. On a thread of its own: the count requests and their backoffs
+    // neither hold the lock the workers report failures under nor keep them from the queued windows.
+    private void planLoop() throws InterruptedException {
+        try {
+            WindowPlanner.Window window;
+            while ((window = planNextWindow()) != null) {
+                windows.put(window);
+            }
+        } finally {
+            // Even when planning failed or was interrupted: nothing is put here, so nothing can block
+            planned = true;
+        }
+    }
+
+    // Function to plan the next (older) window, or null once the walk is over or has been stopped
+    private WindowPlanner.Window planNextWindow() throws InterruptedException {
+        LocalDate firstDay;
+        int availableDays = 1;
+        synchronized (windowLock) {
+            while (isPending(nextDay) && catalog != null && catalog.isComplete(nextDay, nextDay.plusDays(1))) {
+                windowsSkipped.incrementAndGet();
+                nextDay = nextDay.minusDays(1);
+            }
+            if (!isPending(nextDay)) {
+                return null;
+            }
+            firstDay = nextDay;
+            if (planner != null) {
+                // Consecutive days still to fetch, a window never spans a day already complete
+                LocalDate day = nextDay.minusDays(1);
+                while (availableDays < planner.getMaxSpanDays() && isPending(day)
+                        && (catalog == null || !catalog.isComplete(day, day.plusDays(1)))) {
+                    availableDays++;
+                    day = day.minusDays(1);
+                }
+            }
+        }
+
+        LocalDate endDay = firstDay.plusDays(1);
+        WindowPlanner.Window window;
+        if (planner == null) {
+            window = WindowPlanner.Window.ofDays(firstDay, endDay, -1);
+        } else {
+            int available = availableDays;
+            window = withRetries(firstDay, () -> planner.plan(endDay, available));
+            if (window == null) {
+                stopAt(firstDay);
+                return null;
+            }
+        }
+        synchronized (windowLock) {
+            nextDay = window.start.minusDays(1);
+        }
+        return window;
+    }
+
+    // Function to hand out the next queued window, or null once the walk is over. A window planned
+    // before a failure stopped the walk at a newer day is dropped, a resumed backfill fetches it.
+    private WindowPlanner.Window takeNextWindow() throws InterruptedException {
+        while (true) {
+            WindowPlanner.Window window = windows.poll(PLANNED_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            if (window == null) {
+                if (!planned) {
+                    continue;
+                }
+                // The last windows were queued before planned was set
+                window = windows.poll();
+                if (window == null) {
+                    return null;
+                }
+            }
+            synchronized (windowLock) {
+                if (isPending(window.end.minusDays(1))) {
+                    return window;
+                }
+            }
+        }
+    }
+
+    // Function to tell whether a day is still to be handed out
+    private boolean isPending(LocalDate day) {
+        return day != null && (oldestDay == null || !day.isBefore(oldestDay)) && (stoppedAt == null || day.isAfter(stoppedAt));
+    }
+
+    private void stopAt(LocalDate day) {
+        synchronized (windowLock) {
+            if (stoppedAt == null || day.isAfter(stoppedAt)) {
+                stoppedAt = day;
+            }
+        }
+    }
+
+    private void processWindow(WindowTask task, WindowPlanner.Window window) throws InterruptedException {
+        int eventCount = 0;
+        for (int i = 0; i < window.slices(); i++) {
+            Instant sliceStart = window.bounds.get(i);
+            Instant sliceEnd = window.bounds.get(i + 1);
+            Integer sliceCount = withRetries(window.end.minusDays(1), () -> {
+                rateLimiter.acquire();
+                return task.process(sliceStart, sliceEnd);
+            });
+            if (sliceCount == null) {
+                // The days of the window are not checkpointed, a resumed backfill starts with them again
+                stopAt(window.end.minusDays(1));
+                return;
+            }
+            eventCount += sliceCount;
+        }
+
+        eventsProcessed.addAndGet(eventCount);
+        windowsProcessed.incrementAndGet();
+        if (catalog != null) {
+            try {
+                // Commits the files written for the window before the window is checkpointed
+                catalog.record(window.start, window.end, eventCount);
+            } catch (IOException e) {
+                System.out.println("Unable to checkpoint " + window.start + " - " + window.end + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Function to run an attempt, retrying transient failures with backoff; returns null after a
+    // permanent failure (or too many retries), which is reported against day. A response cut short
+    // while its body is parsed is a transient failure like any other network error.
+    private <T> T withRetries(LocalDate day, Attempt<T> attempt) throws InterruptedException {
+        long backoffMillis = initialBackoffMillis;
+        for (int retry = 0; ; retry++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            IOException failure;
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = HttpFetcher.bodyReadFailure(e);
+                if (failure == null) {
+                    // Not a fetch failure, still stop at the day rather than leave a hole behind a dead worker
+                    System.out.println("Unexpected error (" + e + "), stopping at: " + day);
+                    if (metrics != null) {
+                        metrics.failure();
+                    }
+                    return null;
+                }
+            }
+            if (!isTransient(failure) || retry >= maxRetries) {
+                System.out.println("Error encountered (" + failure.getMessage() + "), stopping at: " + day);
+                if (metrics != null) {
+                    metrics.failure();
+                }
+                return null;
+            }
+            retries.incrementAndGet();
+            if (metrics != null) {
+                metrics.retry();
+            }
+            // Jitter keeps workers that failed together from retrying together
+            long sleepMillis = ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1);
+            System.out.println("Transient error for " + day + " (" + failure.getMessage() + "), retrying in " + sleepMillis + " ms");
+            Thread.sleep(sleepMillis);
+            backoffMillis = Math.min(backoffMillis * 2, 60_000);
+        }
+    }
+
+    // Function to classify an IOException: HTTP 429/5xx and network failures are worth retrying
+    private static boolean isTransient(IOException e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).isTransient();
+        }
+        return !(e instanceof FileNotFoundException);
+    }
+}
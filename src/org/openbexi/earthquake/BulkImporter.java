@@ -0,0 +1,211 @@
+package org.openbexi.earthquake;
+
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openbexi.common.EventArchive;
+import org.openbexi.common.IngestMetrics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Imports local catalog dumps (GeoJSON .json / .geojson files, and .7z archives of them) on a
+// fork-join pool. Every file is a task that streams its features off the disk (or out of the 7z
+// entries, decoded on the fly) and cuts them into chunks; each chunk is forked as a subtask that
+// converts it and merges it into the hourly files, so a worker that is done with its files steals
+// the chunks of a large one. At most maxPendingChunks chunks of a file are in flight, the parsing
+// task helps with the oldest one beyond that. The largest files are started first. A file that
+// cannot be read is reported and skipped, the other files are imported; the chunks of it read
+// before the failure stay merged, so it is imported again once fixed (a merge keeps the newest
+// version of every event, importing a file twice changes nothing).
+class BulkImporter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Cuts a stream of features into chunks, in the order they are read
+    interface Chunker {
+        void split(Reader reader, Consumer<List<JSONObject>> chunks);
+    }
+
+    // Converts and saves one chunk
+    interface ChunkTask {
+        void process(List<JSONObject> chunk) throws IOException;
+    }
+
+    private final int parallelism;
+    private final int maxPendingChunks;
+    private final IngestMetrics metrics;
+
+    private final AtomicLong featuresRead = new AtomicLong();
+    private final AtomicInteger filesImported = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+
+    BulkImporter(int parallelism, int maxPendingChunks, IngestMetrics metrics) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.maxPendingChunks = maxPendingChunks;
+        this.metrics = metrics;
+    }
+
+    // Function to list the files to import: a file, the .json / .geojson / .7z files under a
+    // directory, or the ones matching a glob such as dumps/2024-*/*.geojson
+    static List<File> listFiles(String pathOrGlob) throws IOException {
+        File file = new File(pathOrGlob);
+        if (file.isFile()) {
+            return List.of(file);
+        }
+
+        Path base;
+        PathMatcher matcher;
+        if (file.isDirectory()) {
+            base = file.toPath();
+            matcher = path -> true;
+        } else {
+            // Walk from the deepest directory that does not contain a wildcard
+            int wildcard = indexOfWildcard(pathOrGlob);
+            if (wildcard < 0) {
+                throw new FileNotFoundException("The file " + pathOrGlob + " does not exist.");
+            }
+            int separator = pathOrGlob.lastIndexOf(File.separatorChar, wildcard);
+            base = Path.of(separator < 0 ? "." : separator == 0 ? File.separator : pathOrGlob.substring(0, separator));
+            PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + pathOrGlob);
+            matcher = separator < 0 ? path -> glob.matches(base.relativize(path)) : glob;
+        }
+
+        List<File> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> isImportable(path.getFileName().toString()))
+                    .filter(matcher::matches)
+                    .forEach(path -> files.add(path.toFile()));
+        }
+        return files;
+    }
+
+    // Function to import the files, returns the number of features read
+    long run(List<File> files, Chunker chunker, ChunkTask task) {
+        List<File> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparingLong(File::length).reversed());
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<?>> fileTasks = new ArrayList<>();
+            for (File file : ordered) {
+                fileTasks.add(pool.submit(() -> importFile(file, chunker, task)));
+            }
+            for (ForkJoinTask<?> fileTask : fileTasks) {
+                fileTask.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.printf("%d files imported (%d failed), %d features in %.1f s with %d workers.%n",
+                filesImported.get(), filesFailed.get(), featuresRead.get(), (System.nanoTime() - start) / 1e9, parallelism);
+        return featuresRead.get();
+    }
+
+    private void importFile(File file, Chunker chunker, ChunkTask task) {
+        Deque<ForkJoinTask<?>> pending = new ArrayDeque<>();
+        try {
+            if (file.getName().endsWith(".7z")) {
+                try (SevenZFile sevenZFile = new SevenZFile(file)) {
+                    SevenZArchiveEntry entry;
+                    while ((entry = sevenZFile.getNextEntry()) != null) {
+                        if (!entry.isDirectory() && isJson(entry.getName())) {
+                            importStream(EventArchive.entryStream(sevenZFile), chunker, task, pending);
+                        }
+                    }
+                }
+            } else {
+                try (InputStream in = new FileInputStream(file)) {
+                    importStream(in, chunker, task, pending);
+                }
+            }
+            while (!pending.isEmpty()) {
+                pending.removeFirst().join();
+            }
+            filesImported.incrementAndGet();
+        } catch (IOException | JSONException | UncheckedIOException e) {
+            // Chunks of the file already forked are still saved, the file can be imported again
+            while (!pending.isEmpty()) {
+                pending.removeFirst().quietlyJoin();
+            }
+            filesFailed.incrementAndGet();
+            if (metrics != null) {
+                metrics.failure();
+            }
+            System.out.println("Unable to import " + file + " (partly merged, import it again): " + e.getMessage());
+        }
+    }
+
+    private void importStream(InputStream in, Chunker chunker, ChunkTask task, Deque<ForkJoinTask<?>> pending) {
+        Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        chunker.split(reader, chunk -> {
+            featuresRead.addAndGet(chunk.size());
+            if (pending.size() >= maxPendingChunks) {
+                // Runs other tasks while waiting, so the parsing thread is never idle
+                pending.removeFirst().join();
+            }
+            pending.addLast(new ChunkAction(chunk, task).fork());
+        });
+    }
+
+    private static final class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<JSONObject> chunk;
+        private final ChunkTask task;
+
+        ChunkAction(List<JSONObject> chunk, ChunkTask task) {
+            this.chunk = chunk;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                task.process(chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static boolean isImportable(String name) {
+        return isJson(name) || name.endsWith(".7z");
+    }
+
+    private static boolean isJson(String name) {
+        return name.endsWith(".json") || name.endsWith(".geojson");
+    }
+
+    private static int indexOfWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[{".indexOf(glob.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
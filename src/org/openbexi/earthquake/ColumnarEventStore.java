@@ -0,0 +1,413 @@
+package org.openbexi.earthquake;
+
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+
+// Binary, append-only column store written next to the hourly JSON files. Events are split into
+// one segment directory per UTC month (<root>/columnar/yyyy_MM/) holding one little-endian,
+// fixed-width file per column; net, magType and status are dictionary encoded into u16 ids shared
+// by all segments (<root>/columnar/<column>.dict, one value per line, id 0 meaning absent), a new
+// value getting its id under a lock on the dictionary file.
+// A revised event is appended again with its newer "updated" time, readers that need a single row
+// per event keep the highest updated per key. Segments are read through memory-mapped channels,
+// only the rows present in every column are exposed so a torn append after a crash is ignored;
+// writers cut the columns back to those rows under a file lock on the segment before appending.
+class ColumnarEventStore implements Closeable {
+
+    enum Column {
+        TIME("time.i64", 8),
+        UPDATED("updated.i64", 8),
+        KEY("key.i64", 8),
+        MAG("mag.f32", 4),
+        LAT("lat.f64", 8),
+        LON("lon.f64", 8),
+        DEPTH("depth.f32", 4),
+        SIG("sig.i32", 4),
+        NET("net.u16", 2),
+        MAG_TYPE("magType.u16", 2),
+        STATUS("status.u16", 2);
+
+        final String fileName;
+        final int width;
+
+        Column(String fileName, int width) {
+            this.fileName = fileName;
+            this.width = width;
+        }
+    }
+
+    private static final int BUFFERED_ROWS = 4096;
+    private static final int MAX_OPEN_SEGMENTS = 4;
+    // Taken by the writers of a segment, in its directory
+    private static final String LOCK_FILE_NAME = "segment.lock";
+    private static final long MILLIS_PER_DAY = 24 * 3_600_000L;
+
+    private final File dir;
+    private final Dictionary netDictionary;
+    private final Dictionary magTypeDictionary;
+    private final Dictionary statusDictionary;
+    // Backfills walk months one after the other, only the most recent segments stay open
+    private final LinkedHashMap<YearMonth, SegmentWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+
+    ColumnarEventStore(File dir) throws IOException {
+        this.dir = dir;
+        dir.mkdirs();
+        this.netDictionary = new Dictionary(new File(dir, "net.dict"));
+        this.magTypeDictionary = new Dictionary(new File(dir, "magType.dict"));
+        this.statusDictionary = new Dictionary(new File(dir, "status.dict"));
+    }
+
+    // Function to append one converted earthquake event (as written in the hourly files)
+    void appendEvent(EarthquakeEvent event) {
+        try {
+            append(event.time, event.version(), eventKey(event), (float) event.mag,
+                    event.latitude, event.longitude, (float) event.depth, event.sig(),
+                    event.net(), event.magType(), event.status());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    synchronized void append(long time, long updated, long key, float mag, double lat, double lon, float depth, int sig,
+                             String net, String magType, String status) throws IOException {
+        SegmentWriter writer = writer(monthOf(time));
+        writer.buffers[Column.TIME.ordinal()].putLong(time);
+        writer.buffers[Column.UPDATED.ordinal()].putLong(updated);
+        writer.buffers[Column.KEY.ordinal()].putLong(key);
+        writer.buffers[Column.MAG.ordinal()].putFloat(mag);
+        writer.buffers[Column.LAT.ordinal()].putDouble(lat);
+        writer.buffers[Column.LON.ordinal()].putDouble(lon);
+        writer.buffers[Column.DEPTH.ordinal()].putFloat(depth);
+        writer.buffers[Column.SIG.ordinal()].putInt(sig);
+        writer.buffers[Column.NET.ordinal()].putShort(netDictionary.idOf(net));
+        writer.buffers[Column.MAG_TYPE.ordinal()].putShort(magTypeDictionary.idOf(magType));
+        writer.buffers[Column.STATUS.ordinal()].putShort(statusDictionary.idOf(status));
+        if (++writer.bufferedRows == BUFFERED_ROWS) {
+            writer.flush();
+        }
+    }
+
+    // Function to push every buffered row to the column files so that readers can map them
+    synchronized void flush() throws IOException {
+        for (SegmentWriter writer : writers.values()) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (SegmentWriter writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    // Function to map every segment of the store, oldest month first
+    List<Segment> openSegments() throws IOException {
+        flush();
+        List<Segment> segments = new ArrayList<>();
+        File[] segmentDirs = dir.listFiles(File::isDirectory);
+        if (segmentDirs == null) {
+            return segments;
+        }
+        Arrays.sort(segmentDirs);
+        for (File segmentDir : segmentDirs) {
+            YearMonth month;
+            try {
+                String[] parts = segmentDir.getName().split("_");
+                month = YearMonth.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            segments.add(new Segment(month, segmentDir));
+        }
+        return segments;
+    }
+
+    String netName(int id) {
+        return netDictionary.valueOf(id);
+    }
+
+    String magTypeName(int id) {
+        return magTypeDictionary.valueOf(id);
+    }
+
+    String statusName(int id) {
+        return statusDictionary.valueOf(id);
+    }
+
+    // Function to derive the key of an event: from net + code, or for an event without a code from the
+    // id it was written with (the one of its earlier versions), so codeless events never share a key
+    static long eventKey(EarthquakeEvent event) {
+        String code = event.code();
+        if (code == null || code.isEmpty()) {
+            return eventKeyHash("#id", String.valueOf(event.id()));
+        }
+        return eventKeyHash(event.net(), code);
+    }
+
+    // Function to derive the 64-bit key of an event from net + code (FNV-1a)
+    static long eventKeyHash(String net, String code) {
+        String key = (net != null ? net : "") + (code != null ? code : "");
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static YearMonth monthOf(long epochMillis) {
+        LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(epochMillis, MILLIS_PER_DAY));
+        return YearMonth.of(date.getYear(), date.getMonthValue());
+    }
+
+    private static String segmentName(YearMonth month) {
+        return String.format("%04d_%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private SegmentWriter writer(YearMonth month) throws IOException {
+        SegmentWriter writer = writers.get(month);
+        if (writer == null) {
+            if (writers.size() >= MAX_OPEN_SEGMENTS) {
+                Iterator<SegmentWriter> eldest = writers.values().iterator();
+                eldest.next().close();
+                eldest.remove();
+            }
+            writer = new SegmentWriter(new File(dir, segmentName(month)));
+            writers.put(month, writer);
+        }
+        return writer;
+    }
+
+    private static final class SegmentWriter implements Closeable {
+        private final FileChannel lockChannel;
+        private final FileChannel[] channels = new FileChannel[Column.values().length];
+        private final ByteBuffer[] buffers = new ByteBuffer[Column.values().length];
+        private int bufferedRows;
+
+        SegmentWriter(File segmentDir) throws IOException {
+            segmentDir.mkdirs();
+            lockChannel = FileChannel.open(new File(segmentDir, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            for (Column column : Column.values()) {
+                channels[column.ordinal()] = FileChannel.open(new File(segmentDir, column.fileName).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                buffers[column.ordinal()] = ByteBuffer.allocate(BUFFERED_ROWS * column.width).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            FileLock lock = lockChannel.lock();
+            try {
+                align();
+            } finally {
+                lock.release();
+            }
+        }
+
+        // Function to cut every column back to the rows complete in all of them and return their
+        // number: a flush torn by a crash leaves some columns longer than the others, and rows
+        // appended after it would be paired with the wrong ones for good
+        private long align() throws IOException {
+            long rows = Long.MAX_VALUE;
+            for (Column column : Column.values()) {
+                rows = Math.min(rows, channels[column.ordinal()].size() / column.width);
+            }
+            for (Column column : Column.values()) {
+                FileChannel channel = channels[column.ordinal()];
+                if (channel.size() != rows * column.width) {
+                    channel.truncate(rows * column.width);
+                }
+            }
+            return rows;
+        }
+
+        // The segment lock is only held while the rows are written, so another process (the
+        // daemon and a command line run) appends whole flushes in turn instead of waiting for close
+        void flush() throws IOException {
+            if (bufferedRows == 0) {
+                return;
+            }
+            FileLock lock = lockChannel.lock();
+            try {
+                long rows = align();
+                for (Column column : Column.values()) {
+                    ByteBuffer buffer = buffers[column.ordinal()];
+                    buffer.flip();
+                    long position = rows * column.width;
+                    while (buffer.hasRemaining()) {
+                        position += channels[column.ordinal()].write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            } finally {
+                lock.release();
+            }
+            bufferedRows = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                for (FileChannel channel : channels) {
+                    channel.close();
+                }
+                lockChannel.close();
+            }
+        }
+    }
+
+    // Read-only, memory-mapped view of one month
+    static final class Segment {
+        final YearMonth month;
+        final int rows;
+        final LongBuffer time;
+        final LongBuffer updated;
+        final LongBuffer key;
+        final FloatBuffer mag;
+        final DoubleBuffer lat;
+        final DoubleBuffer lon;
+        final FloatBuffer depth;
+        final IntBuffer sig;
+        final ShortBuffer net;
+        final ShortBuffer magType;
+        final ShortBuffer status;
+
+        Segment(YearMonth month, File segmentDir) throws IOException {
+            this.month = month;
+            long rowCount = Long.MAX_VALUE;
+            for (Column column : Column.values()) {
+                rowCount = Math.min(rowCount, new File(segmentDir, column.fileName).length() / column.width);
+            }
+            this.rows = (int) rowCount;
+            this.time = map(segmentDir, Column.TIME, rows).asLongBuffer();
+            this.updated = map(segmentDir, Column.UPDATED, rows).asLongBuffer();
+            this.key = map(segmentDir, Column.KEY, rows).asLongBuffer();
+            this.mag = map(segmentDir, Column.MAG, rows).asFloatBuffer();
+            this.lat = map(segmentDir, Column.LAT, rows).asDoubleBuffer();
+            this.lon = map(segmentDir, Column.LON, rows).asDoubleBuffer();
+            this.depth = map(segmentDir, Column.DEPTH, rows).asFloatBuffer();
+            this.sig = map(segmentDir, Column.SIG, rows).asIntBuffer();
+            this.net = map(segmentDir, Column.NET, rows).asShortBuffer();
+            this.magType = map(segmentDir, Column.MAG_TYPE, rows).asShortBuffer();
+            this.status = map(segmentDir, Column.STATUS, rows).asShortBuffer();
+        }
+
+        private static ByteBuffer map(File segmentDir, Column column, int rows) throws IOException {
+            try (FileChannel channel = FileChannel.open(new File(segmentDir, column.fileName).toPath(), StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) rows * column.width).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    // Append-only value <-> u16 id table, id 0 is reserved for absent values. The daemon and a command
+    // line run may append to the same store: a new value only gets its id under a lock on the file,
+    // once the values the other processes appended were read, so an id always stands for one value.
+    // A value is kept on one line, its line breaks becoming spaces, in the file and in memory alike.
+    private static final class Dictionary {
+        private final File file;
+        private final Map<String, Short> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        // Length of the complete lines read so far
+        private long readBytes;
+
+        Dictionary(File file) throws IOException {
+            this.file = file;
+            values.add(null);
+            if (file.isFile()) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    readTail(channel);
+                }
+            }
+        }
+
+        synchronized short idOf(String value) throws IOException {
+            if (value == null || value.isEmpty()) {
+                return 0;
+            }
+            String line = value.replace('\n', ' ').replace('\r', ' ');
+            Short id = ids.get(line);
+            if (id != null) {
+                return id;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    readTail(channel);
+                    id = ids.get(line);
+                    if (id != null) {
+                        return id;
+                    }
+                    if (values.size() > 0xFFFF) {
+                        throw new IOException("Dictionary " + file + " is full");
+                    }
+                    // Over a line torn by a crash, if any: only complete lines were read
+                    channel.truncate(readBytes);
+                    ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    while (bytes.hasRemaining()) {
+                        readBytes += channel.write(bytes, readBytes);
+                    }
+                    return add(line);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        synchronized String valueOf(int id) {
+            int index = id & 0xFFFF;
+            if (index >= values.size() && file.isFile()) {
+                // Appended by another process since the file was read
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    readTail(channel);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+            return index < values.size() ? values.get(index) : null;
+        }
+
+        // Function to read the complete lines appended after the ones already read
+        private void readTail(FileChannel channel) throws IOException {
+            long size = channel.size();
+            if (size <= readBytes) {
+                return;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - readBytes));
+            while (tail.hasRemaining() && channel.read(tail, readBytes + tail.position()) >= 0) {
+                // Until the end of the file
+            }
+            byte[] bytes = tail.array();
+            int lineStart = 0;
+            for (int i = 0; i < tail.position(); i++) {
+                if (bytes[i] == '\n') {
+                    add(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                    lineStart = i + 1;
+                }
+            }
+            readBytes += lineStart;
+        }
+
+        private short add(String line) {
+            short id = (short) values.size();
+            ids.put(line, id);
+            values.add(line);
+            return id;
+        }
+    }
+}
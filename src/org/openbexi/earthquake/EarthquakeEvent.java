@@ -0,0 +1,308 @@
+package org.openbexi.earthquake;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openbexi.common.EventJsonWriter;
+import org.openbexi.common.EventRecord;
+import org.openbexi.common.JsonKeyOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// An earthquake event of the hourly files, converted from a GeoJSON feature. The values computed by
+// the converter are primitives (NaN for a number left out of the file); the other properties are
+// kept as parsed (String, Integer, BigDecimal or JSONObject.NULL for a JSON null, null when absent)
+// and written back unchanged. writeJson produces the exact bytes of the JSONObject this class
+// replaces: the keys are listed in the order that JSONObject would have (see JsonKeyOrder).
+final class EarthquakeEvent implements EventRecord {
+
+    private static final JsonKeyOrder EVENT_KEYS = new JsonKeyOrder("id", "start", "end", "namespace", "data", "render");
+    private static final int ID = 0, START = 1, END = 2, NAMESPACE = 3, DATA = 4;
+
+    // Keys of "data" in the order the converter has always put them
+    private static final JsonKeyOrder DATA_KEYS = new JsonKeyOrder("description", "title", "mag", "place", "time",
+            "updated", "tz", "url", "detail", "felt", "cdi", "mmi", "alert", "status", "tsunami", "sig", "net", "code",
+            "ids", "sources", "types", "nst", "dmin", "rms", "gap", "magType", "type", "longitude", "latitude", "depth");
+    private static final int DESCRIPTION = 0, TITLE = 1, MAG = 2, PLACE = 3, TIME = 4, UPDATED = 5, TZ = 6, URL = 7,
+            DETAIL = 8, FELT = 9, CDI = 10, MMI = 11, ALERT = 12, STATUS = 13, TSUNAMI = 14, SIG = 15, NET = 16, CODE = 17,
+            IDS = 18, SOURCES = 19, TYPES = 20, NST = 21, DMIN = 22, RMS = 23, GAP = 24, MAG_TYPE = 25, TYPE = 26,
+            LONGITUDE = 27, LATITUDE = 28, DEPTH = 29;
+
+    private static final JsonKeyOrder RENDER_KEYS = new JsonKeyOrder("image", "color");
+    private static final String COLOR = "#731616";
+
+    // The id written, a UUID or the id already on disk for this event
+    private Object id;
+    // Derived from net + code, null for an event without a code
+    final UUID stableId;
+    final String start;
+    final long time;
+    final double mag;
+    final double dmin;
+    final double rms;
+    final double longitude;
+    final double latitude;
+    final double depth;
+    final String image;
+
+    private final Object title, place, updated, tz, url, detail, felt, cdi, mmi, alert, status, tsunami, sig, net, code,
+            ids, sources, types, nst, gap, magType, type;
+
+    EarthquakeEvent(UUID stableId, JSONObject properties, JSONObject geometry, long time, String start) {
+        this.id = stableId != null ? stableId : UUID.randomUUID();
+        this.stableId = stableId;
+        this.start = start;
+        this.time = time;
+
+        title = properties.opt("title");
+        mag = finite(properties.optDouble("mag"));
+        place = properties.opt("place");
+        updated = properties.opt("updated");
+        tz = properties.opt("tz");
+        url = properties.opt("url");
+        detail = properties.opt("detail");
+        felt = properties.opt("felt");
+        cdi = properties.opt("cdi");
+        mmi = properties.opt("mmi");
+        alert = properties.opt("alert");
+        status = properties.opt("status");
+        tsunami = properties.opt("tsunami");
+        sig = properties.opt("sig");
+        net = properties.opt("net");
+        code = properties.opt("code");
+        ids = properties.opt("ids");
+        sources = properties.opt("sources");
+        types = properties.opt("types");
+        nst = properties.opt("nst");
+        dmin = finite(properties.optDouble("dmin"));
+        rms = finite(properties.optDouble("rms"));
+        gap = properties.opt("gap");
+        magType = properties.opt("magType");
+        type = properties.opt("type");
+
+        // GeoJSON point: [longitude, latitude, depth in km]
+        JSONArray coordinates = geometry != null ? geometry.optJSONArray("coordinates") : null;
+        if (coordinates != null && coordinates.length() >= 3) {
+            longitude = finite(coordinates.optDouble(0));
+            latitude = finite(coordinates.optDouble(1));
+            depth = finite(coordinates.optDouble(2));
+        } else {
+            longitude = Double.NaN;
+            latitude = Double.NaN;
+            depth = Double.NaN;
+        }
+
+        // Determine the icon based on the magnitude
+        image = EarthquakeJsonConverter.determineIconPath(mag);
+    }
+
+    // Function to list the keys identifying the event: every USGS id it is known by, plus net + code
+    @Override
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        for (String usgsId : text(ids, "").split(",")) {
+            if (!usgsId.isEmpty()) {
+                keys.add(usgsId);
+            }
+        }
+        String codeText = text(code, "");
+        if (!codeText.isEmpty()) {
+            keys.add(text(net, "") + codeText);
+        }
+        return keys;
+    }
+
+    // The "updated" time, a revision of the event has a newer one
+    @Override
+    public long version() {
+        return number(updated, 0);
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void setId(Object id) {
+        this.id = id;
+    }
+
+    @Override
+    public Object dataValue(String key) {
+        int field = DATA_KEYS.indexOf(key);
+        if (field < 0 || !isPresent(field)) {
+            return null;
+        }
+        return switch (field) {
+            case DESCRIPTION -> "description_" + time + " Session_" + time;
+            case TIME -> time;
+            case MAG -> mag;
+            case DMIN -> dmin;
+            case RMS -> rms;
+            case LONGITUDE -> longitude;
+            case LATITUDE -> latitude;
+            case DEPTH -> depth;
+            default -> passThrough(field);
+        };
+    }
+
+    int sig() {
+        return (int) number(sig, 0);
+    }
+
+    String net() {
+        return text(net, null);
+    }
+
+    String code() {
+        return text(code, null);
+    }
+
+    String magType() {
+        return text(magType, null);
+    }
+
+    String status() {
+        return text(status, null);
+    }
+
+    @Override
+    public void writeJson(EventJsonWriter writer) throws IOException {
+        writer.beginObject(6);
+        for (int key : EVENT_KEYS.order(6)) {
+            writer.name(EVENT_KEYS.key(key));
+            switch (key) {
+                case ID -> {
+                    if (id instanceof UUID) {
+                        writer.value((UUID) id);
+                    } else {
+                        writer.value(id);
+                    }
+                }
+                case START -> writer.value(start);
+                case END -> writer.value("");
+                case NAMESPACE -> writer.value("earthquake");
+                case DATA -> writeData(writer);
+                default -> writeRender(writer);
+            }
+        }
+        writer.endObject();
+    }
+
+    private void writeData(EventJsonWriter writer) throws IOException {
+        int size = 0;
+        for (int field = 0; field <= DEPTH; field++) {
+            if (isPresent(field)) {
+                size++;
+            }
+        }
+        writer.beginObject(size);
+        for (int field : DATA_KEYS.order(size)) {
+            if (isPresent(field)) {
+                writer.name(DATA_KEYS.key(field));
+                writeField(field, writer);
+            }
+        }
+        writer.endObject();
+    }
+
+    private void writeRender(EventJsonWriter writer) throws IOException {
+        writer.beginObject(2);
+        for (int key : RENDER_KEYS.order(2)) {
+            writer.name(RENDER_KEYS.key(key));
+            writer.value(key == 0 ? image : COLOR);
+        }
+        writer.endObject();
+    }
+
+    private boolean isPresent(int field) {
+        return switch (field) {
+            case DESCRIPTION, TIME -> true;
+            case MAG -> !Double.isNaN(mag);
+            case DMIN -> !Double.isNaN(dmin);
+            case RMS -> !Double.isNaN(rms);
+            case LONGITUDE -> !Double.isNaN(longitude);
+            case LATITUDE -> !Double.isNaN(latitude);
+            case DEPTH -> !Double.isNaN(depth);
+            default -> passThrough(field) != null;
+        };
+    }
+
+    private void writeField(int field, EventJsonWriter writer) throws IOException {
+        switch (field) {
+            case DESCRIPTION -> {
+                writer.beginString();
+                writer.stringPart("description_");
+                writer.stringPart(time);
+                writer.stringPart(" Session_");
+                writer.stringPart(time);
+                writer.endString();
+            }
+            case TIME -> writer.value(time);
+            case MAG -> writer.value(mag);
+            case DMIN -> writer.value(dmin);
+            case RMS -> writer.value(rms);
+            case LONGITUDE -> writer.value(longitude);
+            case LATITUDE -> writer.value(latitude);
+            case DEPTH -> writer.value(depth);
+            default -> writer.value(passThrough(field));
+        }
+    }
+
+    private Object passThrough(int field) {
+        return switch (field) {
+            case TITLE -> title;
+            case PLACE -> place;
+            case UPDATED -> updated;
+            case TZ -> tz;
+            case URL -> url;
+            case DETAIL -> detail;
+            case FELT -> felt;
+            case CDI -> cdi;
+            case MMI -> mmi;
+            case ALERT -> alert;
+            case STATUS -> status;
+            case TSUNAMI -> tsunami;
+            case SIG -> sig;
+            case NET -> net;
+            case CODE -> code;
+            case IDS -> ids;
+            case SOURCES -> sources;
+            case TYPES -> types;
+            case NST -> nst;
+            case GAP -> gap;
+            case MAG_TYPE -> magType;
+            case TYPE -> type;
+            default -> throw new IllegalArgumentException("Not a property: " + DATA_KEYS.key(field));
+        };
+    }
+
+    // Non-finite numbers are left out of the file
+    private static double finite(double value) {
+        return Double.isInfinite(value) ? Double.NaN : value;
+    }
+
+    // Same as JSONObject.optString on a parsed value
+    private static String text(Object value, String defaultValue) {
+        return value == null || JSONObject.NULL.equals(value) ? defaultValue : value.toString();
+    }
+
+    // Same as JSONObject.optLong on a parsed value
+    private static long number(Object value, long defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return new BigDecimal((String) value).longValue();
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,695 @@
+package org.openbexi.earthquake;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openbexi.common.AtomicFileWriter;
+import org.openbexi.common.EventArchive;
+import org.openbexi.common.EventBatch;
+import org.openbexi.common.EventFileMerger;
+import org.openbexi.common.HttpFetcher;
+import org.openbexi.common.IngestCatalog;
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.JsonStreamReader;
+import org.openbexi.common.PartitionRollups;
+import org.openbexi.common.PartitionedSink;
+import org.openbexi.common.RateLimiter;
+import org.openbexi.common.SeenEventIndex;
+import org.openbexi.common.StagedPipeline;
+import org.openbexi.common.TimePartitioner;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class EarthquakeJsonConverter {
+
+    // FDSN event service, can be pointed at a local stub with -Dopenbexi.earthquake.url=http://localhost:8080/
+    private static final String FDSN_BASE_URL = System.getProperty("openbexi.earthquake.url", "https://earthquake.usgs.gov/fdsnws/event/1/");
+
+    // Defaults for the -all backfill
+    private static final int DEFAULT_BACKFILL_WORKERS = 4;
+    private static final double DEFAULT_BACKFILL_REQUESTS_PER_SECOND = 2;
+    private static final int BACKFILL_MAX_RETRIES = 5;
+    private static final long BACKFILL_INITIAL_BACKOFF_MILLIS = 2000;
+    // Backfill windows are sized from the count endpoint to about 10000 events, never above the
+    // 20000 results a USGS query returns at most; quiet days merge into windows of up to a month
+    // and a busy day is cut into slices of at least a minute
+    private static final long BACKFILL_TARGET_EVENTS = 10000;
+    private static final long FDSN_MAX_EVENTS = 20000;
+    private static final int BACKFILL_MAX_WINDOW_DAYS = 31;
+    private static final Duration BACKFILL_MIN_SLICE = Duration.ofMinutes(1);
+    // One file per hour: /data/earthquake/yyyy/MM/dd/earthquake_yyyy_MM_dd_HH.json
+    private static final TimePartitioner PARTITIONER = new TimePartitioner("earthquake", true);
+    // Checkpoints of the fetched windows; a day fetched less than 2 days after it ended is fetched again
+    private static final String INGEST_CATALOG_PATH = PARTITIONER.getRootPath() + "ingest_catalog.log";
+    private static final Duration INGEST_SETTLE_TIME = Duration.ofDays(2);
+    // High-water mark and validators of the -poll mode, the first poll looks back as far as the default run
+    private static final String POLL_STATE_PATH = PARTITIONER.getRootPath() + "poll_state.properties";
+    private static final Duration POLL_INITIAL_LOOKBACK = Duration.ofDays(2);
+    private static final long DEFAULT_POLL_INTERVAL_SECONDS = 60;
+    // Ingest pipeline: features are converted in chunks of one hour (at most 4096 features), a few
+    // chunks or batches wait in front of each stage
+    private static final int PIPELINE_CHUNK_SIZE = 4096;
+    private static final int PIPELINE_QUEUE_CAPACITY = 8;
+    private static final int PIPELINE_CONVERT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int PIPELINE_WRITE_WORKERS = 4;
+
+    // Heap taken by a converted event waiting for its hourly file, for the memory budget of a poll
+    private static final long SINK_EVENT_BYTES = 2048;
+    // -import: files (and chunks of the large ones) are spread over one worker per core
+    private static final int DEFAULT_IMPORT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    // Counters and stage latencies of every mode, summarized periodically instead of one line per file
+    private static final IngestMetrics METRICS = IngestMetrics.forNamespace("earthquake");
+
+    // Hour, day and month summaries for the zoomed-out timeline, kept up to date as the hourly files are written
+    private static final PartitionRollups ROLLUPS = new PartitionRollups(PARTITIONER.getRootPath(), "earthquake");
+
+    // Hourly files are merged on write: an event already on disk is matched through its USGS ids
+    // (or net + code) and only replaced when the incoming copy has a newer "updated" time
+    private static final EventFileMerger FILE_MERGER = new EventFileMerger(EarthquakeJsonConverter::eventKeys,
+            event -> event.getJSONObject("data").optLong("updated", 0), METRICS, ROLLUPS);
+
+    // Every event added or revised in the hourly files is also appended to the column store
+    private static final String COLUMNAR_STORE_PATH = PARTITIONER.getRootPath() + "columnar";
+    private static ColumnarEventStore columnarStore;
+    // Events already merged and the "updated" time they were merged at, an event coming back from an
+    // overlapping window or a later poll without a newer version is dropped before it is converted
+    private static final String SEEN_INDEX_PATH = PARTITIONER.getRootPath() + "seen_events.idx";
+    private static SeenEventIndex seenIndex;
+    // In-process consumers of the added or revised events, e.g. the query engine
+    private static final List<Consumer<EarthquakeEvent>> EVENT_LISTENERS = new CopyOnWriteArrayList<>();
+    // Loaded by the first -query of the JVM, then kept up to date as events are written, so the
+    // queries of a resident JVM (see IngestDaemon) do not read the column store again
+    private static EarthquakeQueryEngine queryEngine;
+
+    public static void main(String[] args) {
+        Map<String, String> parsedArgs = parseArgs(args);
+        if (parsedArgs == null) {
+            printUsageAndExit();
+        }
+
+        IngestMetrics.startReporting();
+        try {
+            runJob(parsedArgs);
+            System.out.println("All events processed and saved to respective files.");
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        } finally {
+            shutdown();
+            IngestMetrics.stopReporting();
+        }
+    }
+
+    // Function to run one job in a resident JVM (see IngestDaemon), with the arguments of the command
+    // line: the stores stay open for the next run, what was written is flushed and committed on return
+    public static void runJob(String... args) throws Exception {
+        Map<String, String> parsedArgs = parseArgs(args);
+        if (parsedArgs == null) {
+            throw new IllegalArgumentException("Invalid earthquake job arguments: " + String.join(" ", args));
+        }
+        if (parsedArgs.containsKey("poll") && Long.parseLong(parsedArgs.get("poll")) != 0) {
+            throw new IllegalArgumentException("A scheduled earthquake job polls once, use -poll 0");
+        }
+        runJob(parsedArgs);
+        checkpoint();
+    }
+
+    private static void runJob(Map<String, String> parsedArgs) throws Exception {
+        if (parsedArgs.containsKey("all")) {
+            processAllDays(parsedArgs);
+        } else if (parsedArgs.containsKey("archive")) {
+            archiveClosedPeriods(parsedArgs);
+        } else if (parsedArgs.containsKey("query")) {
+            runQuery(parsedArgs);
+        } else if (parsedArgs.containsKey("poll")) {
+            pollForUpdates(parsedArgs);
+        } else if (parsedArgs.containsKey("import")) {
+            bulkImport(parsedArgs);
+        } else {
+            try (Reader jsonInput = openJsonInput(parsedArgs)) {
+                ingest(jsonInput);
+            }
+        }
+    }
+
+    // Function to close the stores and commit the last files written, once no job runs anymore
+    public static void shutdown() {
+        closeColumnarStore();
+        closeSeenIndex();
+        flushRollups();
+        closeFileWriter();
+    }
+
+    // Function to parse the command line, null if it is not a valid one
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> parsedArgs = new HashMap<>();
+
+        if (args.length == 0) {
+            // Default case: no arguments, use URL with current date range
+            Date endDate = new Date();
+            Date startDate = new Date(endDate.getTime() - (2 * 24 * 60 * 60 * 1000)); // Current date - 2 days
+            parsedArgs.put("starttime", formatDate(startDate));
+            parsedArgs.put("endtime", formatDate(endDate));
+        } else if (args.length == 2 && "-jsonFilePath".equals(args[0])) {
+            parsedArgs.put("jsonFilePath", args[1]);
+        } else if (args.length == 3 && "-url".equals(args[0])) {
+            parsedArgs.put("starttime", args[1]);
+            parsedArgs.put("endtime", args[2]);
+        } else if (args.length == 2 && "-url".equals(args[0]) && "default".equals(args[1])) {
+            Date endDate = new Date();
+            Date startDate = new Date(endDate.getTime() - (2 * 24 * 60 * 60 * 1000)); // Current date - 2 days
+            parsedArgs.put("starttime", formatDate(startDate));
+            parsedArgs.put("endtime", formatDate(endDate));
+        } else if (args.length == 1 && "-all".equals(args[0])) {
+            parsedArgs.put("all", "true");
+        } else if ((args.length == 3 || args.length == 4) && "-all".equals(args[0])) {
+            parsedArgs.put("all", "true");
+            parsedArgs.put("workers", args[1]);
+            parsedArgs.put("requestsPerSecond", args[2]);
+            if (args.length == 4) {
+                parsedArgs.put("oldestDay", args[3]);
+            }
+        } else if (args.length == 3 && "-archive".equals(args[0]) && ("day".equals(args[1]) || "month".equals(args[1]))) {
+            parsedArgs.put("archive", args[1]);
+            parsedArgs.put("olderThanDays", args[2]);
+        } else if ((args.length == 2 || args.length == 3) && "-import".equals(args[0])) {
+            parsedArgs.put("import", args[1]);
+            if (args.length == 3) {
+                parsedArgs.put("parallelism", args[2]);
+            }
+        } else if ((args.length == 1 || args.length == 2) && "-poll".equals(args[0])) {
+            parsedArgs.put("poll", args.length == 2 ? args[1] : String.valueOf(DEFAULT_POLL_INTERVAL_SECONDS));
+        } else if ((args.length == 5 || args.length == 9) && "-query".equals(args[0])) {
+            parsedArgs.put("query", "true");
+            parsedArgs.put("from", args[1]);
+            parsedArgs.put("to", args[2]);
+            parsedArgs.put("minMag", args[3]);
+            parsedArgs.put("maxMag", args[4]);
+            if (args.length == 9) {
+                parsedArgs.put("minLat", args[5]);
+                parsedArgs.put("maxLat", args[6]);
+                parsedArgs.put("minLon", args[7]);
+                parsedArgs.put("maxLon", args[8]);
+            }
+        } else {
+            return null;
+        }
+
+        return parsedArgs;
+    }
+
+    private static Reader openJsonInput(Map<String, String> parsedArgs) throws IOException {
+        if (parsedArgs.containsKey("jsonFilePath")) {
+            // Use existing code to read from jsonFilePath
+            String jsonFilePath = parsedArgs.get("jsonFilePath");
+            File jsonFile = new File(jsonFilePath);
+            if (!jsonFile.exists()) {
+                throw new FileNotFoundException("The file " + jsonFilePath + " does not exist.");
+            }
+            return new BufferedReader(new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8));
+        } else {
+            // Fetch JSON data from the URL
+            String starttime = parsedArgs.get("starttime");
+            String endtime = parsedArgs.get("endtime");
+            String urlString = FDSN_BASE_URL + "query?format=geojson&" + starttime + "&" + endtime;
+            return openJsonStream(urlString);
+        }
+    }
+
+    // Function to backfill day by day from today into the past with concurrent, rate-limited workers,
+    // until an error that is not worth retrying occurs (or the optional oldest day is reached)
+    private static void processAllDays(Map<String, String> parsedArgs) throws InterruptedException, IOException {
+        int workers = Integer.parseInt(parsedArgs.getOrDefault("workers", String.valueOf(DEFAULT_BACKFILL_WORKERS)));
+        double requestsPerSecond = Double.parseDouble(parsedArgs.getOrDefault("requestsPerSecond", String.valueOf(DEFAULT_BACKFILL_REQUESTS_PER_SECOND)));
+        LocalDate oldestDay = parsedArgs.containsKey("oldestDay") ? LocalDate.parse(parsedArgs.get("oldestDay")) : null;
+
+        RateLimiter rateLimiter = new RateLimiter(requestsPerSecond, 1);
+        IngestCatalog catalog = new IngestCatalog(new File(INGEST_CATALOG_PATH), INGEST_SETTLE_TIME, AtomicFileWriter.shared());
+        try {
+            WindowPlanner planner = new WindowPlanner(EarthquakeJsonConverter::countEvents, rateLimiter,
+                    BACKFILL_TARGET_EVENTS, FDSN_MAX_EVENTS, BACKFILL_MAX_WINDOW_DAYS, BACKFILL_MIN_SLICE);
+            BackfillEngine engine = new BackfillEngine(workers, rateLimiter, BACKFILL_MAX_RETRIES, BACKFILL_INITIAL_BACKOFF_MILLIS, catalog, METRICS, planner);
+            engine.run(LocalDate.now(ZoneOffset.UTC), oldestDay, EarthquakeJsonConverter::processWindow);
+        } finally {
+            catalog.close();
+        }
+    }
+
+    // Function to pack every closed day or month older than the given number of days into 7z bundles
+    private static void archiveClosedPeriods(Map<String, String> parsedArgs) throws IOException {
+        boolean monthly = "month".equals(parsedArgs.get("archive"));
+        LocalDate cutoff = LocalDate.now().minusDays(Long.parseLong(parsedArgs.get("olderThanDays")));
+
+        EventArchive archive = new EventArchive(PARTITIONER.getRootPath(), "earthquake", FILE_MERGER);
+        int bundles = archive.archiveBefore(cutoff, monthly);
+        System.out.println(bundles + " " + (monthly ? "monthly" : "daily") + " bundles written before " + cutoff + ".");
+    }
+
+    // Function to poll the feed for updated events until stopped (or once with a zero interval)
+    private static void pollForUpdates(Map<String, String> parsedArgs) throws IOException, InterruptedException {
+        Duration interval = Duration.ofSeconds(Long.parseLong(parsedArgs.get("poll")));
+        IncrementalPoller poller = new IncrementalPoller(HttpFetcher.shared(), METRICS, FDSN_BASE_URL, new File(POLL_STATE_PATH), POLL_INITIAL_LOOKBACK,
+                EarthquakeJsonConverter::processJson, events -> {
+                    events.finish(EarthquakeJsonConverter::saveEvents);
+                    // A daemon is stopped rather than closed, keep the column store readable between polls
+                    checkpoint();
+                });
+        poller.run(interval);
+    }
+
+    // Function to import local catalog dumps: every .json / .geojson / .7z file of a directory (or
+    // matching a glob) is streamed and merged into the hourly files by a fork-join pool
+    private static void bulkImport(Map<String, String> parsedArgs) throws IOException {
+        List<File> files = BulkImporter.listFiles(parsedArgs.get("import"));
+        if (files.isEmpty()) {
+            System.out.println("No .json, .geojson or .7z file found in: " + parsedArgs.get("import"));
+            return;
+        }
+        int parallelism = Integer.parseInt(parsedArgs.getOrDefault("parallelism", String.valueOf(DEFAULT_IMPORT_PARALLELISM)));
+
+        BulkImporter importer = new BulkImporter(parallelism, PIPELINE_QUEUE_CAPACITY, METRICS);
+        importer.run(files, (reader, chunks) -> emitFeatureChunks(reader, chunks::accept),
+                chunk -> convertFeatures(chunk, batch -> {
+                    try {
+                        saveEvents(batch.filePath, batch.events);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+    }
+
+    // Function to answer a time x magnitude x bounding box query from the query engine
+    private static void runQuery(Map<String, String> parsedArgs) throws IOException {
+        long loadStart = System.nanoTime();
+        EarthquakeQueryEngine engine = queryEngine();
+        long loadEnd = System.nanoTime();
+
+        List<EarthquakeQueryEngine.EventRow> rows = engine.query(
+                LocalDate.parse(parsedArgs.get("from")).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli(),
+                LocalDate.parse(parsedArgs.get("to")).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli(),
+                Double.parseDouble(parsedArgs.get("minMag")), Double.parseDouble(parsedArgs.get("maxMag")),
+                Double.parseDouble(parsedArgs.getOrDefault("minLat", "-90")), Double.parseDouble(parsedArgs.getOrDefault("maxLat", "90")),
+                Double.parseDouble(parsedArgs.getOrDefault("minLon", "-180")), Double.parseDouble(parsedArgs.getOrDefault("maxLon", "180")));
+        long queryEnd = System.nanoTime();
+
+        for (EarthquakeQueryEngine.EventRow row : rows) {
+            System.out.println(row.toJson());
+        }
+        System.out.printf("%d events matched out of %d (load %.1f ms, query %.3f ms).%n",
+                rows.size(), engine.size(), (loadEnd - loadStart) / 1e6, (queryEnd - loadEnd) / 1e6);
+    }
+
+    // Function to register an in-process consumer of every event added to or revised in the hourly files
+    static void addEventListener(Consumer<EarthquakeEvent> listener) {
+        EVENT_LISTENERS.add(listener);
+    }
+
+    // Function to get the query engine, loading it from the column store the first time. It listens
+    // before the columns are read: an event written meanwhile comes twice and its copy is dropped.
+    private static synchronized EarthquakeQueryEngine queryEngine() throws IOException {
+        if (queryEngine == null) {
+            EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+            Consumer<EarthquakeEvent> listener = engine::onEvent;
+            addEventListener(listener);
+            try {
+                engine.load(columnarStore());
+            } catch (IOException | RuntimeException e) {
+                EVENT_LISTENERS.remove(listener);
+                throw e;
+            }
+            queryEngine = engine;
+        }
+        return queryEngine;
+    }
+
+    // Function to fetch, convert and save the events of one [start, end) window
+    private static int processWindow(Instant start, Instant end) throws IOException {
+        String urlString = FDSN_BASE_URL + "query?format=geojson&starttime=" + IncrementalPoller.FDSN_TIME.format(start)
+                + "&endtime=" + IncrementalPoller.FDSN_TIME.format(end);
+        int eventCount;
+        try (Reader jsonInput = openJsonStream(urlString)) {
+            eventCount = ingest(jsonInput);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing " + start);
+        }
+
+        if (eventCount == 0) {
+            System.out.println("No events found for: " + start);
+        }
+        return eventCount;
+    }
+
+    // Function to ask the count endpoint how many events a [start, end) query would return
+    private static long countEvents(Instant start, Instant end) throws IOException {
+        String urlString = FDSN_BASE_URL + "count?format=geojson&starttime=" + IncrementalPoller.FDSN_TIME.format(start)
+                + "&endtime=" + IncrementalPoller.FDSN_TIME.format(end);
+        try (Reader jsonInput = openJsonStream(urlString)) {
+            return new JSONObject(new JSONTokener(jsonInput)).getLong("count");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected count response from " + urlString + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Function to run a GeoJSON input through the ingest pipeline, returns the number of events read
+    // (including the ones dropped as already seen):
+    //   fetch    reads and parses the features off the stream, cut into chunks at hour boundaries
+    //   convert  builds the events of a chunk and groups them by hourly file
+    //   write    merges each group into its file (and the column store)
+    // The stages overlap and a slow disk holds back the reading of the response.
+    private static int ingest(Reader jsonInput) throws IOException, InterruptedException {
+        AtomicInteger eventCount = new AtomicInteger();
+
+        StagedPipeline.<List<JSONObject>>source("fetch", out -> emitFeatureChunks(jsonInput, out))
+                .metrics(METRICS)
+                .<EventBatch<EarthquakeEvent>>then("convert", PIPELINE_CONVERT_WORKERS, PIPELINE_QUEUE_CAPACITY, (features, out) -> {
+                    eventCount.addAndGet(features.size());
+                    convertFeatures(features, out);
+                })
+                .into("write", PIPELINE_WRITE_WORKERS, PIPELINE_QUEUE_CAPACITY, batch -> saveEvents(batch.filePath, batch.events));
+
+        return eventCount.get();
+    }
+
+    // Feeds are ordered by time, so cutting at hour boundaries lets each hourly file be merged once.
+    // The parse time of a chunk includes the reads off the response, not the time blocked on the convert queue.
+    private static void emitFeatureChunks(Reader jsonInput, StagedPipeline.Emitter<List<JSONObject>> out) {
+        List<JSONObject> chunk = new ArrayList<>();
+        long[] chunkHour = {Long.MIN_VALUE};
+        long[] parseStart = {System.nanoTime()};
+        JsonStreamReader.forEachObject(jsonInput, "features", feature -> {
+            JSONObject properties = feature.optJSONObject("properties");
+            long hour = properties != null ? PARTITIONER.partitionKey(properties.optLong("time")) : chunkHour[0];
+            if (!chunk.isEmpty() && (hour != chunkHour[0] || chunk.size() == PIPELINE_CHUNK_SIZE)) {
+                emitChunk(new ArrayList<>(chunk), parseStart[0], out);
+                chunk.clear();
+                parseStart[0] = System.nanoTime();
+            }
+            chunkHour[0] = hour;
+            chunk.add(feature);
+        });
+        if (!chunk.isEmpty()) {
+            emitChunk(chunk, parseStart[0], out);
+        }
+    }
+
+    private static void emitChunk(List<JSONObject> chunk, long parseStart, StagedPipeline.Emitter<List<JSONObject>> out) {
+        METRICS.record(IngestMetrics.Stage.PARSE, System.nanoTime() - parseStart);
+        METRICS.addEventsRead(chunk.size());
+        out.emit(chunk);
+    }
+
+    private static void convertFeatures(List<JSONObject> features, StagedPipeline.Emitter<EventBatch<EarthquakeEvent>> out) {
+        long transformStart = System.nanoTime();
+        Map<String, List<EarthquakeEvent>> eventsByFilePath = new HashMap<>();
+        for (JSONObject feature : features) {
+            EarthquakeEvent event = convertFeature(feature);
+            if (event != null) {
+                eventsByFilePath.computeIfAbsent(PARTITIONER.resolvePath(event.time), k -> new ArrayList<>()).add(event);
+            }
+        }
+        METRICS.record(IngestMetrics.Stage.TRANSFORM, System.nanoTime() - transformStart);
+        eventsByFilePath.forEach((filePath, events) -> out.emit(new EventBatch<>(filePath, events)));
+    }
+
+    // Function to stream the features array of a GeoJSON document, one feature at a time, so the
+    // whole response is never held as a String or a JSONObject tree. The events are grouped by
+    // hourly file in a sink bounded in memory, a response of any size spilling to disk past its budget.
+    static PartitionedSink<EarthquakeEvent> processJson(Reader jsonInput) throws IOException {
+        PartitionedSink<EarthquakeEvent> eventsByFilePath = new PartitionedSink<>("earthquake", SINK_EVENT_BYTES,
+                EarthquakeJsonConverter::decodeEvent);
+
+        // Parsing and converting interleave here, the time spent in convertFeature is taken out of the parse time
+        long start = System.nanoTime();
+        long[] transformNanos = {0};
+        int[] featureCount = {0};
+        try {
+            JsonStreamReader.forEachObject(jsonInput, "features", feature -> {
+                long transformStart = System.nanoTime();
+                EarthquakeEvent event = convertFeature(feature);
+                if (event != null) {
+                    // Hourly output file, its directory is created the first time the hour is seen
+                    try {
+                        eventsByFilePath.add(PARTITIONER.resolvePath(event.time), event);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                transformNanos[0] += System.nanoTime() - transformStart;
+                featureCount[0]++;
+            });
+        } catch (RuntimeException e) {
+            eventsByFilePath.close();
+            if (e instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e).getCause();
+            }
+            throw e;
+        }
+        METRICS.record(IngestMetrics.Stage.PARSE, System.nanoTime() - start - transformNanos[0]);
+        METRICS.record(IngestMetrics.Stage.TRANSFORM, transformNanos[0]);
+        METRICS.addEventsRead(featureCount[0]);
+
+        return eventsByFilePath;
+    }
+
+    // Function to convert a feature, null if it was already merged at this version
+    private static EarthquakeEvent convertFeature(JSONObject feature) {
+        JSONObject properties = feature.getJSONObject("properties");
+
+        // An event already merged at this version is not converted nor written again
+        UUID id = eventId(properties);
+        if (id != null && seenIndexUnchecked().isSeen(SeenEventIndex.fingerprint(id), properties.optLong("updated", 0))) {
+            METRICS.eventSkipped();
+            return null;
+        }
+
+        // Convert epoch time to formatted date
+        long epochTime = properties.getLong("time");
+        String formattedDate = convertEpochToDate(epochTime);
+
+        return createEvent(id, properties, feature.optJSONObject("geometry"), epochTime, formattedDate);
+    }
+
+    // Function to rebuild an event from the JSON it writes (spilled by a PartitionedSink): "data"
+    // holds the feature properties under their own names, and the coordinates
+    private static EarthquakeEvent decodeEvent(JSONObject json) {
+        JSONObject data = json.getJSONObject("data");
+        JSONObject geometry = new JSONObject().put("coordinates",
+                new JSONArray().put(data.opt("longitude")).put(data.opt("latitude")).put(data.opt("depth")));
+        EarthquakeEvent event = createEvent(eventId(data), data, geometry, data.getLong("time"), json.getString("start"));
+        if (event.stableId == null) {
+            event.setId(json.get("id"));
+        }
+        return event;
+    }
+
+    static EarthquakeEvent createEvent(JSONObject properties, JSONObject geometry, long epochTime, String formattedDate) {
+        return createEvent(eventId(properties), properties, geometry, epochTime, formattedDate);
+    }
+
+    // The event is typed and written straight to its file by EventFileMerger, without building the
+    // JSONObject (and its "data" and "render" objects) that used to be serialized
+    private static EarthquakeEvent createEvent(UUID id, JSONObject properties, JSONObject geometry, long epochTime, String formattedDate) {
+        return new EarthquakeEvent(id, properties, geometry, epochTime, formattedDate);
+    }
+
+    // Function to merge events with the ones already saved for their hour, returns true if the file was rewritten
+    private static boolean saveEvents(String filePath, List<EarthquakeEvent> events) throws IOException {
+        ColumnarEventStore store = columnarStore();
+        boolean written = FILE_MERGER.merge(filePath, events, event -> {
+            store.appendEvent(event);
+            for (Consumer<EarthquakeEvent> listener : EVENT_LISTENERS) {
+                listener.accept(event);
+            }
+        });
+
+        // Only once their file is written, the events are known to the seen index (logged after its commit)
+        SeenEventIndex index = seenIndex();
+        for (EarthquakeEvent event : events) {
+            if (event.stableId != null) {
+                index.record(SeenEventIndex.fingerprint(event.stableId), event.version());
+            }
+        }
+        return written;
+    }
+
+    // Function to derive the id of an event from the USGS network and code of its feature properties,
+    // so the same event gets the same id every time it is ingested
+    static UUID eventId(JSONObject properties) {
+        String code = properties.optString("code", "");
+        if (code.isEmpty()) {
+            return null;
+        }
+        return UUID.nameUUIDFromBytes(("earthquake:" + properties.optString("net", "") + code).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static synchronized SeenEventIndex seenIndex() throws IOException {
+        if (seenIndex == null) {
+            seenIndex = new SeenEventIndex(new File(SEEN_INDEX_PATH), AtomicFileWriter.shared());
+        }
+        return seenIndex;
+    }
+
+    // Same, for the lambdas of the streaming parser
+    private static SeenEventIndex seenIndexUnchecked() {
+        try {
+            return seenIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Function to make everything written so far durable and readable, the stores staying open
+    private static void checkpoint() throws IOException {
+        columnarStore().flush();
+        ROLLUPS.flush();
+        AtomicFileWriter.shared().commit();
+        // Last, the index only logs events whose files are committed
+        seenIndex().flush();
+    }
+
+    // Function to bring the day and month summaries of the hours written up to date
+    private static void flushRollups() {
+        try {
+            ROLLUPS.flush();
+        } catch (IOException e) {
+            System.out.println("Unable to update the rollups: " + e.getMessage());
+        }
+    }
+
+    // Function to commit the last partition files written to disk
+    private static void closeFileWriter() {
+        try {
+            AtomicFileWriter.shared().close();
+        } catch (IOException e) {
+            System.out.println("Unable to commit the written files: " + e.getMessage());
+        }
+    }
+
+    private static synchronized void closeSeenIndex() {
+        if (seenIndex != null) {
+            try {
+                seenIndex.close();
+            } catch (IOException e) {
+                System.out.println("Unable to close the seen index: " + e.getMessage());
+            }
+            seenIndex = null;
+        }
+    }
+
+    private static synchronized ColumnarEventStore columnarStore() throws IOException {
+        if (columnarStore == null) {
+            columnarStore = new ColumnarEventStore(new File(COLUMNAR_STORE_PATH));
+        }
+        return columnarStore;
+    }
+
+    private static synchronized void closeColumnarStore() {
+        if (columnarStore != null) {
+            try {
+                columnarStore.close();
+            } catch (IOException e) {
+                System.out.println("Unable to close the column store: " + e.getMessage());
+            }
+            columnarStore = null;
+        }
+    }
+
+    // Function to list the keys identifying an event: every USGS id it is known by, plus net + code
+    private static List<String> eventKeys(JSONObject event) {
+        JSONObject data = event.getJSONObject("data");
+        List<String> keys = new ArrayList<>();
+        for (String id : data.optString("ids", "").split(",")) {
+            if (!id.isEmpty()) {
+                keys.add(id);
+            }
+        }
+        String code = data.optString("code", "");
+        if (!code.isEmpty()) {
+            keys.add(data.optString("net", "") + code);
+        }
+        return keys;
+    }
+
+    // Function to print usage instructions and exit
+    private static void printUsageAndExit() {
+        System.out.println("Usage:");
+        System.out.println("  -jsonFilePath <jsonFilePath>");
+        System.out.println("    Use an existing JSON file to process earthquake data.");
+        System.out.println("  -url starttime=<yyyy-mm-dd> endtime=<yyyy-mm-dd>");
+        System.out.println("    Fetch earthquake data from the USGS website for the specified date range.");
+        System.out.println("  -url default");
+        System.out.println("    Fetch earthquake data from the USGS website for the last 2 days.");
+        System.out.println("  -all [<workers> <requestsPerSecond> [<oldest yyyy-mm-dd>]]");
+        System.out.println("    Iterate through each day from now into the past, fetching earthquake data until an error occurs.");
+        System.out.println("    Windows of about " + BACKFILL_TARGET_EVENTS + " events (merged quiet days or slices of a busy day, sized with the count endpoint)");
+        System.out.println("    are fetched by concurrent workers sharing a rate limit (default " + DEFAULT_BACKFILL_WORKERS
+                + " workers, " + DEFAULT_BACKFILL_REQUESTS_PER_SECOND + " requests/s); transient errors are retried with backoff.");
+        System.out.println("  -archive day|month <olderThanDays>");
+        System.out.println("    Pack the hourly files of every day (or whole month) older than olderThanDays into 7z (LZMA2) bundles.");
+        System.out.println("  -import <directory|glob> [<parallelism>]");
+        System.out.println("    Import every .json / .geojson / .7z catalog dump of a directory (or matching a quoted glob) into the hourly files,");
+        System.out.println("    streaming the files in parallel on a fork-join pool (default one worker per core).");
+        System.out.println("    A file failing halfway stays partly merged and is reported: import it again, events already merged are kept.");
+        System.out.println("  -poll [<intervalSeconds>]");
+        System.out.println("    Poll every intervalSeconds (default " + DEFAULT_POLL_INTERVAL_SECONDS + ", 0 to poll once) for the events updated since the last poll.");
+        System.out.println("  -query <from yyyy-mm-dd> <to yyyy-mm-dd> <minMag> <maxMag> [<minLat> <maxLat> <minLon> <maxLon>]");
+        System.out.println("    Print the ingested events of [from, to) in the magnitude range and bounding box (UTC days).");
+        System.out.println("If no arguments are provided, the default URL mode will be used to fetch data for the last 2 days.");
+        System.exit(1);
+    }
+
+    // Function to convert epoch time to formatted date string
+    static String convertEpochToDate(long epochTime) {
+        return TimePartitioner.formatStart(epochTime);
+    }
+
+    // Function to open a stream on the JSON content of a URL through the shared, pooled HTTP client
+    private static Reader openJsonStream(String urlString) throws IOException {
+        return HttpFetcher.shared().openJson(urlString, METRICS);
+    }
+
+    // Function to determine the icon path based on the magnitude value
+    static String determineIconPath(Double mag) {
+        if (mag == null) return "icon/ob_earthquake_mag_1_black.png"; // Default if mag is null
+
+        if (mag > 9) {
+            return "icon/ob_red_flag.png";
+        } else if (mag > 8) {
+            return "icon/ob_red_flag.png";
+        } else if (mag > 7) {
+            return "icon/ob_red_flag.png";
+        } else if (mag > 6) {
+            return "icon/ob_red_flag.png";
+        } else if (mag > 5) {
+            return "icon/ob_yellow_flag.png";
+        } else if (mag > 4) {
+            return "icon/ob_yellow_flag.png";
+        } else if (mag > 3) {
+            return "icon/ob_yellow_flag.png";
+        } else if (mag > 2) {
+            return "icon/ob_green_flag.png";
+        } else if (mag > 0) {
+            return "icon/ob_green_flag.png";
+        } else {
+            return "icon/ob_green_flag.png"; // Default icon for very low or negative magnitudes
+        }
+    }
+
+    // Function to format Date to yyyy-MM-dd
+    private static String formatDate(Date date) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        return sdf.format(date);
+    }
+}
@@ -0,0 +1,496 @@
+package org.openbexi.earthquake;
+
+import org.json.JSONObject;
+import org.openbexi.common.LongIntHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+// In-process query engine over the ingested earthquakes. Rows live in append-only primitive arrays
+// (row ids never move) and are indexed three ways:
+//   - time:      sorted index of row ids by event time
+//   - magnitude: sorted index of row ids by magnitude
+//   - spatial:   1 x 1 degree grid, one row-id list per cell
+// A query (time window x magnitude range x bounding box) walks the most selective index and filters
+// the candidates on the other predicates. A load sorts each index once; new or revised events (see
+// onEvent, registered as a converter listener) are then added without a rebuild: grid cells are
+// appended to, and each sorted index keeps a small sorted delta that is merged linearly into the
+// main run once it grows past 1/16th of it. A revised event hides the row of its previous version.
+public class EarthquakeQueryEngine {
+
+    public static final class EventRow {
+        public final long time;
+        public final long updated;
+        public final float mag;
+        public final double latitude;
+        public final double longitude;
+        public final float depth;
+        public final int sig;
+        public final String net;
+        public final String magType;
+        public final String status;
+
+        EventRow(long time, long updated, float mag, double latitude, double longitude, float depth, int sig,
+                 String net, String magType, String status) {
+            this.time = time;
+            this.updated = updated;
+            this.mag = mag;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.depth = depth;
+            this.sig = sig;
+            this.net = net;
+            this.magType = magType;
+            this.status = status;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("time", time);
+            json.put("updated", updated);
+            json.put("mag", Float.isNaN(mag) ? null : widen(mag));
+            json.put("latitude", Double.isNaN(latitude) ? null : latitude);
+            json.put("longitude", Double.isNaN(longitude) ? null : longitude);
+            json.put("depth", Float.isNaN(depth) ? null : widen(depth));
+            json.put("sig", sig);
+            json.put("net", net);
+            json.put("magType", magType);
+            json.put("status", status);
+            return json;
+        }
+
+        // f32 columns print as the value that was stored (4.8, not 4.800000190734863)
+        private static double widen(float value) {
+            return Double.parseDouble(Float.toString(value));
+        }
+    }
+
+    private static final int GRID_COLUMNS = 360;
+    private static final int GRID_ROWS = 180;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Row storage
+    private int rowCount;
+    private long[] time = new long[1024];
+    private long[] updated = new long[1024];
+    private float[] mag = new float[1024];
+    private double[] lat = new double[1024];
+    private double[] lon = new double[1024];
+    private float[] depth = new float[1024];
+    private int[] sig = new int[1024];
+    private String[] net = new String[1024];
+    private String[] magType = new String[1024];
+    private String[] status = new String[1024];
+    private final BitSet superseded = new BitSet();
+    private final LongIntHashMap rowByKey = new LongIntHashMap(1024);
+
+    // Indexes
+    private final SortedIndex timeIndex = new SortedIndex();
+    private final SortedIndex magIndex = new SortedIndex();
+    private final int[][] cells = new int[GRID_COLUMNS * GRID_ROWS][];
+    private final int[] cellSizes = new int[GRID_COLUMNS * GRID_ROWS];
+
+    // Function to load every event of a column store, keeping the latest version of each event
+    public static EarthquakeQueryEngine load(File columnarDir) throws IOException {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        try (ColumnarEventStore store = new ColumnarEventStore(columnarDir)) {
+            engine.load(store);
+        }
+        return engine;
+    }
+
+    // Same, into this engine: the rows are appended unsorted and each index is sorted once at the
+    // end, instead of being inserted one by one. Events added meanwhile (onEvent) wait for the load.
+    void load(ColumnarEventStore store) throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (ColumnarEventStore.Segment segment : store.openSegments()) {
+                for (int row = 0; row < segment.rows; row++) {
+                    addRow(segment.key.get(row), segment.time.get(row), segment.updated.get(row), segment.mag.get(row),
+                            segment.lat.get(row), segment.lon.get(row), segment.depth.get(row), segment.sig.get(row),
+                            store.netName(segment.net.get(row)), store.magTypeName(segment.magType.get(row)),
+                            store.statusName(segment.status.get(row)), true);
+                }
+            }
+            timeIndex.build();
+            magIndex.build();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Function to index an event written by the converter (EventFileMerger change listener)
+    void onEvent(EarthquakeEvent event) {
+        add(ColumnarEventStore.eventKey(event), event.time, event.version(), (float) event.mag,
+                event.latitude, event.longitude, (float) event.depth, event.sig(),
+                event.net(), event.magType(), event.status());
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void add(long key, long eventTime, long eventUpdated, float eventMag, double eventLat, double eventLon, float eventDepth,
+             int eventSig, String eventNet, String eventMagType, String eventStatus) {
+        lock.writeLock().lock();
+        try {
+            addRow(key, eventTime, eventUpdated, eventMag, eventLat, eventLon, eventDepth, eventSig, eventNet, eventMagType,
+                    eventStatus, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // bulk: append to the sorted indexes without sorting, a load builds them once done. Write lock held.
+    private void addRow(long key, long eventTime, long eventUpdated, float eventMag, double eventLat, double eventLon,
+                        float eventDepth, int eventSig, String eventNet, String eventMagType, String eventStatus, boolean bulk) {
+        int previous = rowByKey.get(key, -1);
+        if (previous >= 0) {
+            if (updated[previous] >= eventUpdated) {
+                return;
+            }
+            superseded.set(previous);
+        }
+
+        int row = rowCount++;
+        if (row == time.length) {
+            growRows();
+        }
+        time[row] = eventTime;
+        updated[row] = eventUpdated;
+        mag[row] = eventMag;
+        lat[row] = eventLat;
+        lon[row] = eventLon;
+        depth[row] = eventDepth;
+        sig[row] = eventSig;
+        net[row] = eventNet;
+        magType[row] = eventMagType;
+        status[row] = eventStatus;
+        rowByKey.put(key, row, -1);
+
+        if (bulk) {
+            timeIndex.append(row, eventTime);
+        } else {
+            timeIndex.add(row, eventTime);
+        }
+        if (!Float.isNaN(eventMag)) {
+            if (bulk) {
+                magIndex.append(row, eventMag);
+            } else {
+                magIndex.add(row, eventMag);
+            }
+        }
+        int cell = cellOf(eventLat, eventLon);
+        if (cell >= 0) {
+            int[] rows = cells[cell];
+            if (rows == null) {
+                rows = cells[cell] = new int[4];
+            } else if (cellSizes[cell] == rows.length) {
+                rows = cells[cell] = Arrays.copyOf(rows, rows.length * 2);
+            }
+            rows[cellSizes[cell]++] = row;
+        }
+    }
+
+    // Function to find the events in [fromMillis, toMillis) x [minMag, maxMag] x bounding box, sorted by time.
+    // A bounding box with minLon > maxLon crosses the antimeridian; pass -90/90/-180/180 for no box.
+    public List<EventRow> query(long fromMillis, long toMillis, double minMag, double maxMag,
+                                double minLat, double maxLat, double minLon, double maxLon) {
+        lock.readLock().lock();
+        try {
+            boolean spatial = minLat > -90 || maxLat < 90 || minLon > -180 || maxLon < 180;
+            boolean magnitude = minMag > Double.NEGATIVE_INFINITY || maxMag < Double.POSITIVE_INFINITY;
+
+            // Pick the smallest candidate set
+            long timeCandidates = timeIndex.count(fromMillis, toMillis - 1);
+            long magCandidates = magnitude ? magIndex.count(minMag, maxMag) : Long.MAX_VALUE;
+            long spatialCandidates = spatial ? countCells(minLat, maxLat, minLon, maxLon) : Long.MAX_VALUE;
+
+            RowList matches = new RowList();
+            IntConsumer filter = row -> {
+                if (superseded.get(row) || time[row] < fromMillis || time[row] >= toMillis) {
+                    return;
+                }
+                if (magnitude && !(mag[row] >= minMag && mag[row] <= maxMag)) {
+                    return;
+                }
+                if (spatial && !inBox(lat[row], lon[row], minLat, maxLat, minLon, maxLon)) {
+                    return;
+                }
+                matches.add(row);
+            };
+
+            if (spatialCandidates <= timeCandidates && spatialCandidates <= magCandidates) {
+                forEachCellRow(minLat, maxLat, minLon, maxLon, filter);
+            } else if (magCandidates < timeCandidates) {
+                magIndex.forEach(minMag, maxMag, filter);
+            } else {
+                timeIndex.forEach(fromMillis, toMillis - 1, filter);
+            }
+
+            int[] rows = matches.sortedBy(time);
+            List<EventRow> result = new ArrayList<>(matches.size);
+            for (int i = 0; i < matches.size; i++) {
+                int row = rows[i];
+                result.add(new EventRow(time[row], updated[row], mag[row], lat[row], lon[row], depth[row], sig[row],
+                        net[row], magType[row], status[row]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean inBox(double latitude, double longitude, double minLat, double maxLat, double minLon, double maxLon) {
+        if (Double.isNaN(latitude) || latitude < minLat || latitude > maxLat) {
+            return false;
+        }
+        if (minLon <= maxLon) {
+            return longitude >= minLon && longitude <= maxLon;
+        }
+        return longitude >= minLon || longitude <= maxLon;
+    }
+
+    private static int cellOf(double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return -1;
+        }
+        return gridRow(latitude) * GRID_COLUMNS + gridColumn(longitude);
+    }
+
+    private static int gridRow(double latitude) {
+        return Math.max(0, Math.min(GRID_ROWS - 1, (int) Math.floor(latitude + 90)));
+    }
+
+    private static int gridColumn(double longitude) {
+        return Math.floorMod((int) Math.floor(longitude + 180), GRID_COLUMNS);
+    }
+
+    // Function to visit the cells of a box, columns wrapping around the antimeridian if needed
+    private void forEachCell(double minLat, double maxLat, double minLon, double maxLon, IntConsumer cellVisitor) {
+        int firstRow = gridRow(Math.max(-90, minLat));
+        int lastRow = gridRow(Math.min(90, maxLat));
+        int firstColumn = gridColumn(Math.max(-180, minLon));
+        int lastColumn = maxLon >= 180 ? GRID_COLUMNS - 1 : gridColumn(maxLon);
+        int columns = Math.floorMod(lastColumn - firstColumn, GRID_COLUMNS) + 1;
+        if (minLon <= -180 && maxLon >= 180) {
+            columns = GRID_COLUMNS;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int i = 0; i < columns; i++) {
+                cellVisitor.accept(row * GRID_COLUMNS + (firstColumn + i) % GRID_COLUMNS);
+            }
+        }
+    }
+
+    private long countCells(double minLat, double maxLat, double minLon, double maxLon) {
+        long[] count = new long[1];
+        forEachCell(minLat, maxLat, minLon, maxLon, cell -> count[0] += cellSizes[cell]);
+        return count[0];
+    }
+
+    private void forEachCellRow(double minLat, double maxLat, double minLon, double maxLon, IntConsumer filter) {
+        forEachCell(minLat, maxLat, minLon, maxLon, cell -> {
+            int[] rows = cells[cell];
+            for (int i = 0; i < cellSizes[cell]; i++) {
+                filter.accept(rows[i]);
+            }
+        });
+    }
+
+    private void growRows() {
+        int capacity = time.length * 2;
+        time = Arrays.copyOf(time, capacity);
+        updated = Arrays.copyOf(updated, capacity);
+        mag = Arrays.copyOf(mag, capacity);
+        lat = Arrays.copyOf(lat, capacity);
+        lon = Arrays.copyOf(lon, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        sig = Arrays.copyOf(sig, capacity);
+        net = Arrays.copyOf(net, capacity);
+        magType = Arrays.copyOf(magType, capacity);
+        status = Arrays.copyOf(status, capacity);
+    }
+
+    // Row ids matching a query, unboxed
+    private static final class RowList {
+        private int[] rows = new int[64];
+        private int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        // Function to sort the rows by a column (stable bottom-up merge sort), the first size entries
+        // of the array returned
+        int[] sortedBy(long[] column) {
+            int[] from = rows;
+            int[] to = new int[size];
+            for (int width = 1; width < size; width *= 2) {
+                for (int start = 0; start < size; start += 2 * width) {
+                    int middle = Math.min(start + width, size);
+                    int end = Math.min(start + 2 * width, size);
+                    int left = start;
+                    int right = middle;
+                    for (int i = start; i < end; i++) {
+                        to[i] = right < end && (left == middle || column[from[right]] < column[from[left]]) ? from[right++] : from[left++];
+                    }
+                }
+                int[] swap = from;
+                from = to;
+                to = swap;
+            }
+            return from;
+        }
+    }
+
+    // Row ids ordered by a double key: a large main run plus a small sorted delta run
+    private static final class SortedIndex {
+        private double[] mainKeys = new double[0];
+        private int[] mainRows = new int[0];
+        private double[] deltaKeys = new double[64];
+        private int[] deltaRows = new int[64];
+        private int deltaSize;
+
+        void add(int row, double key) {
+            growDelta();
+            // Insertion into the sorted delta, appends in key order (the common case) cost O(1)
+            int position = deltaSize;
+            while (position > 0 && deltaKeys[position - 1] > key) {
+                deltaKeys[position] = deltaKeys[position - 1];
+                deltaRows[position] = deltaRows[position - 1];
+                position--;
+            }
+            deltaKeys[position] = key;
+            deltaRows[position] = row;
+            deltaSize++;
+
+            if (deltaSize >= Math.max(1024, mainKeys.length / 16)) {
+                mergeDelta();
+            }
+        }
+
+        // Function to append to the delta without keeping it sorted, for a bulk load ended by build()
+        void append(int row, double key) {
+            growDelta();
+            deltaKeys[deltaSize] = key;
+            deltaRows[deltaSize] = row;
+            deltaSize++;
+        }
+
+        // Function to sort what was appended (stable, O(n log n)) and merge it into the main run
+        void build() {
+            double[] keys = new double[deltaSize];
+            int[] rows = new int[deltaSize];
+            for (int width = 1; width < deltaSize; width *= 2) {
+                for (int low = 0; low < deltaSize; low += 2 * width) {
+                    int middle = Math.min(low + width, deltaSize);
+                    int high = Math.min(low + 2 * width, deltaSize);
+                    int a = low;
+                    int b = middle;
+                    for (int i = low; i < high; i++) {
+                        if (b == high || (a < middle && deltaKeys[a] <= deltaKeys[b])) {
+                            keys[i] = deltaKeys[a];
+                            rows[i] = deltaRows[a++];
+                        } else {
+                            keys[i] = deltaKeys[b];
+                            rows[i] = deltaRows[b++];
+                        }
+                    }
+                }
+                double[] sortedKeys = keys;
+                keys = deltaKeys;
+                deltaKeys = sortedKeys;
+                int[] sortedRows = rows;
+                rows = deltaRows;
+                deltaRows = sortedRows;
+            }
+            mergeDelta();
+            deltaKeys = new double[64];
+            deltaRows = new int[64];
+        }
+
+        private void growDelta() {
+            if (deltaSize == deltaKeys.length) {
+                deltaKeys = Arrays.copyOf(deltaKeys, deltaSize * 2);
+                deltaRows = Arrays.copyOf(deltaRows, deltaSize * 2);
+            }
+        }
+
+        long count(double from, double to) {
+            return upperBound(mainKeys, mainKeys.length, to) - lowerBound(mainKeys, mainKeys.length, from)
+                    + upperBound(deltaKeys, deltaSize, to) - lowerBound(deltaKeys, deltaSize, from);
+        }
+
+        void forEach(double from, double to, IntConsumer filter) {
+            for (int i = lowerBound(mainKeys, mainKeys.length, from), end = upperBound(mainKeys, mainKeys.length, to); i < end; i++) {
+                filter.accept(mainRows[i]);
+            }
+            for (int i = lowerBound(deltaKeys, deltaSize, from), end = upperBound(deltaKeys, deltaSize, to); i < end; i++) {
+                filter.accept(deltaRows[i]);
+            }
+        }
+
+        private void mergeDelta() {
+            double[] keys = new double[mainKeys.length + deltaSize];
+            int[] rows = new int[keys.length];
+            int m = 0;
+            int d = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (d == deltaSize || (m < mainKeys.length && mainKeys[m] <= deltaKeys[d])) {
+                    keys[i] = mainKeys[m];
+                    rows[i] = mainRows[m++];
+                } else {
+                    keys[i] = deltaKeys[d];
+                    rows[i] = deltaRows[d++];
+                }
+            }
+            mainKeys = keys;
+            mainRows = rows;
+            deltaSize = 0;
+        }
+
+        // First index whose key is >= value
+        private static int lowerBound(double[] keys, int size, double value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // First index whose key is > value
+        private static int upperBound(double[] keys, int size, double value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
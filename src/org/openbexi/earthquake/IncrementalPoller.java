@@ -0,0 +1,262 @@
+package org.openbexi.earthquake;
+
+import org.openbexi.common.HttpFetcher;
+import org.openbexi.common.HttpStatusException;
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.PartitionedSink;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+// Long-running poll of the FDSN event service that only asks for what changed. The highest
+// "updated" time seen so far is kept as a high-water mark and sent as updatedafter, so a poll
+// returns the events created or revised since the previous one instead of the last 2 days in full.
+// The mark is inclusive: the newest event comes back once more and is dropped by the file merger.
+// When the mark has not moved the same URL is requested again with If-None-Match /
+// If-Modified-Since, and a 304 answer costs neither parsing nor disk I/O. Only the hourly files of
+// the changed events are merged. The service answers at most 20000 events and refuses (400) a
+// larger request, which happens after a long outage: the changes are then fetched in updatedbefore
+// windows halved until accepted, the mark moving after each one. A response cut short mid-body is
+// a failed read like any other and polled again. The state survives restarts in
+// <root>/earthquake/poll_state.properties.
+class IncrementalPoller {
+
+    // Reads the changed events of a response into a sink, grouped by hourly file
+    interface Parser {
+        PartitionedSink<EarthquakeEvent> parse(Reader jsonInput) throws IOException;
+    }
+
+    interface ChangeHandler {
+        void apply(PartitionedSink<EarthquakeEvent> events) throws IOException;
+    }
+
+    static final DateTimeFormatter FDSN_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+    // Windows of changes are not split below this length
+    private static final long MIN_WINDOW_MILLIS = 60_000;
+
+    private final HttpFetcher fetcher;
+    private final IngestMetrics metrics;
+    private final String baseUrl;
+    private final File stateFile;
+    private final Duration initialLookback;
+    private final Parser parser;
+    private final ChangeHandler handler;
+
+    private long highWaterMark;
+    private String conditionalUrl;
+    private String etag;
+    private String lastModified;
+
+    IncrementalPoller(HttpFetcher fetcher, IngestMetrics metrics, String baseUrl, File stateFile, Duration initialLookback,
+                      Parser parser, ChangeHandler handler) throws IOException {
+        this.fetcher = fetcher;
+        this.metrics = metrics;
+        this.baseUrl = baseUrl;
+        this.stateFile = stateFile;
+        this.initialLookback = initialLookback;
+        this.parser = parser;
+        this.handler = handler;
+        loadState();
+    }
+
+    // Function to poll every interval until a permanent error occurs, a zero interval polls once
+    void run(Duration interval) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                pollOnce();
+            } catch (HttpStatusException e) {
+                if (!e.isTransient() || interval.isZero()) {
+                    throw e;
+                }
+                metrics.retry();
+                System.out.println("Poll failed, retrying in " + interval.getSeconds() + " s: " + e.getMessage());
+            } catch (IOException e) {
+                if (interval.isZero()) {
+                    throw e;
+                }
+                metrics.retry();
+                System.out.println("Poll failed, retrying in " + interval.getSeconds() + " s: " + e.getMessage());
+            }
+            if (interval.isZero()) {
+                return;
+            }
+            Thread.sleep(interval.toMillis());
+        }
+    }
+
+    // Function to fetch and merge the events updated since the high-water mark, returns their number
+    int pollOnce() throws IOException {
+        long updatedAfter = highWaterMark > 0 ? highWaterMark : System.currentTimeMillis() - initialLookback.toMillis();
+        String urlString = baseUrl + "query?format=geojson&updatedafter=" + FDSN_TIME.format(Instant.ofEpochMilli(updatedAfter));
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        if (urlString.equals(conditionalUrl)) {
+            if (etag != null) {
+                requestHeaders.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                requestHeaders.put("If-Modified-Since", lastModified);
+            }
+        }
+
+        String[] validators = new String[2];
+        PartitionedSink<EarthquakeEvent> events;
+        try {
+            events = fetchChanges(urlString, requestHeaders, validators);
+        } catch (HttpStatusException e) {
+            if (e.getStatusCode() != 400) {
+                throw e;
+            }
+            // More changes than the service answers at once (20000 events, e.g. after a long
+            // outage): walk the same changes again in bounded updatedbefore windows
+            System.out.println("Too many events updated after " + FDSN_TIME.format(Instant.ofEpochMilli(updatedAfter))
+                    + " for one request, polling them in windows.");
+            return pollWindow(updatedAfter, System.currentTimeMillis());
+        }
+        if (events == null) {
+            System.out.println("No change since " + FDSN_TIME.format(Instant.ofEpochMilli(updatedAfter)) + " (304).");
+            return 0;
+        }
+
+        int eventCount = (int) events.getEventCount();
+        int fileCount = events.getPartitionCount();
+        long newestUpdate = Math.max(highWaterMark, events.getMaxVersion());
+        applyChanges(events);
+
+        // Validators are only reusable while the URL, i.e. the mark, stays the same
+        if (highWaterMark > 0 && newestUpdate == highWaterMark) {
+            conditionalUrl = urlString;
+            etag = validators[0];
+            lastModified = validators[1];
+        } else {
+            conditionalUrl = null;
+            etag = null;
+            lastModified = null;
+        }
+        highWaterMark = newestUpdate;
+        saveState();
+
+        System.out.println(eventCount + " events updated after " + FDSN_TIME.format(Instant.ofEpochMilli(updatedAfter))
+                + " in " + fileCount + " hourly files.");
+        return eventCount;
+    }
+
+    // Function to fetch and merge the events updated in [after, before], halving the window while the
+    // service refuses it. The older half is merged first and the mark saved after every window, so a
+    // failure resumes after the changes already merged. Returns the number of events.
+    private int pollWindow(long after, long before) throws IOException {
+        String urlString = baseUrl + "query?format=geojson&updatedafter=" + FDSN_TIME.format(Instant.ofEpochMilli(after))
+                + "&updatedbefore=" + FDSN_TIME.format(Instant.ofEpochMilli(before));
+        PartitionedSink<EarthquakeEvent> events;
+        try {
+            events = fetchChanges(urlString, Map.of(), new String[2]);
+        } catch (HttpStatusException e) {
+            // A window this small cannot hold 20000 changes, the request is wrong for another reason
+            if (e.getStatusCode() != 400 || before - after <= MIN_WINDOW_MILLIS) {
+                throw e;
+            }
+            long middle = after + (before - after) / 2;
+            return pollWindow(after, middle) + pollWindow(middle, before);
+        }
+        if (events == null) {
+            return 0;
+        }
+
+        int eventCount = (int) events.getEventCount();
+        long newestUpdate = Math.max(highWaterMark, events.getMaxVersion());
+        applyChanges(events);
+
+        conditionalUrl = null;
+        etag = null;
+        lastModified = null;
+        highWaterMark = newestUpdate;
+        saveState();
+
+        System.out.println(eventCount + " events updated between " + FDSN_TIME.format(Instant.ofEpochMilli(after))
+                + " and " + FDSN_TIME.format(Instant.ofEpochMilli(before)) + ".");
+        return eventCount;
+    }
+
+    // Function to fetch the changed events of a URL, null on a 304. The ETag and Last-Modified of the
+    // response are put in validators. A body cut short is thrown as an IOException, like a failed read.
+    private PartitionedSink<EarthquakeEvent> fetchChanges(String urlString, Map<String, String> requestHeaders,
+                                                          String[] validators) throws IOException {
+        try (HttpFetcher.Response response = fetcher.get(urlString, requestHeaders, metrics)) {
+            int responseCode = response.getStatusCode();
+            if (responseCode == 304) {
+                return null;
+            }
+            if (responseCode != 200) {
+                throw new HttpStatusException(responseCode, "Failed to poll " + urlString + ". Response code: " + responseCode);
+            }
+            validators[0] = response.getHeader("ETag");
+            validators[1] = response.getHeader("Last-Modified");
+            try {
+                return parser.parse(response.getBody());
+            } catch (RuntimeException e) {
+                IOException failure = HttpFetcher.bodyReadFailure(e);
+                if (failure == null) {
+                    throw e;
+                }
+                throw failure;
+            }
+        }
+    }
+
+    private void applyChanges(PartitionedSink<EarthquakeEvent> events) throws IOException {
+        try (events) {
+            if (!events.isEmpty()) {
+                handler.apply(events);
+            }
+        }
+    }
+
+    long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    private void loadState() throws IOException {
+        if (!stateFile.isFile()) {
+            return;
+        }
+        Properties state = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8)) {
+            state.load(reader);
+        }
+        highWaterMark = Long.parseLong(state.getProperty("highWaterMark", "0"));
+        conditionalUrl = state.getProperty("url");
+        etag = state.getProperty("etag");
+        lastModified = state.getProperty("lastModified");
+    }
+
+    // Function to persist the state, the file is replaced atomically so a crash leaves the old or the new one
+    private void saveState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty("highWaterMark", Long.toString(highWaterMark));
+        if (conditionalUrl != null) {
+            state.setProperty("url", conditionalUrl);
+        }
+        if (etag != null) {
+            state.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            state.setProperty("lastModified", lastModified);
+        }
+
+        stateFile.getParentFile().mkdirs();
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            state.store(writer, "EarthquakeJsonConverter -poll state");
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,153 @@
+package org.openbexi.earthquake;
+
+import org.openbexi.common.HttpStatusException;
+import org.openbexi.common.RateLimiter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+// Sizes the backfill windows from the FDSN count endpoint so that every query returns close to
+// targetEvents and never more than maxEvents (the server's result cap). Quiet days are merged into
+// one window of up to maxSpanDays, a window over the cap is shrunk and counted again, and a single
+// day over the cap is cut into slices counted one by one, down to minSlice. The rate of the last
+// window counted (events per day) sizes the next one, so a steady catalog costs one count per
+// query. A server without the count endpoint (404) falls back to one-day windows.
+class WindowPlanner {
+
+    // Events between start and end, as reported by the count endpoint
+    interface EventCounter {
+        long count(Instant start, Instant end) throws IOException;
+    }
+
+    // Days [start, end) fetched as consecutive slices, bounds holds the slices' start times and the end
+    static final class Window {
+        final LocalDate start;
+        final LocalDate end;
+        final List<Instant> bounds;
+        final long expectedEvents;  // -1 when not counted
+
+        Window(LocalDate start, LocalDate end, List<Instant> bounds, long expectedEvents) {
+            this.start = start;
+            this.end = end;
+            this.bounds = bounds;
+            this.expectedEvents = expectedEvents;
+        }
+
+        static Window ofDays(LocalDate start, LocalDate end, long expectedEvents) {
+            return new Window(start, end, List.of(startOf(start), startOf(end)), expectedEvents);
+        }
+
+        int slices() {
+            return bounds.size() - 1;
+        }
+    }
+
+    private final EventCounter counter;
+    private final RateLimiter rateLimiter;
+    private final long targetEvents;
+    private final long maxEvents;
+    private final int maxSpanDays;
+    private final Duration minSlice;
+
+    // Only used by the planning thread of BackfillEngine, plan() is never called concurrently
+    private double eventsPerDay = -1;
+    private boolean countSupported = true;
+    private int countRequests;
+
+    WindowPlanner(EventCounter counter, RateLimiter rateLimiter, long targetEvents, long maxEvents, int maxSpanDays, Duration minSlice) {
+        if (targetEvents < 1 || maxEvents < targetEvents) {
+            throw new IllegalArgumentException("Invalid batch sizes: target " + targetEvents + ", max " + maxEvents);
+        }
+        this.counter = counter;
+        this.rateLimiter = rateLimiter;
+        this.targetEvents = targetEvents;
+        this.maxEvents = maxEvents;
+        this.maxSpanDays = maxSpanDays;
+        this.minSlice = minSlice;
+    }
+
+    int getMaxSpanDays() {
+        return countSupported ? maxSpanDays : 1;
+    }
+
+    int getCountRequests() {
+        return countRequests;
+    }
+
+    // Function to plan the window ending (exclusive) at endDay, spanning at most availableDays days
+    Window plan(LocalDate endDay, int availableDays) throws IOException, InterruptedException {
+        if (!countSupported) {
+            return Window.ofDays(endDay.minusDays(1), endDay, -1);
+        }
+
+        int span = eventsPerDay < 0 ? 1 : (int) Math.max(1, Math.min(targetEvents / Math.max(eventsPerDay, 1e-3), maxSpanDays));
+        span = Math.min(span, Math.max(1, availableDays));
+        while (true) {
+            LocalDate startDay = endDay.minusDays(span);
+            long count;
+            try {
+                count = count(startOf(startDay), startOf(endDay));
+            } catch (HttpStatusException e) {
+                if (e.getStatusCode() != 404) {
+                    throw e;
+                }
+                System.out.println("No count endpoint (" + e.getMessage() + "), falling back to one-day windows.");
+                countSupported = false;
+                return Window.ofDays(endDay.minusDays(1), endDay, -1);
+            }
+            eventsPerDay = (double) count / span;
+
+            if (count <= maxEvents) {
+                return Window.ofDays(startDay, endDay, count);
+            }
+            if (span == 1) {
+                List<Instant> bounds = new ArrayList<>();
+                bounds.add(startOf(startDay));
+                split(startOf(startDay), startOf(endDay), count, bounds);
+                return new Window(startDay, endDay, bounds, count);
+            }
+            // Over the cap: shrink to the target at the rate just measured and count again
+            span = (int) Math.max(1, span * targetEvents / count);
+        }
+    }
+
+    // Function to append the slice ends of [start, end) to bounds, cutting it until no slice is over the cap
+    private void split(Instant start, Instant end, long count, List<Instant> bounds) throws IOException, InterruptedException {
+        Duration length = Duration.between(start, end);
+        if (count <= maxEvents || length.compareTo(minSlice) <= 0) {
+            if (count > maxEvents) {
+                System.out.println("Window " + start + " - " + end + " still holds " + count + " events, above the cap of " + maxEvents + ".");
+            }
+            bounds.add(end);
+            return;
+        }
+        long parts = Math.max(2, (count + targetEvents - 1) / targetEvents);
+        Duration step = length.dividedBy(parts);
+        if (step.compareTo(minSlice) < 0) {
+            step = minSlice;
+        }
+        for (Instant sliceStart = start; sliceStart.isBefore(end); ) {
+            Instant sliceEnd = sliceStart.plus(step);
+            if (sliceEnd.isAfter(end) || Duration.between(sliceEnd, end).compareTo(minSlice) < 0) {
+                sliceEnd = end;
+            }
+            split(sliceStart, sliceEnd, count(sliceStart, sliceEnd), bounds);
+            sliceStart = sliceEnd;
+        }
+    }
+
+    private long count(Instant start, Instant end) throws IOException, InterruptedException {
+        rateLimiter.acquire();
+        countRequests++;
+        return counter.count(start, end);
+    }
+
+    private static Instant startOf(LocalDate day) {
+        return day.atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+}
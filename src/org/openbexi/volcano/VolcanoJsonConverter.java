@@ -12,139 +12,254 @@ package org.openbexi.volcano;
 // https://volcanoes.usgs.gov/vsc/api/volcanoApi/volcanoesUS
 //
 
-import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.openbexi.common.AtomicFileWriter;
+import org.openbexi.common.EventBatch;
+import org.openbexi.common.EventFileMerger;
+import org.openbexi.common.HttpFetcher;
+import org.openbexi.common.HttpStatusException;
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.JsonStreamReader;
+import org.openbexi.common.PartitionRollups;
+import org.openbexi.common.PartitionedSink;
+import org.openbexi.common.SeenEventIndex;
+import org.openbexi.common.StagedPipeline;
+import org.openbexi.common.TimePartitioner;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class VolcanoJsonConverter {
 
+    // USGS volcano services, can be pointed at a local stub with -Dopenbexi.volcano.url=http://localhost:8080/
+    private static final String VOLCANO_BASE_URL = System.getProperty("openbexi.volcano.url", "https://volcanoes.usgs.gov/");
+
+    // One file per day: /data/volcano/yyyy/MM/dd/volcano_yyyy_MM_dd_00.json
+    private static final TimePartitioner PARTITIONER = new TimePartitioner("volcano", false);
+
+    // Counters and stage latencies of the sweeps, summarized periodically instead of one line per file
+    private static final IngestMetrics METRICS = IngestMetrics.forNamespace("volcano");
+
+    // Summaries of the day files and of their months (color code counts) for the zoomed-out timeline
+    private static final PartitionRollups ROLLUPS = new PartitionRollups(PARTITIONER.getRootPath(), "volcano");
+
+    // Day files are merged on write: a notice is identified by its noticeIdentifier and never changes
+    // once sent, so a notice already on disk is kept as is and only new notices are added
+    private static final EventFileMerger FILE_MERGER = new EventFileMerger(VolcanoJsonConverter::eventKeys, event -> 0, METRICS, ROLLUPS);
+
+    // Notices already merged into the day files, a notice never changes once sent so one seen
+    // before is dropped as soon as it is parsed
+    private static final String SEEN_INDEX_PATH = PARTITIONER.getRootPath() + "seen_events.idx";
+    private static SeenEventIndex seenIndex;
+
+    // Last notice, color code and alert level of every volcano, and the validators of its notice
+    // list: an unchanged volcano costs a 304, a status change is appended to the transition log
+    private static final VolcanoStateStore STATE = new VolcanoStateStore(
+            new File(PARTITIONER.getRootPath() + "volcano_state.properties"),
+            new File(PARTITIONER.getRootPath() + "status_transitions.log"));
+
+    // Defaults for the -all sweep: requests in flight at once, and time allowed to each request
+    private static final int DEFAULT_SWEEP_CONCURRENCY = 8;
+    private static final long DEFAULT_SWEEP_TIMEOUT_SECONDS = 30;
+    private static final int WRITE_QUEUE_CAPACITY = 64;
+
+    // Heap taken by a converted notice waiting for its day file, for the memory budget of a sweep
+    private static final long SINK_EVENT_BYTES = 8192;
+
     public static void main(String[] args) {
-        try {
-            Map<String, String> parsedArgs = parseArgs(args);
-
-            if (parsedArgs.containsKey("NewestOrRecent")) {
-                String jsonInput = fetchJsonFromUrl("https://volcanoes.usgs.gov/hans-public/api/notice/getNewestOrRecent");
-                Map<String, JSONArray> eventsByFilePath = processJson(jsonInput, "NewestOrRecent");
-                saveEventsToFile(eventsByFilePath);
-            } else if (parsedArgs.containsKey("all")) {
-                String jsonInput = fetchJsonFromUrl("https://volcanoes.usgs.gov/vsc/api/volcanoApi/volcanoesUS");
-                processAllVolcanoes(jsonInput);
-            } else {
-                printUsageAndExit();
-            }
+        Map<String, String> parsedArgs = parseArgs(args);
+        if (parsedArgs == null) {
+            printUsageAndExit();
+        }
 
+        IngestMetrics.startReporting();
+        try {
+            runJob(parsedArgs);
             System.out.println("All events processed and saved to respective files.");
         } catch (Exception e) {
             System.out.println(e.getMessage());
+        } finally {
+            shutdown();
+            IngestMetrics.stopReporting();
+        }
+    }
+
+    // Function to run one job in a resident JVM (see IngestDaemon), with the arguments of the command
+    // line: the seen index stays open for the next run, what was written is flushed and committed on return
+    public static void runJob(String... args) throws Exception {
+        Map<String, String> parsedArgs = parseArgs(args);
+        if (parsedArgs == null) {
+            throw new IllegalArgumentException("Invalid volcano job arguments: " + String.join(" ", args));
+        }
+        runJob(parsedArgs);
+        checkpoint();
+    }
+
+    private static void runJob(Map<String, String> parsedArgs) throws IOException, InterruptedException {
+        if (parsedArgs.containsKey("NewestOrRecent")) {
+            ingest(List.of(VOLCANO_BASE_URL + "hans-public/api/notice/getNewestOrRecent"), 1,
+                    Duration.ofSeconds(DEFAULT_SWEEP_TIMEOUT_SECONDS));
+        } else {
+            int concurrency = Integer.parseInt(parsedArgs.getOrDefault("concurrency", String.valueOf(DEFAULT_SWEEP_CONCURRENCY)));
+            Duration timeout = Duration.ofSeconds(Long.parseLong(parsedArgs.getOrDefault("timeoutSeconds", String.valueOf(DEFAULT_SWEEP_TIMEOUT_SECONDS))));
+            List<String> vnums = new ArrayList<>();
+            try (Reader jsonInput = openJsonStream(VOLCANO_BASE_URL + "vsc/api/volcanoApi/volcanoesUS")) {
+                JsonStreamReader.forEachObject(jsonInput, null, volcano -> vnums.add(volcano.getString("vnum")));
+            }
+            List<String> urls = new ArrayList<>();
+            for (String vnum : vnums) {
+                urls.add(VOLCANO_BASE_URL + "hans-public/api/notice/getNewestOrRecent/" + vnum);
+            }
+            ingest(urls, concurrency, timeout);
         }
     }
 
+    // Function to commit the last files written, then save the state and close the seen index, once no job runs anymore
+    public static void shutdown() {
+        flushRollups();
+        closeFileWriter();
+        // After the last day files are committed, like in checkpoint()
+        saveState();
+        closeSeenIndex();
+    }
+
+    // Function to parse the command line, null if it is not a valid one
     private static Map<String, String> parseArgs(String[] args) {
         Map<String, String> parsedArgs = new HashMap<>();
 
         if (args.length == 1 && "-NewestOrRecent".equals(args[0])) {
             parsedArgs.put("NewestOrRecent", "true");
-        } else if (args.length == 1 && "-all".equals(args[0])) {
+        } else if (args.length >= 1 && args.length <= 3 && "-all".equals(args[0])) {
             parsedArgs.put("all", "true");
+            if (args.length >= 2) {
+                parsedArgs.put("concurrency", args[1]);
+            }
+            if (args.length == 3) {
+                parsedArgs.put("timeoutSeconds", args[2]);
+            }
         } else {
-            printUsageAndExit();
+            return null;
         }
         return parsedArgs;
     }
 
-    private static void processAllVolcanoes(String jsonInput) throws IOException {
-        JSONArray volcanoes = new JSONArray(jsonInput);
-
-        for (int i = 0; i < volcanoes.length(); i++) {
-            JSONObject volcano = volcanoes.getJSONObject(i);
-            String vnum = volcano.getString("vnum");
-            String volcanoData = fetchJsonFromUrl("https://volcanoes.usgs.gov/hans-public/api/notice/getNewestOrRecent/" + vnum);
-            if (volcanoData.length() > 2) {
-                Map<String, JSONArray> eventsByFilePath = processJson(volcanoData, "volcano");
-                saveEventsToFile(eventsByFilePath);
-            }
+    // Function to run notice requests through the ingest pipeline:
+    //   list   hands out the URLs
+    //   fetch  concurrency workers fetch and convert one notice array each, so a sweep lasts about as
+    //          long as its slowest requests rather than the sum of them; the request of a volcano is
+    //          conditional, an unchanged volcano is not parsed at all
+    //   write  gathers the notices by day in a sink bounded in memory (spilling to disk past its budget)
+    //          and merges every day file once, after the last request, then applies the status of
+    //          every volcano and logs its changes
+    private static void ingest(List<String> urls, int concurrency, Duration timeout) throws IOException, InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        STATE.discardPending();
+        PartitionedSink<VolcanoNotice> eventsByFilePath = new PartitionedSink<>("volcano", SINK_EVENT_BYTES, VolcanoNotice::new);
+        long sweepStart = System.nanoTime();
+
+        // The sink is closed (its segments removed) even if the sweep fails
+        try (eventsByFilePath) {
+            StagedPipeline.<String>source("list", out -> urls.forEach(out::emit))
+                    .metrics(METRICS)
+                    .<EventBatch<VolcanoNotice>>then("fetch", concurrency, concurrency, (url, out) -> {
+                        Map<String, List<VolcanoNotice>> notices;
+                        String vnum = vnumOf(url);
+                        // Pooled connections of the shared client are reused across the workers
+                        try (HttpFetcher.Response response = HttpFetcher.shared().get(url, STATE.conditionalHeaders(vnum), timeout, METRICS)) {
+                            if (response.getStatusCode() == 304) {
+                                unchanged.incrementAndGet();
+                                return;
+                            }
+                            if (response.getStatusCode() != 200) {
+                                throw new HttpStatusException(response.getStatusCode(),
+                                        "Failed to fetch data from " + url + ". Response code: " + response.getStatusCode());
+                            }
+                            notices = processJson(response.getBody());
+                            STATE.validatorsReceived(vnum, response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                        } catch (InterruptedIOException e) {
+                            throw e;
+                        } catch (IOException | JSONException e) {
+                            // One volcano failing does not stop the sweep
+                            failures.incrementAndGet();
+                            METRICS.failure();
+                            System.out.println("Unable to fetch the notices of " + url + ": " + e.getMessage());
+                            return;
+                        }
+                        notices.forEach((filePath, events) -> out.emit(new EventBatch<>(filePath, events)));
+                    })
+                    .into("write", 1, WRITE_QUEUE_CAPACITY, new StagedPipeline.Sink<EventBatch<VolcanoNotice>>() {
+                        @Override
+                        public void accept(EventBatch<VolcanoNotice> batch) throws IOException {
+                            eventsByFilePath.addAll(batch.filePath, batch.events);
+                        }
+
+                        @Override
+                        public void finish() throws IOException {
+                            System.out.printf("%d requests in %.1f s with %d concurrent requests, %d unchanged, %d failed.%n",
+                                    urls.size(), (System.nanoTime() - sweepStart) / 1e9, concurrency, unchanged.get(), failures.get());
+                            eventsByFilePath.finish(VolcanoJsonConverter::saveEvents);
+                            List<String> transitions = STATE.apply();
+                            for (String transition : transitions) {
+                                System.out.println("Status change: " + transition.replace('\t', ' ').replace("\u2192", "->"));
+                            }
+                        }
+                    });
         }
     }
 
-    private static Map<String, JSONArray> processJson(String jsonInput, String type) {
-        JSONArray notices = new JSONArray(jsonInput);
+    static Map<String, List<VolcanoNotice>> processJson(String jsonInput) {
+        return processJson(new StringReader(jsonInput));
+    }
 
-        Map<String, JSONArray> eventsByFilePath = new HashMap<>();
+    // Function to stream a JSON array of notices, one notice at a time
+    static Map<String, List<VolcanoNotice>> processJson(Reader jsonInput) {
+        Map<String, List<VolcanoNotice>> eventsByFilePath = new HashMap<>();
+
+        // Parsing and converting interleave here, the time spent converting is taken out of the parse time
+        long start = System.nanoTime();
+        long[] transformNanos = {0};
+        int[] noticeCount = {0};
+        JsonStreamReader.forEachObject(jsonInput, null, notice -> {
+            noticeCount[0]++;
+            STATE.observe(notice);
+            UUID id = eventId(notice);
+            if (id != null && seenIndexUnchecked().isSeen(SeenEventIndex.fingerprint(id), 0)) {
+                METRICS.eventSkipped();
+                return;
+            }
 
-        for (int i = 0; i < notices.length(); i++) {
-            JSONObject notice = notices.getJSONObject(i);
+            long transformStart = System.nanoTime();
             long epochTime = notice.getLong("sent_unixtime");
             String formattedDate = convertEpochToDate(epochTime);
 
-            String[] dateParts = formattedDate.split(" ");
-            String year = dateParts[5];
-            String month = getMonthNumber(dateParts[1]);
-            String day = dateParts[2];
+            String outputFilePath = PARTITIONER.resolvePath(epochTime * 1000);
+            VolcanoNotice event = createEvent(id, notice, formattedDate);
 
-            String outputDirPath = String.format("/data/volcano/%s/%s/%s/", year, month, day);
-            File outputDir = new File(outputDirPath);
-            if (!outputDir.exists()) outputDir.mkdirs();
-
-            String outputFilePath = String.format("%svolcano_%s_%s_%s" + "_00" + ".json", outputDirPath, year, month, day);
-            JSONObject event = createEvent(notice, formattedDate);
-
-            eventsByFilePath.computeIfAbsent(outputFilePath, k -> new JSONArray()).put(event);
-        }
+            eventsByFilePath.computeIfAbsent(outputFilePath, k -> new ArrayList<>()).add(event);
+            transformNanos[0] += System.nanoTime() - transformStart;
+        });
+        METRICS.record(IngestMetrics.Stage.PARSE, System.nanoTime() - start - transformNanos[0]);
+        METRICS.record(IngestMetrics.Stage.TRANSFORM, transformNanos[0]);
+        METRICS.addEventsRead(noticeCount[0]);
 
         return eventsByFilePath;
     }
 
-    private static JSONObject createEvent(JSONObject notice, String formattedDate) {
-        JSONObject event = new JSONObject();
-        event.put("id", UUID.randomUUID().toString());
-        event.put("start", formattedDate);
-        event.put("end", "");
-        event.put("namespace", "volcano");
-
-        JSONObject data = new JSONObject();
-        addIfNotNull(data, "description",  notice.opt("notice_url"));
-        addIfNotNull(data, "noticeIdentifier", notice.opt("noticeIdentifier"));
-        addIfNotNull(data, "noticeType", notice.opt("noticeType"));
-        addIfNotNull(data, "noticeCategory", notice.opt("noticeCategory"));
-        addIfNotNull(data, "obs", notice.opt("obs"));
-        addIfNotNull(data, "obsFullname", notice.opt("obsFullname"));
-        addIfNotNull(data, "volcanoes", notice.opt("volcanoes"));
-        addIfNotNull(data, "notice_data", notice.opt("notice_data"));
-
-        JSONArray sections = notice.optJSONArray("sections");
-        if (sections != null && !sections.isEmpty()) {
-            JSONObject section = sections.getJSONObject(0);
-            addIfNotNull(data, "synopsis", section.opt("synopsis"));
-            addIfNotNull(data, "colorCode", section.opt("colorCode"));
-            addIfNotNull(data, "alertLevel", section.opt("alertLevel"));
-            addIfNotNull(data, "volcanoCd", section.opt("volcanoCd"));
-            addIfNotNull(data, "volcanoName", section.opt("volcanoName"));
-            addIfNotNull(data, "vnum", section.opt("vnum"));
-
-            String colorCode = section.optString("colorCode", "UNKNOWN");
-            String volcanoName = section.optString("volcanoName", "Unknown Volcano");
-            addIfNotNull(data, "title", colorCode + " - " + volcanoName);
-            addIfNotNull(data, "type", "volcano");
-
-            String iconPath = determineIconPath(colorCode);
-            JSONObject render = new JSONObject();
-            render.put("image", iconPath);
-            render.put("color", "#731616");
-
-            event.put("render", render);
-        }
-
-        event.put("data", data);
+    static VolcanoNotice createEvent(JSONObject notice, String formattedDate) {
+        return createEvent(eventId(notice), notice, formattedDate);
+    }
 
-        return event;
+    // The notice is typed and written straight to its day file by EventFileMerger
+    private static VolcanoNotice createEvent(UUID id, JSONObject notice, String formattedDate) {
+        return new VolcanoNotice(id, notice, formattedDate);
     }
 
-    private static String determineIconPath(String colorCode) {
+    static String determineIconPath(String colorCode) {
         return switch (colorCode.toUpperCase()) {
             case "RED" -> "icon/ob_volcano_very_active.png";
             case "ORANGE" -> "icon/ob_volcano_active.png";
@@ -153,84 +268,128 @@ public class VolcanoJsonConverter {
         };
     }
 
-    private static void saveEventsToFile(Map<String, JSONArray> eventsByFilePath) throws IOException {
-        for (Map.Entry<String, JSONArray> entry : eventsByFilePath.entrySet()) {
-            String filePath = entry.getKey();
-            JSONArray events = entry.getValue();
+    // Function to merge notices into their day file, returns true if the file was rewritten
+    private static boolean saveEvents(String filePath, List<VolcanoNotice> notices) throws IOException {
+        // Notices of other volcanoes or earlier runs already in the file are kept
+        boolean written = FILE_MERGER.merge(filePath, notices);
+        SeenEventIndex index = seenIndex();
+        for (VolcanoNotice notice : notices) {
+            if (notice.stableId != null) {
+                index.record(SeenEventIndex.fingerprint(notice.stableId), notice.version());
+            }
+        }
+        return written;
+    }
 
-            JSONObject outputJson = new JSONObject();
-            outputJson.put("dateTimeFormat", "iso8601");
-            outputJson.put("events", events);
+    // Function to get the vnum of a request for the notices of one volcano, null for any other request
+    private static String vnumOf(String url) {
+        String prefix = VOLCANO_BASE_URL + "hans-public/api/notice/getNewestOrRecent/";
+        return url.startsWith(prefix) ? url.substring(prefix.length()) : null;
+    }
 
-            saveJsonToFile(filePath, outputJson);
+    // Function to derive the id of a notice from its noticeIdentifier, so the same notice gets the
+    // same id every time it is ingested
+    static UUID eventId(JSONObject notice) {
+        return eventId(notice.optString("noticeIdentifier", ""));
+    }
 
-            System.out.println("Event saved to: " + filePath + " with " + events.length() + " events.");
+    static UUID eventId(String noticeIdentifier) {
+        if (noticeIdentifier.isEmpty()) {
+            return null;
         }
+        return UUID.nameUUIDFromBytes(("volcano:" + noticeIdentifier).getBytes(StandardCharsets.UTF_8));
     }
 
-    private static void printUsageAndExit() {
-        System.out.println("Usage:");
-        System.out.println("  -NewestOrRecent");
-        System.out.println("    Fetch the newest or most recent volcano notices.");
-        System.out.println("  -all");
-        System.out.println("    Fetch and process all volcano data from USGS.");
-        System.exit(1);
+    private static synchronized SeenEventIndex seenIndex() throws IOException {
+        if (seenIndex == null) {
+            seenIndex = new SeenEventIndex(new File(SEEN_INDEX_PATH), AtomicFileWriter.shared());
+        }
+        return seenIndex;
     }
 
-    private static String convertEpochToDate(long epochTime) {
-        Date date = new Date(epochTime * 1000);
-        SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM dd HH:mm:ss 'UTC' yyyy", Locale.US);
-        return sdf.format(date);
+    // Same, for the lambdas of the streaming parser
+    private static SeenEventIndex seenIndexUnchecked() {
+        try {
+            return seenIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private static String fetchJsonFromUrl(String urlString) throws IOException {
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setRequestProperty("Accept", "application/json");
+    // Function to make everything written so far durable, the seen index staying open
+    private static void checkpoint() throws IOException {
+        ROLLUPS.flush();
+        AtomicFileWriter.shared().commit();
+        // Only then the validators and the seen notices: a 304 or a skipped notice must never stand
+        // for a day file lost by a crash
+        STATE.save();
+        seenIndex().flush();
+    }
 
-        int responseCode = connection.getResponseCode();
-        if (responseCode != HttpURLConnection.HTTP_OK) {
-            throw new IOException("Failed to fetch data from URL. Response code: " + responseCode);
+    // Function to bring the day and month summaries of the days written up to date
+    private static void flushRollups() {
+        try {
+            ROLLUPS.flush();
+        } catch (IOException e) {
+            System.out.println("Unable to update the rollups: " + e.getMessage());
         }
+    }
 
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-            StringBuilder content = new StringBuilder();
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                content.append(inputLine);
-            }
-            return content.toString();
+    // Function to save the state of the volcanoes if it changed
+    private static void saveState() {
+        try {
+            STATE.save();
+        } catch (IOException e) {
+            System.out.println("Unable to save the volcano state: " + e.getMessage());
         }
     }
 
-    private static void saveJsonToFile(String filePath, JSONObject jsonObject) throws IOException {
-        try (FileWriter file = new FileWriter(filePath)) {
-            file.write(jsonObject.toString(4));
+    // Function to commit the last day files written to disk
+    private static void closeFileWriter() {
+        try {
+            AtomicFileWriter.shared().close();
+        } catch (IOException e) {
+            System.out.println("Unable to commit the written files: " + e.getMessage());
         }
     }
 
-    private static void addIfNotNull(JSONObject jsonObject, String key, Object value) {
-        if (value != null) {
-            jsonObject.put(key, value);
+    private static synchronized void closeSeenIndex() {
+        if (seenIndex != null) {
+            try {
+                seenIndex.close();
+            } catch (IOException e) {
+                System.out.println("Unable to close the seen index: " + e.getMessage());
+            }
+            seenIndex = null;
         }
     }
 
-    private static String getMonthNumber(String monthName) {
-        return switch (monthName.toLowerCase()) {
-            case "jan" -> "01";
-            case "feb" -> "02";
-            case "mar" -> "03";
-            case "apr" -> "04";
-            case "may" -> "05";
-            case "jun" -> "06";
-            case "jul" -> "07";
-            case "aug" -> "08";
-            case "sep" -> "09";
-            case "oct" -> "10";
-            case "nov" -> "11";
-            case "dec" -> "12";
-            default -> throw new IllegalArgumentException("Invalid month: " + monthName);
-        };
+    // Function to list the keys identifying a notice: its noticeIdentifier, or vnum + start without one
+    private static List<String> eventKeys(JSONObject event) {
+        JSONObject data = event.getJSONObject("data");
+        String noticeIdentifier = data.optString("noticeIdentifier", "");
+        if (!noticeIdentifier.isEmpty()) {
+            return List.of(noticeIdentifier);
+        }
+        return List.of(data.optString("vnum", "") + " " + event.optString("start", ""));
+    }
+
+    private static void printUsageAndExit() {
+        System.out.println("Usage:");
+        System.out.println("  -NewestOrRecent");
+        System.out.println("    Fetch the newest or most recent volcano notices.");
+        System.out.println("  -all [<concurrency> [<timeoutSeconds>]]");
+        System.out.println("    Fetch and process all volcano data from USGS, with up to concurrency requests in flight (default "
+                + DEFAULT_SWEEP_CONCURRENCY + ") and a timeout per request (default " + DEFAULT_SWEEP_TIMEOUT_SECONDS + " s).");
+        System.exit(1);
+    }
+
+    static String convertEpochToDate(long epochTime) {
+        return TimePartitioner.formatStart(epochTime * 1000);
+    }
+
+    // Function to open a stream on the JSON content of a URL through the shared, pooled HTTP client
+    private static Reader openJsonStream(String urlString) throws IOException {
+        return HttpFetcher.shared().openJson(urlString, METRICS);
     }
 }
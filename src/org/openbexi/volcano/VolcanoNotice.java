@@ -0,0 +1,208 @@
+package org.openbexi.volcano;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openbexi.common.EventJsonWriter;
+import org.openbexi.common.EventRecord;
+import org.openbexi.common.JsonKeyOrder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+// A volcano notice of the day files. The values of the notice and of its first section are kept as
+// parsed (null when absent) and written back unchanged; writeJson produces the exact bytes of the
+// JSONObject this class replaces, keys included in the order that JSONObject would list them.
+final class VolcanoNotice implements EventRecord {
+
+    private static final JsonKeyOrder EVENT_KEYS = new JsonKeyOrder("id", "start", "end", "namespace", "render", "data");
+    private static final int ID = 0, START = 1, END = 2, NAMESPACE = 3, RENDER = 4;
+
+    // Keys of "data" in the order the converter has always put them
+    private static final JsonKeyOrder DATA_KEYS = new JsonKeyOrder("description", "noticeIdentifier", "noticeType",
+            "noticeCategory", "obs", "obsFullname", "volcanoes", "notice_data", "synopsis", "colorCode", "alertLevel",
+            "volcanoCd", "volcanoName", "vnum", "title", "type");
+    private static final int TITLE = 14, TYPE = 15;
+
+    private static final JsonKeyOrder RENDER_KEYS = new JsonKeyOrder("image", "color");
+    private static final String COLOR = "#731616";
+
+    // The id written, a UUID or the id already on disk for this notice
+    private Object id;
+    // Derived from the noticeIdentifier, null for a notice without one
+    final UUID stableId;
+    final String start;
+    // Values of the data keys up to vnum, by index in DATA_KEYS
+    private final Object[] values = new Object[TITLE];
+    // From the first section, null for a notice without sections (which has no title, type nor render)
+    private final String colorCode;
+    private final String volcanoName;
+    private final String image;
+
+    VolcanoNotice(UUID stableId, JSONObject notice, String start) {
+        this.id = stableId != null ? stableId : UUID.randomUUID();
+        this.stableId = stableId;
+        this.start = start;
+
+        values[0] = notice.opt("notice_url");
+        values[1] = notice.opt("noticeIdentifier");
+        values[2] = notice.opt("noticeType");
+        values[3] = notice.opt("noticeCategory");
+        values[4] = notice.opt("obs");
+        values[5] = notice.opt("obsFullname");
+        values[6] = notice.opt("volcanoes");
+        values[7] = notice.opt("notice_data");
+
+        JSONArray sections = notice.optJSONArray("sections");
+        if (sections != null && !sections.isEmpty()) {
+            JSONObject section = sections.getJSONObject(0);
+            for (int field = 8; field < TITLE; field++) {
+                values[field] = section.opt(DATA_KEYS.key(field));
+            }
+            colorCode = section.optString("colorCode", "UNKNOWN");
+            volcanoName = section.optString("volcanoName", "Unknown Volcano");
+            image = VolcanoJsonConverter.determineIconPath(colorCode);
+        } else {
+            colorCode = null;
+            volcanoName = null;
+            image = null;
+        }
+    }
+
+    // Function to rebuild a notice from the JSON it writes (spilled by a PartitionedSink): "data" holds
+    // the values of the notice and of its first section, the title tells whether there was a section
+    VolcanoNotice(JSONObject event) {
+        JSONObject data = event.getJSONObject("data");
+        this.id = event.get("id");
+        this.start = event.getString("start");
+        for (int field = 0; field < TITLE; field++) {
+            values[field] = data.opt(DATA_KEYS.key(field));
+        }
+        this.stableId = VolcanoJsonConverter.eventId(text(values[1], ""));
+        if (stableId != null) {
+            this.id = stableId;
+        }
+        if (data.has("title")) {
+            colorCode = text(values[9], "UNKNOWN");
+            volcanoName = text(values[12], "Unknown Volcano");
+            image = VolcanoJsonConverter.determineIconPath(colorCode);
+        } else {
+            colorCode = null;
+            volcanoName = null;
+            image = null;
+        }
+    }
+
+    // Function to list the keys identifying the notice: its noticeIdentifier, or vnum + start without one
+    @Override
+    public List<String> keys() {
+        String noticeIdentifier = text(values[1], "");
+        if (!noticeIdentifier.isEmpty()) {
+            return List.of(noticeIdentifier);
+        }
+        return List.of(text(values[13], "") + " " + start);
+    }
+
+    // A notice never changes once sent
+    @Override
+    public long version() {
+        return 0;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void setId(Object id) {
+        this.id = id;
+    }
+
+    @Override
+    public Object dataValue(String key) {
+        int field = DATA_KEYS.indexOf(key);
+        if (field < 0) {
+            return null;
+        }
+        if (field == TITLE || field == TYPE) {
+            if (colorCode == null) {
+                return null;
+            }
+            return field == TITLE ? colorCode + " - " + volcanoName : "volcano";
+        }
+        return values[field];
+    }
+
+    @Override
+    public void writeJson(EventJsonWriter writer) throws IOException {
+        int size = image != null ? 6 : 5;
+        writer.beginObject(size);
+        for (int key : EVENT_KEYS.order(size)) {
+            if (key == RENDER && image == null) {
+                continue;
+            }
+            writer.name(EVENT_KEYS.key(key));
+            switch (key) {
+                case ID -> {
+                    if (id instanceof UUID) {
+                        writer.value((UUID) id);
+                    } else {
+                        writer.value(id);
+                    }
+                }
+                case START -> writer.value(start);
+                case END -> writer.value("");
+                case NAMESPACE -> writer.value("volcano");
+                case RENDER -> writeRender(writer);
+                default -> writeData(writer);
+            }
+        }
+        writer.endObject();
+    }
+
+    private void writeData(EventJsonWriter writer) throws IOException {
+        int size = colorCode != null ? 2 : 0;
+        for (Object value : values) {
+            if (value != null) {
+                size++;
+            }
+        }
+        writer.beginObject(size);
+        for (int field : DATA_KEYS.order(size)) {
+            if (field == TITLE || field == TYPE) {
+                if (colorCode == null) {
+                    continue;
+                }
+                writer.name(DATA_KEYS.key(field));
+                if (field == TITLE) {
+                    writer.beginString();
+                    writer.stringPart(colorCode);
+                    writer.stringPart(" - ");
+                    writer.stringPart(volcanoName);
+                    writer.endString();
+                } else {
+                    writer.value("volcano");
+                }
+            } else if (values[field] != null) {
+                writer.name(DATA_KEYS.key(field));
+                writer.value(values[field]);
+            }
+        }
+        writer.endObject();
+    }
+
+    private void writeRender(EventJsonWriter writer) throws IOException {
+        writer.beginObject(2);
+        for (int key : RENDER_KEYS.order(2)) {
+            writer.name(RENDER_KEYS.key(key));
+            writer.value(key == 0 ? image : COLOR);
+        }
+        writer.endObject();
+    }
+
+    // Same as JSONObject.optString on a parsed value
+    private static String text(Object value, String defaultValue) {
+        return value == null || JSONObject.NULL.equals(value) ? defaultValue : value.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package org.openbexi.volcano;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+
+// Last known status of every volcano, keyed by vnum: its newest notice (noticeIdentifier and sent
+// time), color code and alert level, and the ETag / Last-Modified of its notice list. The sweep
+// sends the validators back, so the notices of a volcano that did not change are neither parsed nor
+// written again (304). What a sweep observes is staged and only applied once its day files are
+// merged; the color code and alert level changes it brings are then appended to a transition log,
+// one tab-separated line per change:
+//   <sent ISO-8601> <vnum> <volcanoName> <colorCode change> <alertLevel change> <noticeIdentifier>
+// a change being written as before and after joined by an arrow (U+2192), e.g. YELLOW\u2192ORANGE.
+// The state itself is a properties file next to the data, rewritten (atomically, forced before the
+// rename) when it changed, and saved only after the day files it describes are committed.
+class VolcanoStateStore {
+
+    private static final String ARROW = "\u2192";
+
+    static final class VolcanoState {
+        String volcanoName;
+        String noticeIdentifier;
+        long sentSeconds;
+        String colorCode;
+        String alertLevel;
+        String etag;
+        String lastModified;
+    }
+
+    // A section of a notice, as observed during a sweep
+    private static final class Observation {
+        final String noticeIdentifier;
+        final long sentSeconds;
+        final String volcanoName;
+        final String colorCode;
+        final String alertLevel;
+
+        Observation(String noticeIdentifier, long sentSeconds, String volcanoName, String colorCode, String alertLevel) {
+            this.noticeIdentifier = noticeIdentifier;
+            this.sentSeconds = sentSeconds;
+            this.volcanoName = volcanoName;
+            this.colorCode = colorCode;
+            this.alertLevel = alertLevel;
+        }
+    }
+
+    private final File stateFile;
+    private final File transitionLog;
+    private final Map<String, VolcanoState> states = new HashMap<>();
+    private final Map<String, List<Observation>> pendingNotices = new HashMap<>();
+    private final Map<String, String[]> pendingValidators = new HashMap<>();
+    private boolean dirty;
+
+    VolcanoStateStore(File stateFile, File transitionLog) {
+        this.stateFile = stateFile;
+        this.transitionLog = transitionLog;
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            // Only costs a full sweep, the notices already merged are still skipped by the seen index
+            System.out.println("Unable to read the volcano state " + stateFile + ", starting over: " + e.getMessage());
+            states.clear();
+        }
+    }
+
+    // Function to get the headers making the request of a volcano's notices conditional
+    synchronized Map<String, String> conditionalHeaders(String vnum) {
+        VolcanoState state = vnum != null ? states.get(vnum) : null;
+        if (state == null) {
+            return Map.of();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (state.etag != null) {
+            headers.put("If-None-Match", state.etag);
+        }
+        if (state.lastModified != null) {
+            headers.put("If-Modified-Since", state.lastModified);
+        }
+        return headers;
+    }
+
+    // Function to stage the validators of a volcano's notice list, kept once the sweep is applied
+    synchronized void validatorsReceived(String vnum, String etag, String lastModified) {
+        if (vnum != null) {
+            pendingValidators.put(vnum, new String[]{etag, lastModified});
+        }
+    }
+
+    // Function to stage the status a notice gives to each volcano of its sections, notices older
+    // than the volcano's last known one are ignored
+    synchronized void observe(JSONObject notice) {
+        JSONArray sections = notice.optJSONArray("sections");
+        String noticeIdentifier = notice.optString("noticeIdentifier", "");
+        if (sections == null || noticeIdentifier.isEmpty()) {
+            return;
+        }
+        long sentSeconds = notice.optLong("sent_unixtime", 0);
+        for (int i = 0; i < sections.length(); i++) {
+            JSONObject section = sections.optJSONObject(i);
+            String vnum = section != null ? section.optString("vnum", "") : "";
+            if (vnum.isEmpty()) {
+                continue;
+            }
+            VolcanoState state = states.get(vnum);
+            if (state != null && (sentSeconds < state.sentSeconds || noticeIdentifier.equals(state.noticeIdentifier))) {
+                continue;
+            }
+            pendingNotices.computeIfAbsent(vnum, k -> new ArrayList<>()).add(new Observation(noticeIdentifier, sentSeconds,
+                    section.optString("volcanoName", ""), section.optString("colorCode", "UNKNOWN"), section.optString("alertLevel", "UNKNOWN")));
+        }
+    }
+
+    // Function to drop what a sweep that did not complete staged
+    synchronized void discardPending() {
+        pendingNotices.clear();
+        pendingValidators.clear();
+    }
+
+    // Function to apply what the sweep staged once its notices are on disk: the notices of every
+    // volcano are replayed in the order they were sent and each status change is logged, returns
+    // the changes
+    synchronized List<String> apply() throws IOException {
+        List<String> transitions = new ArrayList<>();
+        for (Map.Entry<String, List<Observation>> entry : pendingNotices.entrySet()) {
+            String vnum = entry.getKey();
+            List<Observation> observations = entry.getValue();
+            observations.sort(Comparator.comparingLong((Observation o) -> o.sentSeconds).thenComparing(o -> o.noticeIdentifier));
+
+            VolcanoState state = states.get(vnum);
+            for (Observation observation : observations) {
+                if (state == null || state.noticeIdentifier == null) {
+                    // First notice seen for this volcano, its status is the baseline
+                    if (state == null) {
+                        state = new VolcanoState();
+                        states.put(vnum, state);
+                    }
+                } else if (observation.noticeIdentifier.equals(state.noticeIdentifier)) {
+                    continue;
+                } else if (!observation.colorCode.equals(state.colorCode) || !observation.alertLevel.equals(state.alertLevel)) {
+                    transitions.add(Instant.ofEpochSecond(observation.sentSeconds) + "\t" + vnum + "\t" + observation.volcanoName
+                            + "\t" + state.colorCode + ARROW + observation.colorCode
+                            + "\t" + state.alertLevel + ARROW + observation.alertLevel
+                            + "\t" + observation.noticeIdentifier);
+                }
+                state.volcanoName = observation.volcanoName;
+                state.noticeIdentifier = observation.noticeIdentifier;
+                state.sentSeconds = observation.sentSeconds;
+                state.colorCode = observation.colorCode;
+                state.alertLevel = observation.alertLevel;
+                dirty = true;
+            }
+        }
+        for (Map.Entry<String, String[]> entry : pendingValidators.entrySet()) {
+            VolcanoState state = states.computeIfAbsent(entry.getKey(), k -> new VolcanoState());
+            String[] validators = entry.getValue();
+            if (!Objects.equals(state.etag, validators[0]) || !Objects.equals(state.lastModified, validators[1])) {
+                state.etag = validators[0];
+                state.lastModified = validators[1];
+                dirty = true;
+            }
+        }
+        discardPending();
+
+        if (!transitions.isEmpty()) {
+            transitionLog.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(transitionLog, true), StandardCharsets.UTF_8)) {
+                for (String transition : transitions) {
+                    writer.write(transition);
+                    writer.write('\n');
+                }
+            }
+        }
+        return transitions;
+    }
+
+    // Function to rewrite the state file if the state changed since it was last saved
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, VolcanoState> entry : states.entrySet()) {
+            String vnum = entry.getKey();
+            VolcanoState state = entry.getValue();
+            put(properties, vnum + ".volcanoName", state.volcanoName);
+            put(properties, vnum + ".noticeIdentifier", state.noticeIdentifier);
+            properties.setProperty(vnum + ".sent", Long.toString(state.sentSeconds));
+            put(properties, vnum + ".colorCode", state.colorCode);
+            put(properties, vnum + ".alertLevel", state.alertLevel);
+            put(properties, vnum + ".etag", state.etag);
+            put(properties, vnum + ".lastModified", state.lastModified);
+        }
+
+        stateFile.getParentFile().mkdirs();
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            properties.store(writer, "VolcanoJsonConverter state per vnum");
+            writer.flush();
+            // On disk before the rename, or a power loss could leave an empty state file behind
+            out.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private void load() throws IOException {
+        if (!stateFile.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            VolcanoState state = states.computeIfAbsent(key.substring(0, dot), k -> new VolcanoState());
+            String value = properties.getProperty(key);
+            switch (key.substring(dot + 1)) {
+                case "volcanoName" -> state.volcanoName = value;
+                case "noticeIdentifier" -> state.noticeIdentifier = value;
+                case "sent" -> state.sentSeconds = Long.parseLong(value);
+                case "colorCode" -> state.colorCode = value;
+                case "alertLevel" -> state.alertLevel = value;
+                case "etag" -> state.etag = value;
+                case "lastModified" -> state.lastModified = value;
+                default -> { }
+            }
+        }
+    }
+
+    private static void put(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+}
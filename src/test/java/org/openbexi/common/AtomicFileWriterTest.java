@@ -0,0 +1,42 @@
+package org.openbexi.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// A content writer failing halfway, with an IOException or any RuntimeException, leaves the target
+// as it was and no temporary file behind.
+class AtomicFileWriterTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void failedWriteLeavesNoTemporaryFile() throws IOException {
+        File target = new File(dir, "earthquake_2024_03_01_12.json");
+        AtomicFileWriter writer = AtomicFileWriter.shared();
+        writer.write(target, "[1]".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalStateException.class, () -> writer.write(target, out -> {
+            out.write("[2,".getBytes(StandardCharsets.UTF_8));
+            throw new IllegalStateException("serializer failed");
+        }));
+        assertThrows(IOException.class, () -> writer.write(target, out -> {
+            out.write("[3,".getBytes(StandardCharsets.UTF_8));
+            throw new IOException("disk full");
+        }));
+
+        assertArrayEquals("[1]".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target.toPath()));
+        String[] names = dir.list();
+        assertEquals(1, names.length, String.join(", ", names));
+        writer.commit();
+    }
+}
@@ -0,0 +1,109 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A late event for an hour already packed into a day or month bundle is merged with the archived
+// events of that hour: the loose file, its hour rollup and the day rollup count the whole hour.
+class EventArchiveTest {
+
+    private static final LocalDate DAY = LocalDate.of(2020, 1, 2);
+
+    @TempDir
+    File dir;
+
+    @Test
+    void lateEventForADayBundleKeepsTheWholeHour() throws IOException {
+        lateEventKeepsTheWholeHour(false);
+    }
+
+    @Test
+    void lateEventForAMonthBundleKeepsTheWholeHour() throws IOException {
+        lateEventKeepsTheWholeHour(true);
+    }
+
+    @Test
+    void revisionOfAnArchivedEventIsNotCountedTwice() throws IOException {
+        String root = dir.getPath() + "/";
+        PartitionRollups rollups = new PartitionRollups(root, "test");
+        EventFileMerger merger = merger(rollups);
+        String partition = root + "2020/01/02/test_2020_01_02_03.json";
+        merger.mergeJson(partition, events(event("a", 1), event("b", 1)));
+        new EventArchive(root, "test", merger).archiveDay(DAY);
+
+        merger.mergeJson(partition, events(event("a", 2)));
+        assertEquals(2, read(new File(root + "rollup/hour/2020/01/02/test_2020_01_02_03.json")).getLong("count"));
+        // An older copy of an archived event changes nothing
+        assertTrue(new File(partition).delete());
+        assertFalse(merger.mergeJson(partition, events(event("b", 0))));
+        assertFalse(new File(partition).exists());
+    }
+
+    private void lateEventKeepsTheWholeHour(boolean monthly) throws IOException {
+        String root = dir.getPath() + "/";
+        PartitionRollups rollups = new PartitionRollups(root, "test");
+        EventFileMerger merger = merger(rollups);
+        String partition = root + "2020/01/02/test_2020_01_02_03.json";
+        merger.mergeJson(partition, events(event("a", 1), event("b", 1), event("c", 1)));
+        rollups.flush();
+
+        EventArchive archive = new EventArchive(root, "test", merger);
+        if (monthly) {
+            archive.archiveMonth(YearMonth.from(DAY));
+        } else {
+            archive.archiveDay(DAY);
+        }
+        assertFalse(new File(partition).exists());
+
+        assertTrue(merger.mergeJson(partition, events(event("d", 1))));
+        rollups.flush();
+
+        assertEquals(4, read(new File(partition)).getJSONArray("events").length());
+        assertEquals(4, read(new File(root + "rollup/hour/2020/01/02/test_2020_01_02_03.json")).getLong("count"));
+        assertEquals(4, read(new File(root + "rollup/day/2020/01/test_2020_01_02.json")).getLong("count"));
+
+        // Packing again folds the loose file in without doubling anything
+        if (monthly) {
+            archive.archiveMonth(YearMonth.from(DAY));
+        } else {
+            archive.archiveDay(DAY);
+        }
+        assertEquals(4, new JSONObject(new String(EventArchive.readArchived(new File(partition)), StandardCharsets.UTF_8))
+                .getJSONArray("events").length());
+    }
+
+    private static EventFileMerger merger(PartitionRollups rollups) {
+        return new EventFileMerger(event -> List.of(event.getJSONObject("data").getString("code")),
+                event -> event.getJSONObject("data").optLong("updated", 0), null, rollups);
+    }
+
+    private static JSONObject event(String code, long updated) {
+        return new JSONObject().put("id", code).put("data", new JSONObject().put("code", code).put("updated", updated).put("mag", 2.5));
+    }
+
+    private static JSONArray events(JSONObject... events) {
+        return new JSONArray(List.of(events));
+    }
+
+    private static JSONObject read(File file) throws IOException {
+        try (Reader reader = new FileReader(file, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+}
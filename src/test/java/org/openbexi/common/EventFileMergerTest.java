@@ -0,0 +1,86 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A newer version of an event replaces the one on disk under the id already written, matched through
+// any of its keys; an older or equal version leaves the file untouched.
+class EventFileMergerTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void newerVersionReplacesTheEventAndKeepsItsId() throws IOException {
+        String partition = new File(dir, "earthquake_2024_03_01_12.json").getPath();
+        EventFileMerger merger = merger();
+        assertTrue(merger.mergeJson(partition, events(event("id-1", "a", "", 1, 2.5), event("id-2", "b", "", 1, 3.0))));
+
+        // Matched through its second key, under another id
+        assertTrue(merger.mergeJson(partition, events(event("id-9", "c", "a", 2, 2.7))));
+        JSONArray written = read(partition).getJSONArray("events");
+        assertEquals(2, written.length());
+        JSONObject revised = written.getJSONObject(0);
+        assertEquals("id-1", revised.getString("id"));
+        assertEquals(2, revised.getJSONObject("data").getLong("updated"));
+        assertEquals(2.7, revised.getJSONObject("data").getDouble("mag"));
+        assertEquals("id-2", written.getJSONObject(1).getString("id"));
+    }
+
+    @Test
+    void olderOrEqualVersionLeavesTheFileUntouched() throws IOException {
+        String partition = new File(dir, "earthquake_2024_03_01_12.json").getPath();
+        EventFileMerger merger = merger();
+        merger.mergeJson(partition, events(event("id-1", "a", "", 3, 2.5)));
+        byte[] before = Files.readAllBytes(new File(partition).toPath());
+
+        assertFalse(merger.mergeJson(partition, events(event("id-2", "a", "", 3, 9.9), event("id-3", "a", "", 2, 1.0))));
+        assertArrayEquals(before, Files.readAllBytes(new File(partition).toPath()));
+    }
+
+    private static EventFileMerger merger() {
+        return new EventFileMerger(event -> {
+            JSONObject data = event.getJSONObject("data");
+            List<String> keys = new ArrayList<>();
+            keys.add(data.getString("code"));
+            for (String alias : data.getString("ids").split(",")) {
+                if (!alias.isEmpty()) {
+                    keys.add(alias);
+                }
+            }
+            return keys;
+        }, event -> event.getJSONObject("data").optLong("updated", 0));
+    }
+
+    private static JSONObject event(String id, String code, String ids, long updated, double mag) {
+        return new JSONObject().put("id", id)
+                .put("data", new JSONObject().put("code", code).put("ids", ids).put("updated", updated).put("mag", mag));
+    }
+
+    private static JSONArray events(JSONObject... events) {
+        return new JSONArray(List.of(events));
+    }
+
+    private static JSONObject read(String path) throws IOException {
+        try (Reader reader = new FileReader(path, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The writer produces the text of JSONObject.toString(4) (toString() when compact), for whole events
+// and for typed events listing a subset of their keys through JsonKeyOrder, up to subsets large
+// enough to make the JSONObject's HashMap grow to 32 and 64 buckets.
+class EventJsonWriterTest {
+
+    // The data keys of an earthquake event, in the order the converter puts them
+    private static final JsonKeyOrder DATA_KEYS = new JsonKeyOrder("description", "title", "mag", "place", "time",
+            "updated", "tz", "url", "detail", "felt", "cdi", "mmi", "alert", "status", "tsunami", "sig", "net", "code",
+            "ids", "sources", "types", "nst", "dmin", "rms", "gap", "magType", "type", "longitude", "latitude", "depth");
+    private static final int KEY_COUNT = 30;
+
+    @ParameterizedTest
+    @MethodSource("events")
+    void writesWhatJSONObjectWrites(JSONObject event) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventJsonWriter writer = new EventJsonWriter().reset(out);
+        writer.value(event);
+        writer.flush();
+        assertEquals(expected(event), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @MethodSource("keySubsets")
+    void typedKeySubsetIsListedAsJSONObjectLists(int size, long seed) throws IOException {
+        boolean[] present = new boolean[KEY_COUNT];
+        Random random = new Random(seed);
+        for (int chosen = 0; chosen < size; ) {
+            int field = random.nextInt(KEY_COUNT);
+            if (!present[field]) {
+                present[field] = true;
+                chosen++;
+            }
+        }
+        JSONObject data = new JSONObject();
+        for (int field = 0; field < KEY_COUNT; field++) {
+            if (present[field]) {
+                data.put(DATA_KEYS.key(field), value(field));
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventJsonWriter writer = new EventJsonWriter().reset(out);
+        writer.beginObject(size);
+        for (int field : DATA_KEYS.order(size)) {
+            if (present[field]) {
+                writer.name(DATA_KEYS.key(field));
+                writer.value(value(field));
+            }
+        }
+        writer.endObject();
+        writer.flush();
+        assertEquals(expected(data), out.toString(StandardCharsets.UTF_8));
+    }
+
+    static Stream<JSONObject> events() {
+        List<JSONObject> events = new ArrayList<>();
+        events.add(new JSONObject());
+        events.add(new JSONObject().put("id", UUID.fromString("0f8fad5b-d9cb-469f-a165-70867728950e")));
+        events.add(event("us7000abcd", 4.8, 1_700_000_000_000L));
+        events.add(event("ci40123456", 10.0, 0).put("render", new JSONObject().put("image", JSONObject.NULL).put("color", "#731616")));
+        events.add(new JSONObject().put("events", new JSONArray()).put("one", new JSONArray().put(1)));
+        events.add(new JSONObject().put("nested", new JSONArray().put(new JSONArray().put(new JSONObject().put("k", "v")))
+                .put(new JSONObject()).put(JSONObject.NULL).put(true).put(false)));
+        events.add(new JSONObject().put("doubles", new JSONArray().put(0.0).put(-1.5).put(0.000123).put(1.0E-7)
+                .put(12345678.9).put(1.5E20).put(-93.25).put(1.0 / 3)));
+        events.add(new JSONObject().put("longs", new JSONArray().put(Long.MIN_VALUE).put(Long.MAX_VALUE).put(-1L).put(0))
+                .put("decimal", new BigDecimal("2.50")));
+        events.add(new JSONObject().put("text", "tab\there, \"quoted\", back\\slash, </script>, caf\u00e9, \u2028, \u0001"));
+        return events.stream();
+    }
+
+    static Stream<Arguments> keySubsets() {
+        return IntStream.rangeClosed(1, KEY_COUNT)
+                .boxed()
+                .flatMap(size -> Stream.of(Arguments.of(size, 1L), Arguments.of(size, 2L), Arguments.of(size, 3L)));
+    }
+
+    private static JSONObject event(String code, double mag, long time) {
+        JSONObject data = new JSONObject();
+        data.put("description", "description_" + time + " Session_" + time);
+        data.put("title", "M " + mag + " - 10 km SW of Somewhere");
+        data.put("mag", mag);
+        data.put("time", time);
+        data.put("code", code);
+        data.put("felt", JSONObject.NULL);
+        data.put("tsunami", 0);
+        data.put("longitude", -117.5);
+        data.put("latitude", 35.25);
+        data.put("depth", 7.1);
+        return new JSONObject().put("id", code).put("start", "2023-11-14T22:13:20Z").put("namespace", "earthquake")
+                .put("data", data);
+    }
+
+    // A value of the type the field holds in an earthquake event
+    private static Object value(int field) {
+        return switch (field % 4) {
+            case 0 -> "value " + field;
+            case 1 -> field * 1.25;
+            case 2 -> (long) field * 1_000_000_007L;
+            default -> JSONObject.NULL;
+        };
+    }
+
+    private static String expected(JSONObject json) {
+        return Boolean.getBoolean("openbexi.output.compact") ? json.toString() : json.toString(4);
+    }
+}
@@ -0,0 +1,78 @@
+package org.openbexi.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openbexi.common.StubHttpServer.Reply;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+// Response bodies against a local stub: a body stalling past the request timeout fails its reader
+// instead of blocking it, a slow reader is never cut off, and a corrupt gzip body fails the fetch.
+class HttpFetcherTest {
+
+    private static final String BODY = "{\"type\":\"FeatureCollection\",\"features\":[]}";
+
+    private final HttpFetcher fetcher = new HttpFetcher(Duration.ofSeconds(5), Duration.ofSeconds(1));
+    private StubHttpServer stub;
+
+    @AfterEach
+    void close() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void bodyStallingPastTheTimeoutFails() throws IOException {
+        stub = new StubHttpServer(request -> Reply.json(BODY).stallAt(10, 10_000));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(8), () -> {
+            try (Reader body = fetcher.openJson(stub.getBaseUrl() + "query")) {
+                assertThrows(SocketTimeoutException.class, () -> readAll(body));
+            }
+        });
+    }
+
+    @Test
+    void slowReaderIsNotCutOff() throws Exception {
+        stub = new StubHttpServer(request -> Reply.json(BODY).stallAt(10, 100));
+
+        try (Reader body = fetcher.openJson(stub.getBaseUrl() + "query")) {
+            char[] first = new char[5];
+            assertEquals(5, body.read(first));
+            // Longer than the timeout between two reads, none of it spent waiting in read()
+            Thread.sleep(2500);
+            assertEquals(BODY.substring(5), readAll(body));
+        }
+    }
+
+    @Test
+    void corruptGzipBodyFailsTheFetch() throws IOException {
+        stub = new StubHttpServer(request -> Reply.json("not gzip at all").header("Content-Encoding", "gzip"));
+
+        assertThrows(IOException.class, () -> fetcher.get(stub.getBaseUrl() + "query", Map.of(), null));
+        // The connection was given back, the next request goes through
+        stub.close();
+        stub = new StubHttpServer(request -> Reply.json(BODY));
+        try (Reader body = fetcher.openJson(stub.getBaseUrl() + "query")) {
+            assertEquals(BODY, readAll(body));
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[256];
+        for (int read; (read = reader.read(buffer)) >= 0; ) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+}
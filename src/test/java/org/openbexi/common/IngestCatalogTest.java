@@ -0,0 +1,77 @@
+package org.openbexi.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The catalog replays its log on open, the last line of a window winning and a torn last line being
+// ignored; a window fetched before it settled is not complete. A window spanning several days covers
+// each of them, on its own or within any range of them.
+class IngestCatalogTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 1);
+
+    @TempDir
+    File dir;
+
+    @Test
+    void logIsReplayedOnOpen() throws IOException {
+        File logFile = new File(dir, "catalog/ingest_catalog.log");
+        IngestCatalog catalog = new IngestCatalog(logFile, Duration.ofHours(1), null);
+        catalog.record(DAY, DAY.plusDays(1), 10);
+        catalog.record(DAY, DAY.plusDays(1), 12);
+        catalog.close();
+        // A crash while the next line was written
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write("2024-02-29 2024-03-01 2024-03-".getBytes(StandardCharsets.UTF_8));
+        }
+
+        IngestCatalog reopened = new IngestCatalog(logFile, Duration.ofHours(1), null);
+        assertEquals(1, reopened.size());
+        assertEquals(12, reopened.get(DAY, DAY.plusDays(1)).eventCount);
+        assertTrue(reopened.isComplete(DAY, DAY.plusDays(1)));
+        assertNull(reopened.get(DAY.minusDays(1), DAY));
+        assertFalse(reopened.isComplete(DAY.minusDays(1), DAY));
+    }
+
+    @Test
+    void multiDayWindowCoversEachOfItsDays() throws IOException {
+        File logFile = new File(dir, "ingest_catalog.log");
+        IngestCatalog catalog = new IngestCatalog(logFile, Duration.ofHours(1), null);
+        catalog.record(DAY.minusDays(2), DAY.plusDays(1), 30);
+        catalog.close();
+
+        IngestCatalog reopened = new IngestCatalog(logFile, Duration.ofHours(1), null);
+        for (LocalDate day = DAY.minusDays(2); day.isBefore(DAY.plusDays(1)); day = day.plusDays(1)) {
+            assertTrue(reopened.isComplete(day, day.plusDays(1)), day.toString());
+        }
+        assertTrue(reopened.isComplete(DAY.minusDays(1), DAY.plusDays(1)));
+        assertFalse(reopened.isComplete(DAY.minusDays(3), DAY));
+        assertFalse(reopened.isComplete(DAY, DAY.plusDays(2)));
+        // Entries are kept by window, not by day
+        assertEquals(30, reopened.get(DAY.minusDays(2), DAY.plusDays(1)).eventCount);
+        assertNull(reopened.get(DAY, DAY.plusDays(1)));
+    }
+
+    @Test
+    void windowFetchedBeforeItSettledIsNotComplete() throws IOException {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        IngestCatalog catalog = new IngestCatalog(new File(dir, "ingest_catalog.log"), Duration.ofHours(1), null);
+        catalog.record(today, today.plusDays(1), 3);
+        assertEquals(3, catalog.get(today, today.plusDays(1)).eventCount);
+        assertFalse(catalog.isComplete(today, today.plusDays(1)));
+        catalog.close();
+    }
+}
@@ -0,0 +1,94 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A job never overlaps itself: the ticks arriving while it runs are skipped and counted, a run
+// triggered through the endpoint meanwhile is refused with 409.
+class JobSchedulerTest {
+
+    @Test
+    void ticksWhileRunningAreSkipped() throws Exception {
+        JobScheduler scheduler = new JobScheduler();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.schedule("slow", Duration.ofMillis(20), () -> {
+            started.countDown();
+            release.await();
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (status(scheduler).getLong("skipped") < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        JSONObject status = status(scheduler);
+        assertTrue(status.getBoolean("running"));
+        assertEquals(0, status.getLong("runs"));
+        assertTrue(status.getLong("skipped") >= 3, status.toString());
+        assertFalse(scheduler.trigger("slow"));
+
+        release.countDown();
+        assertTrue(scheduler.shutdown(Duration.ofSeconds(5)));
+        assertEquals(0, status(scheduler).getLong("failures"));
+    }
+
+    @Test
+    void triggerWhileRunningIsRefusedWith409() throws Exception {
+        JobScheduler scheduler = new JobScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.schedule("poll", Duration.ZERO, release::await);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        SchedulerEndpoint endpoint = SchedulerEndpoint.start(port, scheduler);
+        try {
+            String base = "http://127.0.0.1:" + port + "/jobs";
+            assertEquals(202, post(base + "/poll/run"));
+            assertEquals(409, post(base + "/poll/run"));
+            assertEquals(404, post(base + "/other/run"));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(base).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream in = connection.getInputStream()) {
+                JSONObject status = new JSONArray(new String(in.readAllBytes(), StandardCharsets.UTF_8)).getJSONObject(0);
+                assertEquals("poll", status.getString("name"));
+                assertTrue(status.getBoolean("running"));
+            }
+        } finally {
+            release.countDown();
+            endpoint.stop();
+            scheduler.shutdown(Duration.ofSeconds(5));
+        }
+    }
+
+    private static JSONObject status(JobScheduler scheduler) {
+        return scheduler.status().getJSONObject(0);
+    }
+
+    private static int post(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.openbexi.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// A revised event replaces its previous version in the hour summary instead of being counted again;
+// flush() rebuilds the days written since the last one, and their months, from the hour summaries,
+// including the days of a run that was killed before its flush.
+class PartitionRollupsTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void revisionIsRecountedNotAdded() throws IOException {
+        String root = dir.getPath() + "/";
+        PartitionRollups rollups = new PartitionRollups(root, "test");
+        EventFileMerger merger = merger(rollups);
+        merger.mergeJson(root + "2020/01/02/test_2020_01_02_03.json", events(event("a", 1, 2.5, 10), event("b", 1, 3.0, 20)));
+        merger.mergeJson(root + "2020/01/02/test_2020_01_02_04.json", events(event("c", 1, 4.0, 30)));
+        // A revision of a, with a higher magnitude
+        merger.mergeJson(root + "2020/01/02/test_2020_01_02_03.json", events(event("a", 2, 5.5, 40)));
+
+        JSONObject hour = read(root + "rollup/hour/2020/01/02/test_2020_01_02_03.json");
+        assertEquals(2, hour.getLong("count"));
+        assertEquals(5.5, hour.getJSONObject("magnitude").getDouble("max"));
+        assertEquals(8.5, hour.getJSONObject("magnitude").getDouble("sum"));
+
+        assertEquals(1, rollups.flush());
+        JSONObject day = read(root + "rollup/day/2020/01/test_2020_01_02.json");
+        assertEquals(3, day.getLong("count"));
+        assertEquals(12.5, day.getJSONObject("magnitude").getDouble("sum"));
+        assertEquals("a", day.getJSONArray("top").getJSONObject(0).getString("id"));
+        assertEquals(3, read(root + "rollup/month/2020/test_2020_01.json").getLong("count"));
+        // Nothing written since
+        assertEquals(0, rollups.flush());
+    }
+
+    @Test
+    void daysOfAKilledRunAreRebuiltByTheNextFlush() throws IOException {
+        String root = dir.getPath() + "/";
+        merger(new PartitionRollups(root, "test")).mergeJson(root + "2020/01/02/test_2020_01_02_03.json",
+                events(event("a", 1, 2.5, 10)));
+        assertFalse(new File(root + "rollup/day/2020/01/test_2020_01_02.json").exists());
+
+        PartitionRollups restarted = new PartitionRollups(root, "test");
+        assertEquals(1, restarted.flush());
+        assertEquals(1, read(root + "rollup/day/2020/01/test_2020_01_02.json").getLong("count"));
+        assertEquals(0, restarted.flush());
+    }
+
+    private static EventFileMerger merger(PartitionRollups rollups) {
+        return new EventFileMerger(event -> List.of(event.getJSONObject("data").getString("code")),
+                event -> event.getJSONObject("data").optLong("updated", 0), null, rollups);
+    }
+
+    private static JSONObject event(String code, long updated, double mag, int sig) {
+        return new JSONObject().put("id", code)
+                .put("data", new JSONObject().put("code", code).put("updated", updated).put("mag", mag).put("sig", sig));
+    }
+
+    private static JSONArray events(JSONObject... events) {
+        return new JSONArray(List.of(events));
+    }
+
+    private static JSONObject read(String path) throws IOException {
+        try (Reader reader = new FileReader(path, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+}
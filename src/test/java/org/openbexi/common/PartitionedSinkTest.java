@@ -0,0 +1,98 @@
+package org.openbexi.common;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Over its budget the sink spills partitions to segment files, fewer open at once than partitions
+// spilled; finish() still hands each partition once, in the order they were first added to, with
+// its events in the order they were added, and removes the segments.
+class PartitionedSinkTest {
+
+    private static final int PARTITIONS = 5;
+    private static final int EVENTS = 500;
+
+    @Test
+    void spilledPartitionsComeBackInOrder() throws IOException {
+        String name = "sink-test-" + System.nanoTime();
+        // Ten events buffered at most, two segment files open
+        PartitionedSink<TestEvent> sink = new PartitionedSink<>(name, 10, 1, 2,
+                json -> new TestEvent(json.getString("partition"), json.getLong("version")));
+        Map<String, List<Long>> added = new LinkedHashMap<>();
+        for (int i = 0; i < EVENTS; i++) {
+            // Uneven partitions, so that the largest are spilled first
+            String partition = "partition_" + (i % 3 == 0 ? i % PARTITIONS : 0);
+            sink.add(partition, new TestEvent(partition, i));
+            added.computeIfAbsent(partition, k -> new ArrayList<>()).add((long) i);
+        }
+        assertEquals(PARTITIONS, sink.getPartitionCount());
+        assertEquals(EVENTS, sink.getEventCount());
+        assertEquals(EVENTS - 1, sink.getMaxVersion());
+        assertTrue(sink.getSpilledEvents() > EVENTS / 2, "spilled " + sink.getSpilledEvents());
+
+        Map<String, List<Long>> written = new LinkedHashMap<>();
+        assertEquals(added.size(), sink.finish((partition, events) -> {
+            List<Long> versions = new ArrayList<>();
+            for (TestEvent event : events) {
+                assertEquals(partition, event.partition);
+                versions.add(event.version);
+            }
+            written.put(partition, versions);
+        }));
+        assertEquals(new ArrayList<>(added.keySet()), new ArrayList<>(written.keySet()));
+        assertEquals(added, written);
+        File[] leftovers = new File(System.getProperty("java.io.tmpdir"))
+                .listFiles((dir, file) -> file.startsWith("openbexi-" + name));
+        assertEquals(0, leftovers.length);
+        assertEquals(0, sink.getPartitionCount());
+    }
+
+    private static final class TestEvent implements EventRecord {
+        final String partition;
+        final long version;
+
+        TestEvent(String partition, long version) {
+            this.partition = partition;
+            this.version = version;
+        }
+
+        @Override
+        public Collection<String> keys() {
+            return List.of(partition + "/" + version);
+        }
+
+        @Override
+        public long version() {
+            return version;
+        }
+
+        @Override
+        public Object id() {
+            return null;
+        }
+
+        @Override
+        public void setId(Object id) {
+        }
+
+        @Override
+        public Object dataValue(String key) {
+            return null;
+        }
+
+        @Override
+        public void writeJson(EventJsonWriter writer) throws IOException {
+            writer.value(new JSONObject().put("partition", partition).put("version", version));
+        }
+    }
+}
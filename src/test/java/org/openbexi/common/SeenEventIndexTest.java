@@ -0,0 +1,56 @@
+package org.openbexi.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Records of the seen index are known in memory at once, but only logged by a flush, after the
+// files of their events were committed, and replayed by the next open.
+class SeenEventIndexTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void recordsAreLoggedOnlyByAFlush() throws IOException {
+        File logFile = new File(dir, "seen_events.idx");
+        long fingerprint = SeenEventIndex.fingerprint(UUID.randomUUID());
+        AtomicFileWriter writer = AtomicFileWriter.shared();
+
+        SeenEventIndex index = new SeenEventIndex(logFile, writer);
+        writer.write(new File(dir, "partition.json"), "[]".getBytes(StandardCharsets.UTF_8));
+        assertTrue(index.record(fingerprint, 2));
+        assertFalse(index.record(fingerprint, 1));
+        assertTrue(index.isSeen(fingerprint, 2));
+        // A crash here loses the record along with the uncommitted file
+        assertFalse(logFile.exists());
+        assertFalse(new SeenEventIndex(logFile, writer).isSeen(fingerprint, 1));
+
+        index.flush();
+        assertEquals(16, logFile.length());
+        assertTrue(new SeenEventIndex(logFile, writer).isSeen(fingerprint, 2));
+        index.close();
+    }
+
+    @Test
+    void closeFlushesTheLastRecords() throws IOException {
+        File logFile = new File(dir, "seen_events.idx");
+        long fingerprint = SeenEventIndex.fingerprint(UUID.randomUUID());
+
+        try (SeenEventIndex index = new SeenEventIndex(logFile, AtomicFileWriter.shared())) {
+            index.record(fingerprint, 5);
+        }
+        SeenEventIndex reopened = new SeenEventIndex(logFile, AtomicFileWriter.shared());
+        assertTrue(reopened.isSeen(fingerprint, 5));
+        assertFalse(reopened.isSeen(fingerprint, 6));
+        assertEquals(1, reopened.size());
+    }
+}
@@ -0,0 +1,83 @@
+package org.openbexi.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The first failure of a stage stops an endless source and is rethrown by into() without finishing
+// the sink or interrupting the workers still busy; a slow sink holds the source back to what the
+// queues and the workers can hold.
+class StagedPipelineTest {
+
+    @Test
+    void failureStopsThePipelineAndIsRethrown() {
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicInteger accepted = new AtomicInteger();
+
+        IOException failure = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IOException.class,
+                () -> StagedPipeline.<Integer>source("source", out -> {
+                    for (int i = 0; ; i++) {
+                        out.emit(i);
+                    }
+                }).then("convert", 2, 4, (Integer item, StagedPipeline.Emitter<Integer> out) -> {
+                    if (item == 100) {
+                        throw new IOException("bad item " + item);
+                    }
+                    out.emit(item);
+                }).into("write", 2, 4, new StagedPipeline.Sink<Integer>() {
+                    @Override
+                    public void accept(Integer item) {
+                        accepted.incrementAndGet();
+                        try {
+                            // Still writing when the failure happens
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            interrupted.set(true);
+                        }
+                    }
+
+                    @Override
+                    public void finish() {
+                        finished.set(true);
+                    }
+                })));
+
+        assertEquals("bad item 100", failure.getMessage());
+        assertFalse(finished.get());
+        assertFalse(interrupted.get());
+        assertTrue(accepted.get() < 100 + 4 + 4, "accepted " + accepted.get());
+    }
+
+    @Test
+    void slowSinkHoldsTheSourceBack() throws Exception {
+        AtomicInteger emitted = new AtomicInteger();
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        StagedPipeline.<Integer>source("source", out -> {
+            for (int i = 0; i < 200; i++) {
+                emitted.incrementAndGet();
+                out.emit(i);
+            }
+        }).then("convert", 1, 2, (Integer item, StagedPipeline.Emitter<Integer> out) -> out.emit(item))
+                .into("write", 1, 2, item -> {
+                    maxInFlight.accumulateAndGet(emitted.get() - accepted.get(), Math::max);
+                    Thread.sleep(1);
+                    accepted.incrementAndGet();
+                });
+
+        assertEquals(200, accepted.get());
+        // Two queues of 2, an item in the transform, one in the sink and one the source is emitting
+        assertTrue(maxInFlight.get() <= 2 + 2 + 3, "in flight " + maxInFlight.get());
+    }
+}
@@ -0,0 +1,163 @@
+package org.openbexi.common;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Local HTTP server for the tests of the fetch, retry and poll paths: every request is recorded and
+// answered with the Reply of a handler. A reply can be cut short, its Content-Length announcing the
+// whole body while the connection is closed after part of it, or stall in the middle of its body.
+public class StubHttpServer implements Closeable {
+
+    public static final class Request {
+        public final String path;
+        public final Map<String, String> query;
+        public final Headers headers;
+
+        Request(String path, Map<String, String> query, Headers headers) {
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+        }
+    }
+
+    public interface Handler {
+        Reply handle(Request request);
+    }
+
+    public static final class Reply {
+        final int status;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        int cutAt = -1;
+        int stallAt = -1;
+        long stallMillis;
+
+        private Reply(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public static Reply json(String body) {
+            return new Reply(200, body).header("Content-Type", "application/json");
+        }
+
+        public static Reply status(int status) {
+            return new Reply(status, "");
+        }
+
+        public Reply header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        // Function to close the connection once the first bytes of the body were sent
+        public Reply cutAt(int bytes) {
+            cutAt = bytes;
+            return this;
+        }
+
+        // Function to wait millis once the first bytes of the body were sent, then send the rest
+        public Reply stallAt(int bytes, long millis) {
+            stallAt = bytes;
+            stallMillis = millis;
+            return this;
+        }
+    }
+
+    private final Handler handler;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public StubHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/", this::handle);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            Request request = new Request(exchange.getRequestURI().getPath(), parseQuery(exchange.getRequestURI().getRawQuery()),
+                    exchange.getRequestHeaders());
+            requests.add(request);
+            Reply reply = handler.handle(request);
+            reply.headers.forEach(exchange.getResponseHeaders()::add);
+            if (reply.status == 304 || reply.body.length == 0) {
+                // The JDK server drops the connection after a bodiless answer, do not offer to keep it
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(reply.status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(reply.status, reply.body.length);
+            OutputStream out = exchange.getResponseBody();
+            int first = reply.cutAt >= 0 ? reply.cutAt : reply.stallAt >= 0 ? reply.stallAt : reply.body.length;
+            out.write(reply.body, 0, Math.min(first, reply.body.length));
+            out.flush();
+            if (reply.cutAt >= 0) {
+                // Closing short of the Content-Length makes the server drop the connection
+                return;
+            }
+            if (reply.stallAt >= 0) {
+                Thread.sleep(reply.stallMillis);
+                out.write(reply.body, first, reply.body.length - first);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client gave up on a stalled reply
+        } finally {
+            try {
+                exchange.close();
+            } catch (RuntimeException e) {
+                // Thrown for the replies cut short, once the connection is dropped
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                String[] pair = parameter.split("=", 2);
+                query.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                        pair.length == 2 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+            }
+        }
+        return query;
+    }
+}
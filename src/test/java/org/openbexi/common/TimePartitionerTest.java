@@ -0,0 +1,51 @@
+package org.openbexi.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Partition paths are <root>/<namespace>/yyyy/MM/dd/<namespace>_yyyy_MM_dd_HH.json in the JVM time
+// zone, a daily partitioner putting the whole day in _00; the directory exists once a path is given.
+class TimePartitionerTest {
+
+    private static final long TIME = Instant.parse("2024-03-01T12:34:56Z").toEpochMilli();
+
+    @Test
+    void hourlyPathFollowsTheLocalHour() {
+        TimePartitioner partitioner = new TimePartitioner("partitioner-hourly", true);
+        String path = partitioner.resolvePath(TIME);
+
+        assertEquals(partitioner.getRootPath() + expected("partitioner-hourly", TIME, true), path);
+        assertTrue(new File(path).getParentFile().isDirectory());
+        // Cached for the other times of the same hour
+        assertSame(path, partitioner.resolvePath(TIME + 1000));
+        assertEquals(partitioner.partitionKey(TIME) + 1, partitioner.partitionKey(TIME + 3_600_000L));
+    }
+
+    @Test
+    void dailyPathPutsTheDayInItsFirstPartition() {
+        TimePartitioner partitioner = new TimePartitioner("partitioner-daily", false);
+        assertEquals(partitioner.getRootPath() + expected("partitioner-daily", TIME, false), partitioner.resolvePath(TIME));
+    }
+
+    @Test
+    void timesBeforeTheEpochKeepTheirDay() {
+        TimePartitioner partitioner = new TimePartitioner("partitioner-old", true);
+        long time = Instant.parse("1960-05-22T19:11:20Z").toEpochMilli();
+        assertEquals(partitioner.getRootPath() + expected("partitioner-old", time, true), partitioner.resolvePath(time));
+    }
+
+    private static String expected(String namespace, long epochMillis, boolean hourly) {
+        LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        return String.format("%04d/%02d/%02d/%s_%04d_%02d_%02d_%02d.json", local.getYear(), local.getMonthValue(),
+                local.getDayOfMonth(), namespace, local.getYear(), local.getMonthValue(), local.getDayOfMonth(),
+                hourly ? local.getHour() : 0);
+    }
+}
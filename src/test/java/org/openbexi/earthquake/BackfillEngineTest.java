@@ -0,0 +1,179 @@
+package org.openbexi.earthquake;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openbexi.common.AtomicFileWriter;
+import org.openbexi.common.HttpFetcher;
+import org.openbexi.common.IngestCatalog;
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.JsonStreamReader;
+import org.openbexi.common.RateLimiter;
+import org.openbexi.common.StubHttpServer;
+import org.openbexi.common.StubHttpServer.Reply;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Retries of the -all backfill against a local stub: transient statuses and responses cut short
+// are retried and the window checkpointed, a permanent failure stops the walk at its day.
+class BackfillEngineTest {
+
+    private static final String TWO_FEATURES = "{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":2},\"features\":["
+            + "{\"type\":\"Feature\",\"properties\":{\"time\":1700000000000,\"code\":\"a\"}},"
+            + "{\"type\":\"Feature\",\"properties\":{\"time\":1700000001000,\"code\":\"b\"}}]}";
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 2);
+
+    private static final AtomicInteger NAMESPACES = new AtomicInteger();
+
+    @TempDir
+    File dir;
+
+    private final HttpFetcher fetcher = new HttpFetcher(Duration.ofSeconds(5), Duration.ofSeconds(5));
+    private final IngestMetrics metrics = IngestMetrics.forNamespace("backfill-test-" + NAMESPACES.incrementAndGet());
+    private IngestCatalog catalog;
+    private StubHttpServer stub;
+
+    @BeforeEach
+    void openCatalog() throws IOException {
+        catalog = new IngestCatalog(new File(dir, "ingest_catalog.log"), Duration.ZERO, AtomicFileWriter.shared());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        catalog.close();
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void transientStatusIsRetried() throws Exception {
+        stub = serve(List.of(Reply.status(503), Reply.json(TWO_FEATURES)));
+        engine(1).run(DAY, DAY, this::fetchWindow);
+
+        assertEquals(2, stub.getRequests().size());
+        assertEquals(1, metrics.getRetries());
+        assertEquals(0, metrics.getFailures());
+        assertEquals(2, catalog.get(DAY, DAY.plusDays(1)).eventCount);
+    }
+
+    @Test
+    void connectionDroppedMidBodyIsRetried() throws Exception {
+        stub = serve(List.of(Reply.json(TWO_FEATURES).cutAt(60), Reply.json(TWO_FEATURES)));
+        engine(1).run(DAY, DAY, this::fetchWindow);
+
+        assertEquals(2, stub.getRequests().size());
+        assertEquals(1, metrics.getRetries());
+        assertEquals(2, catalog.get(DAY, DAY.plusDays(1)).eventCount);
+    }
+
+    @Test
+    void bodyEndingEarlyIsRetried() throws Exception {
+        // A complete HTTP response whose JSON stops in the middle of the features
+        stub = serve(List.of(Reply.json(TWO_FEATURES.substring(0, 120)), Reply.json(TWO_FEATURES)));
+        engine(1).run(DAY, DAY, this::fetchWindow);
+
+        assertEquals(2, stub.getRequests().size());
+        assertEquals(1, metrics.getRetries());
+        assertEquals(2, catalog.get(DAY, DAY.plusDays(1)).eventCount);
+    }
+
+    @Test
+    void permanentStatusStopsTheWalk() throws Exception {
+        stub = serve(List.of(Reply.status(400), Reply.json(TWO_FEATURES)));
+        engine(1).run(DAY, DAY.minusDays(3), this::fetchWindow);
+
+        // No retry, and no day older than the failing one is requested
+        assertEquals(1, stub.getRequests().size());
+        assertEquals(0, metrics.getRetries());
+        assertEquals(1, metrics.getFailures());
+        assertEquals(0, catalog.size());
+    }
+
+    @Test
+    void retriesAreBounded() throws Exception {
+        stub = serve(List.of(Reply.json(TWO_FEATURES).cutAt(10)));
+        engine(1).run(DAY, DAY, this::fetchWindow);
+
+        assertEquals(3, stub.getRequests().size());
+        assertEquals(2, metrics.getRetries());
+        assertEquals(1, metrics.getFailures());
+        assertNull(catalog.get(DAY, DAY.plusDays(1)));
+    }
+
+    @Test
+    void unexpectedErrorStopsAtItsDay() throws Exception {
+        LocalDate failingDay = DAY.minusDays(1);
+        engine(2).run(DAY, failingDay, (start, end) -> {
+            if (start.equals(failingDay.atStartOfDay(ZoneOffset.UTC).toInstant())) {
+                throw new IllegalStateException("bug");
+            }
+            return 1;
+        });
+
+        // The failing day is reported instead of dying with its worker, the other day is done
+        assertEquals(1, metrics.getFailures());
+        assertNull(catalog.get(failingDay, DAY));
+        assertNotNull(catalog.get(DAY, DAY.plusDays(1)));
+    }
+
+    @Test
+    void plannedWindowsCoverEveryDay() throws Exception {
+        // 4000 events a day: one counted day, then windows of the 2 days the target allows
+        WindowPlanner planner = new WindowPlanner((start, end) -> Duration.between(start, end).toDays() * 4000,
+                new RateLimiter(1000, 10), 10_000, 20_000, 31, Duration.ofMinutes(1));
+        List<Instant> starts = new CopyOnWriteArrayList<>();
+        new BackfillEngine(3, new RateLimiter(1000, 10), 2, 10, catalog, metrics, planner)
+                .run(DAY, DAY.minusDays(9), (start, end) -> {
+                    starts.add(start);
+                    return (int) Duration.between(start, end).toDays() * 4000;
+                });
+
+        assertEquals(10, countCompleteDays(DAY.minusDays(9), DAY));
+        assertEquals(6, starts.size());
+        assertEquals(0, metrics.getFailures());
+    }
+
+    // Function to count the days of [oldest, newest] checkpointed as complete
+    private int countCompleteDays(LocalDate oldest, LocalDate newest) {
+        int days = 0;
+        for (LocalDate day = oldest; !day.isAfter(newest); day = day.plusDays(1)) {
+            if (catalog.isComplete(day, day.plusDays(1))) {
+                days++;
+            }
+        }
+        return days;
+    }
+
+    private BackfillEngine engine(int workers) {
+        return new BackfillEngine(workers, new RateLimiter(1000, 10), 2, 10, catalog, metrics, null);
+    }
+
+    // Same fetch and streaming parse as a backfill window, counting the features
+    private int fetchWindow(Instant start, Instant end) throws IOException {
+        try (Reader body = fetcher.openJson(stub.getBaseUrl() + "query?starttime=" + start + "&endtime=" + end)) {
+            return (int) JsonStreamReader.forEachObject(body, "features", feature -> {
+            });
+        }
+    }
+
+    // Function to answer the requests with the replies in turn, the last one repeating
+    private static StubHttpServer serve(List<Reply> replies) throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        return new StubHttpServer(request -> replies.get(Math.min(next.getAndIncrement(), replies.size() - 1)));
+    }
+}
@@ -0,0 +1,82 @@
+package org.openbexi.earthquake;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Rows appended after a flush torn between two column files stay paired across the columns.
+class ColumnarEventStoreTest {
+
+    private static final long TIME = 1_700_000_000_000L;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void tornFlushIsCutBackBeforeAppending() throws IOException {
+        try (ColumnarEventStore store = new ColumnarEventStore(dir)) {
+            append(store, 0);
+            append(store, 1);
+        }
+        // A crash after the first columns of the next flush were written
+        File segmentDir = new File(dir, "2023_11");
+        appendBytes(new File(segmentDir, ColumnarEventStore.Column.TIME.fileName), 8 * 3);
+        appendBytes(new File(segmentDir, ColumnarEventStore.Column.UPDATED.fileName), 8);
+
+        try (ColumnarEventStore store = new ColumnarEventStore(dir)) {
+            append(store, 2);
+            List<ColumnarEventStore.Segment> segments = store.openSegments();
+            assertEquals(1, segments.size());
+            ColumnarEventStore.Segment segment = segments.get(0);
+            assertEquals(3, segment.rows);
+            for (int row = 0; row < segment.rows; row++) {
+                assertEquals(TIME + row, segment.time.get(row));
+                assertEquals(row, segment.updated.get(row));
+                assertEquals(row, segment.sig.get(row));
+            }
+            for (ColumnarEventStore.Column column : ColumnarEventStore.Column.values()) {
+                assertEquals(3L * column.width, new File(segmentDir, column.fileName).length(), column.name());
+            }
+        }
+    }
+
+    @Test
+    void storesSharingADirectoryAgreeOnDictionaryIds() throws IOException {
+        try (ColumnarEventStore first = new ColumnarEventStore(dir);
+             ColumnarEventStore second = new ColumnarEventStore(dir)) {
+            first.append(TIME, 0, 0, 1.5f, 10, 20, 5, 0, "us", "ml", "reviewed");
+            // The second store read the dictionaries before the first one added to them
+            second.append(TIME + 1, 1, 1, 1.5f, 10, 20, 5, 1, "ak", "ml", "automatic");
+            first.append(TIME + 2, 2, 2, 1.5f, 10, 20, 5, 2, "ak", "md", "reviewed");
+            second.append(TIME + 3, 3, 3, 1.5f, 10, 20, 5, 3, "nc\nx", "md", "reviewed");
+
+            assertEquals("ak", first.netName(2));
+            assertEquals("ak", second.netName(2));
+            assertEquals("md", second.magTypeName(2));
+            assertEquals("nc x", first.netName(3));
+            assertEquals("nc x", second.netName(3));
+        }
+        try (ColumnarEventStore reopened = new ColumnarEventStore(dir)) {
+            assertEquals("us", reopened.netName(1));
+            assertEquals("automatic", reopened.statusName(2));
+            assertEquals("nc x", reopened.netName(3));
+            assertEquals(null, reopened.netName(4));
+        }
+    }
+
+    private static void append(ColumnarEventStore store, int row) throws IOException {
+        store.append(TIME + row, row, row, 1.5f, 10, 20, 5, row, "us", "ml", "reviewed");
+    }
+
+    private static void appendBytes(File file, int count) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[count]);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.openbexi.earthquake;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A bulk load from the column store answers like events added one by one, and keeps answering
+// once events are added after it.
+class EarthquakeQueryEngineTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final long HOUR = 3_600_000L;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void bulkLoadThenIncrementalAdds() throws IOException {
+        Random random = new Random(7);
+        EarthquakeQueryEngine expected = new EarthquakeQueryEngine();
+        try (ColumnarEventStore store = new ColumnarEventStore(dir)) {
+            for (int i = 0; i < 5000; i++) {
+                // Out of time order, with revisions of earlier events
+                int key = random.nextInt(4000);
+                long time = START + key * HOUR / 10;
+                float mag = (float) (random.nextInt(80) / 10.0);
+                double lat = -60 + key % 120;
+                double lon = -180 + key % 360;
+                store.append(time, i, key, mag, lat, lon, 10, i, "us", "ml", "reviewed");
+                expected.add(key, time, i, mag, lat, lon, 10, i, "us", "ml", "reviewed");
+            }
+        }
+
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.load(dir);
+        assertEquals(expected.size(), engine.size());
+        assertSameAnswers(expected, engine);
+
+        for (int i = 0; i < 3000; i++) {
+            long key = 4000 + i;
+            engine.add(key, START + i * HOUR / 7, 1, 5.5f, 35, 140, 10, 0, "jp", "mb", "automatic");
+            expected.add(key, START + i * HOUR / 7, 1, 5.5f, 35, 140, 10, 0, "jp", "mb", "automatic");
+        }
+        assertSameAnswers(expected, engine);
+    }
+
+    @Test
+    void codelessEventsAreKeptApart() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        for (int i = 0; i < 3; i++) {
+            JSONObject properties = new JSONObject().put("net", "us").put("mag", 4 - i).put("updated", 1);
+            engine.onEvent(new EarthquakeEvent(null, properties, null, START + i * HOUR, ""));
+        }
+        assertEquals(3, engine.size());
+        // Found through the magnitude index, still sorted by time
+        assertEquals(List.of(START, START + HOUR, START + 2 * HOUR),
+                engine.query(START, START + 3 * HOUR, 1, 5, -90, 90, -180, 180).stream().map(row -> row.time).toList());
+    }
+
+    private static void assertSameAnswers(EarthquakeQueryEngine expected, EarthquakeQueryEngine engine) {
+        for (long from = START; from < START + 400 * HOUR; from += 37 * HOUR) {
+            long to = from + 50 * HOUR;
+            assertEquals(times(expected.query(from, to, 2, 6, -90, 90, -180, 180)),
+                    times(engine.query(from, to, 2, 6, -90, 90, -180, 180)));
+            assertEquals(times(expected.query(from, to, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, 40, 100, 150)),
+                    times(engine.query(from, to, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, 40, 100, 150)));
+        }
+        assertEquals(times(expected.query(START, START + 1000 * HOUR, 7, 8, -90, 90, -180, 180)),
+                times(engine.query(START, START + 1000 * HOUR, 7, 8, -90, 90, -180, 180)));
+    }
+
+    private static List<String> times(List<EarthquakeQueryEngine.EventRow> rows) {
+        List<String> times = new ArrayList<>();
+        for (EarthquakeQueryEngine.EventRow row : rows) {
+            times.add(row.time + "/" + row.updated + "/" + row.mag);
+        }
+        return times;
+    }
+}
@@ -0,0 +1,178 @@
+package org.openbexi.earthquake;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openbexi.common.HttpFetcher;
+import org.openbexi.common.HttpStatusException;
+import org.openbexi.common.IngestMetrics;
+import org.openbexi.common.JsonStreamReader;
+import org.openbexi.common.PartitionedSink;
+import org.openbexi.common.StubHttpServer;
+import org.openbexi.common.StubHttpServer.Reply;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The -poll loop against a local stub: an unchanged mark reuses the validators and a 304 merges
+// nothing, more changes than one request may hold are polled in windows, and a response cut short
+// is a failed read, polled again.
+class IncrementalPollerTest {
+
+    private static final long UPDATED = 1_700_000_000_000L;
+    private static final long WINDOW_LIMIT_MILLIS = 90 * 60_000L;
+
+    private static final AtomicInteger NAMESPACES = new AtomicInteger();
+
+    @TempDir
+    File dir;
+
+    private final HttpFetcher fetcher = new HttpFetcher(Duration.ofSeconds(5), Duration.ofSeconds(5));
+    private final IngestMetrics metrics = IngestMetrics.forNamespace("poll-test-" + NAMESPACES.incrementAndGet());
+    // Number of events of every change set handed to the handler
+    private final List<Long> applied = new ArrayList<>();
+    private StubHttpServer stub;
+
+    @AfterEach
+    void close() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void unchangedMarkIsAskedConditionally() throws IOException {
+        stub = new StubHttpServer(request -> request.headers.containsKey("If-None-Match")
+                ? Reply.status(304)
+                : Reply.json(features(UPDATED)).header("ETag", "\"v1\""));
+        IncrementalPoller poller = poller(Duration.ofDays(2));
+
+        assertEquals(1, poller.pollOnce());
+        assertEquals(UPDATED, poller.getHighWaterMark());
+        // The mark comes back alone: same URL next time, with the validators of this answer
+        assertEquals(1, poller.pollOnce());
+        assertEquals(0, poller.pollOnce());
+
+        List<StubHttpServer.Request> requests = stub.getRequests();
+        assertEquals(3, requests.size());
+        assertNull(requests.get(1).headers.getFirst("If-None-Match"));
+        assertEquals("\"v1\"", requests.get(2).headers.getFirst("If-None-Match"));
+        assertEquals(requests.get(1).query, requests.get(2).query);
+        assertEquals(List.of(1L, 1L), applied);
+        assertEquals(UPDATED, poller.getHighWaterMark());
+
+        // The state survives a restart
+        assertEquals(0, poller(Duration.ofDays(2)).pollOnce());
+        assertEquals("\"v1\"", stub.getRequests().get(3).headers.getFirst("If-None-Match"));
+    }
+
+    @Test
+    void tooManyChangesArePolledInWindows() throws IOException {
+        // Refuses the open request and any window over 90 minutes, like the 20000 events limit
+        stub = new StubHttpServer(request -> {
+            String before = request.query.get("updatedbefore");
+            if (before == null) {
+                return Reply.status(400);
+            }
+            long start = parse(request.query.get("updatedafter"));
+            long end = parse(before);
+            return end - start > WINDOW_LIMIT_MILLIS ? Reply.status(400) : Reply.json(features(end - 1));
+        });
+        IncrementalPoller poller = poller(Duration.ofHours(4));
+
+        assertEquals(4, poller.pollOnce());
+        assertEquals(List.of(1L, 1L, 1L, 1L), applied);
+
+        // The accepted windows follow each other from the oldest, the mark moving with them
+        long previousEnd = -1;
+        List<StubHttpServer.Request> accepted = new ArrayList<>();
+        for (StubHttpServer.Request request : stub.getRequests()) {
+            String before = request.query.get("updatedbefore");
+            if (before != null && parse(before) - parse(request.query.get("updatedafter")) <= WINDOW_LIMIT_MILLIS) {
+                accepted.add(request);
+            }
+        }
+        assertEquals(4, accepted.size());
+        for (StubHttpServer.Request request : accepted) {
+            long start = parse(request.query.get("updatedafter"));
+            if (previousEnd >= 0) {
+                assertEquals(previousEnd, start);
+            }
+            previousEnd = parse(request.query.get("updatedbefore"));
+        }
+        assertEquals(previousEnd - 1, poller.getHighWaterMark());
+    }
+
+    @Test
+    void badRequestStillFailsOnceWindowsAreSmall() throws IOException {
+        stub = new StubHttpServer(request -> Reply.status(400));
+        IncrementalPoller poller = poller(Duration.ofHours(4));
+
+        HttpStatusException e = assertThrows(HttpStatusException.class, poller::pollOnce);
+        assertEquals(400, e.getStatusCode());
+        // Only the oldest half is split further: one request per halving, not one per minute
+        assertTrue(stub.getRequests().size() <= 10, "requests: " + stub.getRequests().size());
+        assertEquals(0, poller.getHighWaterMark());
+    }
+
+    @Test
+    void responseCutShortIsPolledAgain() throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        List<Reply> replies = List.of(Reply.json(features(UPDATED)).cutAt(40), Reply.json(features(UPDATED).substring(0, 60)),
+                Reply.json(features(UPDATED)));
+        stub = new StubHttpServer(request -> replies.get(Math.min(next.getAndIncrement(), replies.size() - 1)));
+        IncrementalPoller poller = poller(Duration.ofDays(2));
+
+        // Both failures are read errors, which run() polls again, not parse errors ending the loop
+        IOException dropped = assertThrows(IOException.class, poller::pollOnce);
+        assertTrue(!(dropped instanceof HttpStatusException));
+        IOException truncated = assertThrows(IOException.class, poller::pollOnce);
+        assertTrue(!(truncated instanceof HttpStatusException));
+        assertEquals(0, poller.getHighWaterMark());
+        assertTrue(applied.isEmpty());
+
+        assertEquals(1, poller.pollOnce());
+        assertEquals(UPDATED, poller.getHighWaterMark());
+    }
+
+    private IncrementalPoller poller(Duration initialLookback) throws IOException {
+        return new IncrementalPoller(fetcher, metrics, stub.getBaseUrl(), new File(dir, "poll_state.properties"), initialLookback,
+                IncrementalPollerTest::parseEvents, events -> applied.add(events.getEventCount()));
+    }
+
+    private static PartitionedSink<EarthquakeEvent> parseEvents(Reader body) {
+        PartitionedSink<EarthquakeEvent> events = new PartitionedSink<>("poll-test", 2048, json -> null);
+        JsonStreamReader.forEachObject(body, "features", feature -> {
+            JSONObject properties = feature.getJSONObject("properties");
+            try {
+                events.add("partition", new EarthquakeEvent(null, properties, null, properties.getLong("time"), ""));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return events;
+    }
+
+    private static String features(long updated) {
+        return "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":"
+                + "{\"time\":" + (updated - 60_000) + ",\"updated\":" + updated + ",\"net\":\"us\",\"code\":\"a\"}}]}";
+    }
+
+    private static long parse(String fdsnTime) {
+        return LocalDateTime.parse(fdsnTime).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,122 @@
+package org.openbexi.earthquake;
+
+import org.junit.jupiter.api.Test;
+import org.openbexi.common.HttpStatusException;
+import org.openbexi.common.RateLimiter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Window sizing from a fake count endpoint whose events are spread evenly over each day: quiet days
+// are merged up to the target, a window over the cap shrinks, and a day over the cap is split into
+// slices that each hold at most the cap.
+class WindowPlannerTest {
+
+    private static final long TARGET = 10_000;
+    private static final long CAP = 20_000;
+    private static final LocalDate END = LocalDate.of(2024, 3, 1);
+
+    @Test
+    void quietDaysAreMergedUpToTheTarget() throws Exception {
+        WindowPlanner planner = planner(day -> 1000);
+
+        // The first window is a single day, the rate it measured sizes the next one
+        WindowPlanner.Window first = planner.plan(END, 31);
+        assertEquals(END.minusDays(1), first.start);
+        assertEquals(1000, first.expectedEvents);
+
+        WindowPlanner.Window second = planner.plan(first.start, 31);
+        assertEquals(first.start.minusDays(10), second.start);
+        assertEquals(1, second.slices());
+        assertEquals(TARGET, second.expectedEvents);
+
+        // Never across a day already complete
+        assertEquals(first.start.minusDays(3), planner.plan(first.start, 3).start);
+    }
+
+    @Test
+    void windowOverTheCapShrinks() throws Exception {
+        // Quiet days followed (going back) by busy ones
+        LocalDate busyFrom = END.minusDays(2);
+        WindowPlanner planner = planner(day -> day.isBefore(busyFrom) ? 8000 : 100);
+
+        planner.plan(END, 31);
+        WindowPlanner.Window window = planner.plan(END.minusDays(1), 31);
+        // The 31 days the quiet rate asked for were counted over the cap, then a shorter window
+        assertEquals(3, planner.getCountRequests());
+        assertTrue(window.start.isAfter(END.minusDays(32)), "start " + window.start);
+        assertTrue(window.expectedEvents <= CAP, "expected " + window.expectedEvents);
+        assertEquals(1, window.slices());
+        assertEquals(countOf(day -> day.isBefore(busyFrom) ? 8000 : 100, window.start, window.end), window.expectedEvents);
+    }
+
+    @Test
+    void busyDayIsSplitAtTheCap() throws Exception {
+        WindowPlanner planner = planner(day -> 55_000);
+
+        WindowPlanner.Window window = planner.plan(END, 31);
+        assertEquals(END.minusDays(1), window.start);
+        assertEquals(55_000, window.expectedEvents);
+        assertEquals(6, window.slices());
+        assertEquals(startOf(window.start), window.bounds.get(0));
+        assertEquals(startOf(window.end), window.bounds.get(window.slices()));
+        for (int i = 0; i < window.slices(); i++) {
+            Instant start = window.bounds.get(i);
+            Instant end = window.bounds.get(i + 1);
+            assertTrue(start.isBefore(end));
+            assertTrue(55_000.0 * Duration.between(start, end).toMillis() / Duration.ofDays(1).toMillis() <= CAP,
+                    "slice " + start + " - " + end);
+        }
+    }
+
+    @Test
+    void missingCountEndpointFallsBackToDays() throws Exception {
+        WindowPlanner planner = new WindowPlanner((start, end) -> {
+            throw new HttpStatusException(404, "Not found");
+        }, new RateLimiter(1000, 10), TARGET, CAP, 31, Duration.ofMinutes(1));
+
+        WindowPlanner.Window window = planner.plan(END, 31);
+        assertEquals(END.minusDays(1), window.start);
+        assertEquals(-1, window.expectedEvents);
+        assertEquals(1, planner.getMaxSpanDays());
+        assertEquals(1, planner.getCountRequests());
+    }
+
+    private interface DailyRate {
+        long eventsOn(LocalDate day);
+    }
+
+    private static WindowPlanner planner(DailyRate rate) {
+        return new WindowPlanner((start, end) -> countOf(rate, start, end), new RateLimiter(1000, 10), TARGET, CAP, 31,
+                Duration.ofMinutes(1));
+    }
+
+    private static long countOf(DailyRate rate, LocalDate start, LocalDate end) {
+        return countOf(rate, startOf(start), startOf(end));
+    }
+
+    // Events of [start, end), each day's spread evenly over it
+    private static long countOf(DailyRate rate, Instant start, Instant end) {
+        long dayMillis = Duration.ofDays(1).toMillis();
+        double count = 0;
+        for (Instant from = start; from.isBefore(end); ) {
+            LocalDate day = LocalDate.ofInstant(from, ZoneOffset.UTC);
+            Instant to = startOf(day.plusDays(1));
+            if (to.isAfter(end)) {
+                to = end;
+            }
+            count += (double) rate.eventsOn(day) * Duration.between(from, to).toMillis() / dayMillis;
+            from = to;
+        }
+        return Math.round(count);
+    }
+
+    private static Instant startOf(LocalDate day) {
+        return day.atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+}
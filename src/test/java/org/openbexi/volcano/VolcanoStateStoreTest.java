@@ -0,0 +1,82 @@
+package org.openbexi.volcano;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The first notice of a volcano is its baseline; the notices of a sweep are replayed in the order
+// they were sent, each color code or alert level change being logged once applied, and an older
+// notice changes nothing. What a sweep staged is dropped if it did not complete, and the state
+// saved (validators included) is found again by the next run.
+class VolcanoStateStoreTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void changesAreLoggedInTheOrderTheyWereSent() throws IOException {
+        File log = new File(dir, "log/transitions.log");
+        VolcanoStateStore store = new VolcanoStateStore(new File(dir, "state.properties"), log);
+        store.observe(notice("N1", 1000, "GREEN", "NORMAL"));
+        assertEquals(List.of(), store.apply());
+
+        // Out of order within the sweep
+        store.observe(notice("N3", 3000, "ORANGE", "WATCH"));
+        store.observe(notice("N2", 2000, "YELLOW", "ADVISORY"));
+        List<String> transitions = store.apply();
+        assertEquals(List.of(
+                "1970-01-01T00:33:20Z\t311240\tCleveland\tGREEN\u2192YELLOW\tNORMAL\u2192ADVISORY\tN2",
+                "1970-01-01T00:50:00Z\t311240\tCleveland\tYELLOW\u2192ORANGE\tADVISORY\u2192WATCH\tN3"), transitions);
+        assertEquals(transitions, Files.readAllLines(log.toPath(), StandardCharsets.UTF_8));
+
+        // An older notice, the same one again, or a notice without a change
+        store.observe(notice("N0", 500, "RED", "WARNING"));
+        store.observe(notice("N3", 3000, "ORANGE", "WATCH"));
+        store.observe(notice("N4", 4000, "ORANGE", "WATCH"));
+        assertEquals(List.of(), store.apply());
+        assertEquals(2, Files.readAllLines(log.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    void onlyAppliedStateIsSaved() throws IOException {
+        File stateFile = new File(dir, "state.properties");
+        File log = new File(dir, "transitions.log");
+        VolcanoStateStore store = new VolcanoStateStore(stateFile, log);
+        store.observe(notice("N1", 1000, "GREEN", "NORMAL"));
+        store.validatorsReceived("311240", "\"v1\"", "Thu, 01 Jan 1970 00:16:40 GMT");
+        store.apply();
+        store.save();
+
+        // A sweep that failed before its day files were merged
+        store.observe(notice("N2", 2000, "RED", "WARNING"));
+        store.validatorsReceived("311240", "\"v2\"", null);
+        store.discardPending();
+        assertEquals(List.of(), store.apply());
+        store.save();
+
+        VolcanoStateStore reopened = new VolcanoStateStore(stateFile, log);
+        assertEquals(Map.of("If-None-Match", "\"v1\"", "If-Modified-Since", "Thu, 01 Jan 1970 00:16:40 GMT"),
+                reopened.conditionalHeaders("311240"));
+        assertTrue(reopened.conditionalHeaders("999999").isEmpty());
+        reopened.observe(notice("N2", 2000, "RED", "WARNING"));
+        assertEquals(1, reopened.apply().size());
+    }
+
+    private static JSONObject notice(String identifier, long sentSeconds, String colorCode, String alertLevel) {
+        JSONObject section = new JSONObject().put("vnum", "311240").put("volcanoName", "Cleveland")
+                .put("colorCode", colorCode).put("alertLevel", alertLevel);
+        return new JSONObject().put("noticeIdentifier", identifier).put("sent_unixtime", sentSeconds)
+                .put("sections", new JSONArray().put(section));
+    }
+}